@@ -24,19 +24,17 @@ import org.terracotta.angela.common.tcconfig.License;
 import org.terracotta.angela.common.topology.LicenseType;
 import org.terracotta.angela.common.topology.PackageType;
 import org.terracotta.angela.common.topology.Version;
-import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.HttpDownloader;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Objects;
 
+import static org.terracotta.angela.common.AngelaProperties.KIT_DOWNLOAD_PARALLELISM;
 import static org.terracotta.angela.common.topology.PackageType.KIT;
 
 /**
@@ -113,60 +111,43 @@ public abstract class KitResolver {
     URL[] urls = resolveKitUrls(version, licenseType, packageType);
     URL kitUrl = urls[0];
     URL md5Url = urls[1];
-    download(kitUrl, localInstallerFile);
 
     // snapshots and SAG installer have no MD5
+    String expectedMd5 = null;
     if (!version.isSnapshot() && packageType == KIT) {
-      download(md5Url, Paths.get(localInstallerFile + ".md5"));
+      // fetched first so that the installer can be verified while it is being downloaded
+      Path md5File = Paths.get(localInstallerFile + ".md5");
+      try {
+        createParentDirs(md5File);
+        HttpDownloader.downloadSmallFile(md5Url, md5File);
+        expectedMd5 = HttpDownloader.readMd5(md5File);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error downloading " + md5Url + " to " + md5File, e);
+      }
     }
+    download(kitUrl, localInstallerFile, expectedMd5);
     logger.debug("Success -> file downloaded successfully");
   }
 
   protected void download(URL url, Path dest) {
-    try {
-      URLConnection urlConnection = url.openConnection();
-      urlConnection.connect();
-
-      int contentLength = urlConnection.getContentLength();
-      logger.info("Downloading {} from {}", humanReadableByteCount(contentLength), url);
+    download(url, dest, null);
+  }
 
+  /**
+   * Download a file, resuming a previous download of it that failed half-way if any.
+   *
+   * @param expectedMd5 the MD5 the downloaded file must have, or null if it must not be checked
+   */
+  protected void download(URL url, Path dest, String expectedMd5) {
+    try {
       createParentDirs(dest);
-
-      long lastProgress = -1;
-      try (OutputStream fos = Files.newOutputStream(dest);
-           InputStream is = url.openStream()) {
-        byte[] buffer = new byte[8192];
-        long len = 0;
-        int count;
-        while ((count = is.read(buffer)) != -1) {
-          len += count;
-
-          long progress = 100 * len / contentLength;
-          if (progress % 10 == 0 && progress > lastProgress) {
-            logger.info("Download progress = {}%", progress);
-            lastProgress = progress;
-          }
-          fos.write(buffer, 0, count);
-        }
-      }
-
-      logger.debug("Success -> file downloaded successfully");
+      new HttpDownloader(Integer.parseInt(KIT_DOWNLOAD_PARALLELISM.getValue())).download(url, dest, expectedMd5);
     } catch (IOException e) {
-      // messed up download -> delete it
-      logger.debug("Deleting: " + dest.getParent() + " dir as it's messed up");
-      DirectoryUtils.deleteQuietly(dest.getParent());
-      throw new UncheckedIOException(e);
+      // what was downloaded so far is kept, so that the next attempt resumes from there
+      throw new UncheckedIOException("Error downloading " + url + " to " + dest, e);
     }
   }
 
-  // Adapted from https://programming.guide/java/formatting-byte-size-to-human-readable-format.html
-  private static String humanReadableByteCount(long bytes) {
-    if (bytes < 1024) return bytes + " B";
-    int exp = (int)(Math.log(bytes) / Math.log(1024));
-    String pre = "" + "KMGTPE".charAt(exp - 1);
-    return String.format("%.1f %sB", bytes / Math.pow(1024, exp), pre);
-  }
-
   private static void createParentDirs(Path file) throws IOException {
     Objects.requireNonNull(file);
     Path parent = file.getParent();
@@ -28,11 +28,17 @@ import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
 import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.client.RemoteClientManager;
 import org.terracotta.angela.common.AngelaProperties;
 import org.terracotta.angela.common.net.DefaultPortAllocator;
 import org.terracotta.angela.common.util.AngelaVersion;
 import org.terracotta.angela.common.util.IgniteCommonHelper;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -43,6 +49,7 @@ import java.util.Map;
 import static org.terracotta.angela.common.AngelaProperties.DIRECT_JOIN;
 import static org.terracotta.angela.common.AngelaProperties.IGNITE_LOGGING;
 import static org.terracotta.angela.common.AngelaProperties.NODE_NAME;
+import static org.terracotta.angela.common.AngelaProperties.POOLED_CLIENT;
 import static org.terracotta.angela.common.AngelaProperties.getEitherOf;
 import static org.terracotta.angela.common.util.DirectoryUtils.createAndValidateDir;
 
@@ -51,6 +58,7 @@ import static org.terracotta.angela.common.util.DirectoryUtils.createAndValidate
  */
 public class Agent {
   public static final String AGENT_IS_READY_MARKER_LOG = "Agent is ready";
+  public static final String POOLED_CLIENT_IS_WAITING_MARKER_LOG = "Pooled client is waiting";
   private final static Logger logger;
   private Ignite ignite;
 
@@ -77,10 +85,41 @@ public class Agent {
     final Agent agent = new Agent();
     int igniteDiscoveryPort = Integer.parseInt(System.getProperty("ignite.discovery.port"));
     int igniteComPort = Integer.parseInt(System.getProperty("ignite.com.port"));
+    if (Boolean.parseBoolean(POOLED_CLIENT.getValue())) {
+      String nodeName = awaitAssignment();
+      if (nodeName == null) {
+        // the agent that started this pooled client went away before handing it out
+        return;
+      }
+      NODE_NAME.setProperty(nodeName);
+    }
     agent.startCluster(Arrays.asList(DIRECT_JOIN.getValue().split(",")), NODE_NAME.getValue(), igniteDiscoveryPort, igniteComPort);
     Runtime.getRuntime().addShutdownHook(new Thread(agent::close));
   }
 
+  /**
+   * A pooled client loads the classes it needs to join the cluster, then waits for the agent that started it
+   * to write the node name it is assigned on its standard input.
+   *
+   * @return the node name, or null if the standard input got closed
+   */
+  private static String awaitAssignment() {
+    new TcpDiscoverySpi().setIpFinder(new TcpDiscoveryVmIpFinder(true));
+    new TcpCommunicationSpi();
+    new IgniteConfiguration().setGridLogger(new NullLogger());
+    logger.debug("Loaded {}", AgentController.class);
+
+    // Do not use logger here as the marker is being grep'ed at and we do not want to depend upon the logger config
+    System.out.println(POOLED_CLIENT_IS_WAITING_MARKER_LOG);
+    System.out.flush();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+      return reader.readLine();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Error reading the node name of the pooled client", ioe);
+    }
+  }
+
   public void startCluster(Collection<String> peers, String nodeName, int igniteDiscoveryPort, int igniteComPort) {
     logger.info("Root directory is: {}", ROOT_DIR);
     logger.info("Nodename: {} added to cluster", nodeName);
@@ -129,6 +168,7 @@ public class Agent {
   }
 
   public void close() {
+    RemoteClientManager.closeClientPool();
     if (ignite != null) {
       ignite.close();
       ignite = null;
@@ -20,8 +20,10 @@ package org.terracotta.angela.agent;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteMessaging;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.client.ClientJarCache;
 import org.terracotta.angela.agent.client.RemoteClientManager;
 import org.terracotta.angela.agent.kit.MonitoringInstance;
 import org.terracotta.angela.agent.kit.RemoteKitManager;
@@ -35,6 +37,7 @@ import org.terracotta.angela.common.TerracottaManagementServerInstance;
 import org.terracotta.angela.common.TerracottaManagementServerState;
 import org.terracotta.angela.common.TerracottaServerInstance;
 import org.terracotta.angela.common.TerracottaServerState;
+import org.terracotta.angela.common.TerracottaServerStateEvent;
 import org.terracotta.angela.common.TerracottaVoter;
 import org.terracotta.angela.common.TerracottaVoterInstance;
 import org.terracotta.angela.common.TerracottaVoterState;
@@ -50,8 +53,10 @@ import org.terracotta.angela.common.tcconfig.TerracottaServer;
 import org.terracotta.angela.common.tms.security.config.TmsServerSecurityConfig;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.topology.Topology;
-import org.terracotta.angela.common.util.FileMetadata;
-import org.terracotta.angela.common.util.IgniteCommonHelper;
+import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.FileManifest;
+import org.terracotta.angela.common.util.FileRangeReader;
+import org.terracotta.angela.common.util.FileTransfer;
 import org.terracotta.angela.common.util.ProcessUtil;
 
 import java.io.ByteArrayOutputStream;
@@ -61,22 +66,27 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.UUID;
 
 import static java.util.stream.Collectors.toList;
-import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
 
 /**
  * @author Aurelien Broszniowski
@@ -85,6 +95,7 @@ import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
 public class AgentController {
 
   private final static Logger logger = LoggerFactory.getLogger(AgentController.class);
+  private static final int FILE_TRANSFER_ACCEPT_TIMEOUT_MILLIS = 60_000;
 
   private final Map<InstanceId, TerracottaInstall> kitsInstalls = new HashMap<>();
   private final Map<InstanceId, TmsInstall> tmsInstalls = new HashMap<>();
@@ -108,6 +119,20 @@ public class AgentController {
                             String kitInstallationName,
                             Distribution distribution,
                             Topology topology) {
+    return installTsa(instanceId, Collections.singletonList(terracottaServer), license, kitInstallationName, distribution, topology);
+  }
+
+  /**
+   * Install the kit at most once and register all the given servers, which are expected to live on this agent's host.
+   *
+   * @return false if the kit is not available on this host and must be uploaded first, true otherwise
+   */
+  public boolean installTsa(InstanceId instanceId,
+                            List<TerracottaServer> terracottaServers,
+                            License license,
+                            String kitInstallationName,
+                            Distribution distribution,
+                            Topology topology) {
     TerracottaInstall terracottaInstall = kitsInstalls.get(instanceId);
 
     File kitLocation;
@@ -118,17 +143,19 @@ public class AgentController {
         return false;
       }
 
-      logger.info("Installing kit for {} from {}", terracottaServer, distribution);
+      logger.info("Installing kit for {} from {}", terracottaServers, distribution);
       kitLocation = kitManager.installKit(license, topology.getServersHostnames());
       workingDir = kitManager.getWorkingDir().toFile();
       terracottaInstall = kitsInstalls.computeIfAbsent(instanceId, (iid) -> new TerracottaInstall(workingDir.getParentFile(), portAllocator));
     } else {
       kitLocation = terracottaInstall.kitLocation(distribution);
       workingDir = terracottaInstall.installLocation(distribution);
-      logger.info("Kit for {} already installed", terracottaServer);
+      logger.info("Kit for {} already installed", terracottaServers);
     }
 
-    terracottaInstall.addServer(terracottaServer, kitLocation, workingDir, license, distribution, topology);
+    for (TerracottaServer terracottaServer : terracottaServers) {
+      terracottaInstall.addServer(terracottaServer, kitLocation, workingDir, license, distribution, topology);
+    }
 
     return true;
   }
@@ -342,9 +369,34 @@ public class AgentController {
     }
   }
 
-  public void createTsa(InstanceId instanceId, TerracottaServer terracottaServer, TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs) {
+  /**
+   * Create a server process, and send a {@link TerracottaServerStateEvent} to the node creating it each time its
+   * state gets updated.
+   *
+   * @param listenerNodeId the id of the node creating the server
+   * @return the generation of the created server process
+   */
+  public long createTsa(InstanceId instanceId, TerracottaServer terracottaServer, TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs, UUID listenerNodeId) {
     TerracottaServerInstance serverInstance = kitsInstalls.get(instanceId).getTerracottaServerInstance(terracottaServer);
-    serverInstance.create(tcEnv, startUpArgs);
+    // ordered, so that a process dying right after it started is not reported as started
+    IgniteMessaging messaging = ignite.message(ignite.cluster().forNodeId(listenerNodeId));
+    return serverInstance.create(tcEnv, startUpArgs, (state, generation) -> {
+      TerracottaServerStateEvent event = new TerracottaServerStateEvent(instanceId, terracottaServer.getServerSymbolicName(), generation, state);
+      try {
+        messaging.sendOrdered(TerracottaServerStateEvent.TOPIC, event, 0L);
+      } catch (Exception e) {
+        logger.warn("Error publishing {}", event, e);
+      }
+    });
+  }
+
+  public boolean isTsaAlive(InstanceId instanceId, TerracottaServer terracottaServer) {
+    TerracottaInstall terracottaInstall = kitsInstalls.get(instanceId);
+    if (terracottaInstall == null) {
+      return false;
+    }
+    TerracottaServerInstance serverInstance = terracottaInstall.getTerracottaServerInstance(terracottaServer);
+    return serverInstance != null && serverInstance.isAlive();
   }
 
   public void stopTsa(InstanceId instanceId, TerracottaServer terracottaServer) {
@@ -356,10 +408,13 @@ public class AgentController {
     serverInstance.stop();
   }
 
-  public void waitForTsaInState(InstanceId instanceId, TerracottaServer terracottaServer, Set<TerracottaServerState> wanted) {
-    TerracottaServerInstance serverInstance = kitsInstalls.get(instanceId)
-        .getTerracottaServerInstance(terracottaServer);
-    serverInstance.waitForState(wanted);
+  public void crashTsa(InstanceId instanceId, TerracottaServer terracottaServer) {
+    TerracottaInstall terracottaInstall = kitsInstalls.get(instanceId);
+    if (terracottaInstall == null) {
+      return;
+    }
+    TerracottaServerInstance serverInstance = terracottaInstall.getTerracottaServerInstance(terracottaServer);
+    serverInstance.crash();
   }
 
   public TerracottaServerState getTsaState(InstanceId instanceId, TerracottaServer terracottaServer) {
@@ -374,6 +429,32 @@ public class AgentController {
     return serverInstance.getTerracottaServerState();
   }
 
+  /**
+   * @return the state of each of the given servers, by server id
+   */
+  public Map<UUID, TerracottaServerState> getTsaStates(InstanceId instanceId, Collection<TerracottaServer> terracottaServers) {
+    Map<UUID, TerracottaServerState> states = new HashMap<>();
+    for (TerracottaServer terracottaServer : terracottaServers) {
+      states.put(terracottaServer.getId(), getTsaState(instanceId, terracottaServer));
+    }
+    return states;
+  }
+
+  /**
+   * Search the output of a server on this host, without transferring the rest of it.
+   */
+  public List<String> queryTsaLog(InstanceId instanceId, TerracottaServer terracottaServer, long fromMillis, long toMillis, String regex, int maxLines) {
+    TerracottaInstall terracottaInstall = kitsInstalls.get(instanceId);
+    if (terracottaInstall == null) {
+      return Collections.emptyList();
+    }
+    TerracottaServerInstance serverInstance = terracottaInstall.getTerracottaServerInstance(terracottaServer);
+    if (serverInstance == null) {
+      return Collections.emptyList();
+    }
+    return serverInstance.queryLog(fromMillis, toMillis, regex, maxLines);
+  }
+
   public Map<ServerSymbolicName, Integer> getProxyGroupPortsForServer(InstanceId instanceId, TerracottaServer terracottaServer) {
     TerracottaInstall terracottaInstall = kitsInstalls.get(instanceId);
     if (terracottaInstall == null) {
@@ -416,6 +497,18 @@ public class AgentController {
     return terracottaVoterInstance.getTerracottaVoterState();
   }
 
+  public List<String> queryVoterLog(InstanceId instanceId, TerracottaVoter terracottaVoter, long fromMillis, long toMillis, String regex, int maxLines) {
+    VoterInstall voterInstall = voterInstalls.get(instanceId);
+    if (voterInstall == null) {
+      return Collections.emptyList();
+    }
+    TerracottaVoterInstance terracottaVoterInstance = voterInstall.getTerracottaVoterInstance(terracottaVoter);
+    if (terracottaVoterInstance == null) {
+      return Collections.emptyList();
+    }
+    return terracottaVoterInstance.queryLog(fromMillis, toMillis, regex, maxLines);
+  }
+
   public void startVoter(InstanceId instanceId, TerracottaVoter terracottaVoter) {
     TerracottaVoterInstance terracottaVoterInstance = voterInstalls.get(instanceId).getTerracottaVoterInstance(terracottaVoter);
     terracottaVoterInstance.start();
@@ -488,6 +581,7 @@ public class AgentController {
     try {
       logger.info("killing client '{}' with PID {}", instanceId, pid);
       ProcessUtil.destroyGracefullyOrForcefullyAndWait(pid);
+      RemoteClientManager.clientExited(pid);
     } catch (Exception e) {
       throw new RuntimeException("Error stopping client " + instanceId, e);
     }
@@ -512,47 +606,161 @@ public class AgentController {
     return remoteClientManager.spawnClient(instanceId, tcEnv, joinedNodes, ignitePort, portAllocator);
   }
 
-  public void downloadFiles(InstanceId instanceId, File installDir) {
-    final BlockingQueue<Object> queue = IgniteCommonHelper.fileTransferQueue(ignite, instanceId);
+  /**
+   * Opens a socket on which the orchestrator can stream files into the given directory. Only the handshake goes
+   * through ignite: the returned port must be connected to within {@link #FILE_TRANSFER_ACCEPT_TIMEOUT_MILLIS},
+   * the outcome of the transfer is reported to the sender over the socket itself.
+   *
+   * @param installDir the directory into which the files are going to be written
+   * @return the port on which the agent is listening
+   */
+  public int openFileTransfer(File installDir) {
+    return openFileTransfer(installDir, (destDir, relativePaths) -> {
+    });
+  }
+
+  /**
+   * Record the jars of a client classpath that are to be taken from the agent's jar cache.
+   *
+   * @param jarHashes the SHA-256 hashes of the jars, in classpath order
+   * @return the hashes of the jars that still need to be uploaded with {@link #openClientJarTransfer()}
+   */
+  public List<String> prepareClientJars(InstanceId instanceId, List<String> jarHashes) {
+    return new RemoteClientManager(instanceId).prepareCachedJars(jarHashes);
+  }
+
+  /**
+   * Same as {@link #openFileTransfer(File)} for client jars, which must be sent as {@code <hash>/<jar name>} and are
+   * added to the agent's jar cache once received.
+   */
+  public int openClientJarTransfer() {
+    ClientJarCache jarCache = RemoteClientManager.getJarCache();
+    Path stagingDir;
     try {
-      logger.info("Downloading files into {}", installDir);
-      if (!installDir.exists()) {
-        if (!installDir.mkdirs()) {
-          throw new RuntimeException("Cannot create directory '" + installDir + "'");
-        }
+      stagingDir = jarCache.newStagingDir();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot create staging directory for client jars", ioe);
+    }
+    return openFileTransfer(stagingDir.toFile(), (destDir, relativePaths) -> {
+      try {
+        jarCache.add(destDir, relativePaths);
+      } finally {
+        DirectoryUtils.deleteQuietly(destDir);
       }
+    });
+  }
 
-      while (true) {
-        Object read = queue.take();
-        if (read.equals(Boolean.TRUE)) {
-          logger.info("Downloaded files into {}", installDir);
-          break;
-        }
+  /**
+   * Compare the kit installation with the manifest of the kit to be uploaded, and install from the agent's content
+   * store all the files that are already known.
+   *
+   * @return the relative paths of the kit files that still need to be uploaded
+   */
+  public List<String> prepareKitUpload(InstanceId instanceId, Distribution distribution, String kitInstallationName, FileManifest manifest) {
+    RemoteKitManager kitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+    List<String> missing = kitManager.syncKit(manifest);
+    logger.info("{} of {} kit file(s) need to be uploaded for {}", missing.size(), manifest.getFiles().size(), kitInstallationName);
+    return missing;
+  }
+
+  /**
+   * Same as {@link #openFileTransfer(File)} for kit files, which are checked against the manifest and added
+   * to the agent's content store once received.
+   */
+  public int openKitTransfer(InstanceId instanceId, Distribution distribution, String kitInstallationName, FileManifest manifest) {
+    RemoteKitManager kitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+    File installDir = kitManager.getKitInstallationPath().getParent().toFile();
+    String prefix = kitInstallationName + "/";
+    return openFileTransfer(installDir, (destDir, relativePaths) -> kitManager.storeKitFiles(manifest, relativePaths.stream()
+        .map(relativePath -> relativePath.startsWith(prefix) ? relativePath.substring(prefix.length()) : relativePath)
+        .collect(toList())));
+  }
+
+  /**
+   * Send kit files held by this agent to another agent, which must have opened a transfer with
+   * {@link #openKitTransfer(InstanceId, Distribution, String, FileManifest)}. This lets agents relay a kit to each
+   * other instead of all receiving it from the orchestrator.
+   */
+  public void relayKitFiles(InstanceId instanceId, Distribution distribution, String kitInstallationName, FileManifest manifest,
+                            List<String> relativePaths, String targetHostname, int targetPort, int compressionLevel) {
+    RemoteKitManager kitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+    Map<String, File> entries = new LinkedHashMap<>();
+    for (String relativePath : relativePaths) {
+      entries.put(kitInstallationName + "/" + relativePath, kitManager.getKitFile(manifest, relativePath));
+    }
+
+    logger.info("Relaying {} kit file(s) of {} to {}:{}", entries.size(), kitInstallationName, targetHostname, targetPort);
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(targetHostname, targetPort))) {
+      FileTransfer.send(channel, entries, compressionLevel);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Error relaying kit " + kitInstallationName + " to " + targetHostname, ioe);
+    }
+  }
 
-        FileMetadata fileMetadata = (FileMetadata) read;
-        logger.debug("downloading " + fileMetadata);
-        if (!fileMetadata.isDirectory()) {
-          long readFileLength = 0L;
-          File file = new File(installDir + File.separator + fileMetadata.getPathName());
-          file.getParentFile().mkdirs();
-          try (FileOutputStream fos = new FileOutputStream(file)) {
-            while (readFileLength != fileMetadata.getLength()) {
-              if (readFileLength > fileMetadata.getLength()) {
-                throw new RuntimeException("Error downloading file : " + fileMetadata);
-              }
-
-              byte[] buffer = (byte[]) queue.take();
-              fos.write(buffer);
-              readFileLength += buffer.length;
-            }
-          }
-          logger.debug("downloaded " + fileMetadata);
-        }
+  private int openFileTransfer(File installDir, FileTransfer.ReceivedFilesHandler handler) {
+    return openTransferChannel("FileTransfer into " + installDir, channel -> {
+      logger.info("Downloading files into {}", installDir);
+      FileTransfer.receive(channel, installDir.toPath(), handler);
+      logger.info("Downloaded files into {}", installDir);
+    });
+  }
+
+  /**
+   * Opens a socket on which the orchestrator can download the content of a folder. The files are streamed from disk
+   * as the orchestrator consumes them, so neither side needs to buffer the folder in memory.
+   *
+   * @param folder the folder whose content is going to be sent
+   * @param compressionLevel the compression level to propose to the orchestrator, 0 for none
+   * @return the port on which the agent is listening
+   */
+  public int openFolderDownload(String folder, int compressionLevel) {
+    File root = new File(folder);
+    if (!root.isDirectory() || !root.canRead()) {
+      throw new RuntimeException("Folder does not exist or is not readable : " + folder);
+    }
+
+    return openTransferChannel("FileTransfer from " + folder, channel -> {
+      File[] files = root.listFiles();
+      if (files == null) {
+        throw new IOException("Error listing folder " + folder);
       }
-      setCorrectPermissions(installDir.toPath());
-    } catch (Exception e) {
-      throw new RuntimeException("Cannot download files to " + installDir.getAbsolutePath(), e);
-    }
+      logger.info("Uploading files from {}", folder);
+      FileTransfer.send(channel, Arrays.asList(files), compressionLevel);
+      logger.info("Uploaded files from {}", folder);
+    });
+  }
+
+  private int openTransferChannel(String name, TransferHandler transferHandler) {
+    PortAllocator.PortReservation reservation = portAllocator.reserve(1);
+    ServerSocketChannel serverSocketChannel;
+    try {
+      serverSocketChannel = ServerSocketChannel.open();
+      serverSocketChannel.bind(new InetSocketAddress(reservation.next()));
+      serverSocketChannel.socket().setSoTimeout(FILE_TRANSFER_ACCEPT_TIMEOUT_MILLIS);
+    } catch (IOException ioe) {
+      reservation.close();
+      throw new RuntimeException("Cannot open channel for " + name, ioe);
+    }
+
+    Thread transferThread = new Thread(() -> {
+      try (ServerSocketChannel ssc = serverSocketChannel;
+           SocketChannel channel = ssc.socket().accept().getChannel()) {
+        transferHandler.transfer(channel);
+      } catch (Exception e) {
+        logger.error("{} failed", name, e);
+      } finally {
+        reservation.close();
+      }
+    });
+    transferThread.setDaemon(true);
+    transferThread.setName(name);
+    transferThread.start();
+    return serverSocketChannel.socket().getLocalPort();
+  }
+
+  @FunctionalInterface
+  private interface TransferHandler {
+    void transfer(SocketChannel channel) throws IOException;
   }
 
   public List<String> listFiles(String folder) {
@@ -581,47 +789,39 @@ public class AgentController {
     return baos.toByteArray();
   }
 
-  public void uploadFile(String filename, byte[] data) {
-    File file = new File(filename);
-    file.getParentFile().mkdirs();
-    try (FileOutputStream fos = new FileOutputStream(file)) {
-      fos.write(data);
+  public long getFileLength(String file) {
+    Path path = Paths.get(file);
+    if (!Files.isRegularFile(path)) {
+      throw new RuntimeException("File does not exist or is not a regular file : " + file);
+    }
+    try {
+      return Files.size(path);
     } catch (IOException ioe) {
-      throw new RuntimeException("Error uploading file " + filename, ioe);
+      throw new RuntimeException("Error reading length of file " + file, ioe);
     }
   }
 
-  public byte[] downloadFolder(String file) {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-      File root = new File(file);
-      zipFolder(zos, "", root);
+  public byte[] downloadFileRange(String file, long offset, int length) {
+    try {
+      return FileRangeReader.read(Paths.get(file), offset, length);
     } catch (IOException ioe) {
-      throw new RuntimeException("Error downloading folder " + file, ioe);
+      throw new RuntimeException("Error downloading range [" + offset + ", " + length + "] of file " + file, ioe);
     }
-    return baos.toByteArray();
   }
 
-  private void zipFolder(ZipOutputStream zos, String parent, File folder) throws IOException {
-    if (!folder.canRead()) {
-      throw new IOException("Folder does not exist or is not readable : " + folder);
-    }
-    File[] files = folder.listFiles();
-    if (files == null) {
-      throw new IOException("Error listing folder " + folder);
+  public byte[] tailFile(String file, int length) {
+    try {
+      return FileRangeReader.tail(Paths.get(file), length);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Error downloading last " + length + " bytes of file " + file, ioe);
     }
-    for (File file : files) {
-      if (file.isDirectory()) {
-        zipFolder(zos, parent + file.getName() + "/", file);
-      } else {
-        ZipEntry zipEntry = new ZipEntry(parent + file.getName());
-        zipEntry.setTime(file.lastModified());
-        zos.putNextEntry(zipEntry);
-        try (FileInputStream fis = new FileInputStream(file)) {
-          IOUtils.copy(fis, zos);
-        }
-        zos.closeEntry();
-      }
+  }
+
+  public List<String> tailFileLines(String file, int lines, String charset) {
+    try {
+      return FileRangeReader.tailLines(Paths.get(file), lines, Charset.forName(charset));
+    } catch (IOException ioe) {
+      throw new RuntimeException("Error downloading last " + lines + " lines of file " + file, ioe);
     }
   }
 
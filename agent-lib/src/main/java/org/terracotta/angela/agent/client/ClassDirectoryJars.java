@@ -0,0 +1,97 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.FileManifest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Packages the directories of client classpaths, like the test classes of the ClientJobs or the agent classes when
+ * running from a build tree, into jars, since the JVM cannot archive the classes it loads from a directory.
+ * Each jar is stored as {@code <hash of the directory content>/<directory name>.jar}, so that the classpath, hence
+ * the class-data-sharing archive, stays the same across runs as long as the classes do not change.
+ * <p>
+ * The modification time of the directory of a jar is refreshed each time the jar is used, so that the jars of
+ * directories that changed can be evicted with {@link DirectoryUtils#deleteEntriesUnusedSince(Path, long)}. The one
+ * of the jar itself must not change, since the JVM would then consider the archive of the classpath stale.
+ */
+class ClassDirectoryJars {
+  private final static Logger logger = LoggerFactory.getLogger(ClassDirectoryJars.class);
+
+  private final Path jarDir;
+
+  ClassDirectoryJars(Path jarDir) {
+    this.jarDir = jarDir;
+  }
+
+  /**
+   * @return a jar having the content of the directory, created if there is none yet
+   */
+  Path jarOf(Path directory) throws IOException {
+    FileManifest manifest = FileManifest.of(directory);
+    String hash = manifest.contentHash();
+    String jarName = directory.getFileName() + ".jar";
+    Path jar = jarDir.resolve(hash).resolve(jarName);
+    if (Files.isRegularFile(jar)) {
+      DirectoryUtils.touch(jar.getParent());
+      return jar;
+    }
+
+    Path tmpDir = Files.createDirectories(jarDir.resolve(hash + "." + UUID.randomUUID() + ".tmp"));
+    try {
+      try (OutputStream os = Files.newOutputStream(tmpDir.resolve(jarName));
+           JarOutputStream jos = new JarOutputStream(os)) {
+        for (String relativeDirectory : manifest.getDirectories()) {
+          jos.putNextEntry(new JarEntry(relativeDirectory + "/"));
+          jos.closeEntry();
+        }
+        for (String relativePath : manifest.getFiles().keySet()) {
+          jos.putNextEntry(new JarEntry(relativePath));
+          Files.copy(directory.resolve(relativePath), jos);
+          jos.closeEntry();
+        }
+      }
+      try {
+        Files.move(tmpDir, jar.getParent(), ATOMIC_MOVE);
+        logger.info("Packaged {} into {}", directory, jar);
+      } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+        // packaged concurrently by another client spawn
+        logger.debug("{} was already packaged", directory);
+      }
+      return jar;
+    } finally {
+      if (Files.exists(tmpDir)) {
+        DirectoryUtils.deleteQuietly(tmpDir);
+      }
+    }
+  }
+}
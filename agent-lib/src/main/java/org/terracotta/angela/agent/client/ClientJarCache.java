@@ -0,0 +1,146 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.FileManifest;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * A cache of the jars making up client classpaths, shared by all the clients spawned on a host.
+ * Each jar is stored as {@code <SHA-256 hash>/<jar name>}, so that client classpaths can reference the cached jars
+ * directly while keeping their original names, and a jar only needs to be uploaded the first time a host sees it.
+ * <p>
+ * The modification time of the directory of a jar is refreshed each time the jar is looked up, so that
+ * {@link #evictUnusedSince(long)} can delete the jars no client needed for a while. The one of the jar itself must
+ * not change, since the JVM would then consider the class-data-sharing archives of the classpaths using it stale.
+ */
+public class ClientJarCache {
+  private final static Logger logger = LoggerFactory.getLogger(ClientJarCache.class);
+
+  private static final String STAGING_DIR_NAME = ".staging";
+
+  private final Path cacheRoot;
+
+  public ClientJarCache(Path cacheRoot) {
+    this.cacheRoot = cacheRoot;
+  }
+
+  /**
+   * @return the cached jar having the given hash, or null if the cache does not contain it
+   */
+  public Path find(String hash) throws IOException {
+    Path dir = cacheRoot.resolve(checkHash(hash));
+    if (!Files.isDirectory(dir)) {
+      return null;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path jar : stream) {
+        if (Files.isRegularFile(jar)) {
+          DirectoryUtils.touch(dir);
+          return jar;
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // evicted concurrently
+    }
+    return null;
+  }
+
+  /**
+   * @return the hashes among the given ones for which the cache does not contain any jar
+   */
+  public List<String> findMissing(Collection<String> hashes) throws IOException {
+    List<String> missing = new ArrayList<>();
+    for (String hash : hashes) {
+      if (find(hash) == null) {
+        missing.add(hash);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * @return a new directory into which jars can be uploaded as {@code <hash>/<jar name>}, before being added to the cache
+   */
+  public Path newStagingDir() throws IOException {
+    return Files.createDirectories(cacheRoot.resolve(STAGING_DIR_NAME).resolve(UUID.randomUUID().toString()));
+  }
+
+  /**
+   * Move uploaded jars from a staging directory into the cache, after checking their content matches their hash.
+   *
+   * @param relativePaths the paths of the jars, as {@code <hash>/<jar name>} relative to {@code stagingDir}
+   */
+  public void add(Path stagingDir, Collection<String> relativePaths) throws IOException {
+    for (String relativePath : relativePaths) {
+      int separator = relativePath.indexOf('/');
+      if (separator < 0 || relativePath.indexOf('/', separator + 1) >= 0) {
+        throw new IOException("Illegal jar path '" + relativePath + "', expected <hash>/<jar name>");
+      }
+      String expectedHash = checkHash(relativePath.substring(0, separator));
+      Path jar = stagingDir.resolve(relativePath);
+      String actualHash = FileManifest.hash(jar);
+      if (!actualHash.equals(expectedHash)) {
+        throw new IOException("Content of " + jar + " does not match its hash, expected " + expectedHash + " but was " + actualHash);
+      }
+
+      try {
+        Files.move(jar.getParent(), cacheRoot.resolve(expectedHash), ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+        // another upload added it concurrently
+        logger.debug("Jar {} was already cached", relativePath);
+      }
+    }
+  }
+
+  /**
+   * Delete the jars which were not looked up since the given time, and the staging directories left over by uploads
+   * that did not complete.
+   *
+   * @return the number of deleted jars and staging directories
+   */
+  public int evictUnusedSince(long cutoffMillis) throws IOException {
+    int evicted = DirectoryUtils.deleteEntriesUnusedSince(cacheRoot, cutoffMillis);
+    logger.info("Evicted {} jar(s) unused since {} from the jar cache {}", evicted, Instant.ofEpochMilli(cutoffMillis), cacheRoot);
+    return evicted;
+  }
+
+  private static String checkHash(String hash) throws IOException {
+    if (hash.length() != 64 || !hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+      throw new IOException("Illegal jar hash '" + hash + "'");
+    }
+    return hash;
+  }
+}
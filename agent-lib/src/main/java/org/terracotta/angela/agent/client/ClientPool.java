@@ -0,0 +1,399 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.agent.client;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.net.PortAllocator;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.OS;
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.exec.StartedProcess;
+import org.zeroturnaround.process.PidUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.terracotta.angela.common.AngelaProperties.CLIENT_POOL_SIZE;
+import static org.terracotta.angela.common.AngelaProperties.POOLED_CLIENT;
+
+/**
+ * A pool of idle client JVMs, started ahead of time so that spawning a client does not pay for the JVM startup and
+ * the class loading. The pool is sized with {@link org.terracotta.angela.common.AngelaProperties#CLIENT_POOL_SIZE}
+ * and only holds clients of the last requested launch, i.e.: same JVM, options and classpath; it is emptied and
+ * refilled when a different one is requested.
+ * <p>
+ * The ignite node name of a client is fixed when it joins the cluster, so a pooled client only joins once it is
+ * handed out. Its classpath and working directory are directories of a pool slot, into which the files uploaded for
+ * the client are moved when it is handed out:
+ * <ul>
+ *   <li>{@code <slot>/cp/<entry>}: the entries of the client classpath root</li>
+ *   <li>{@code <slot>/work}: the working directory, renamed to the client installation path and replaced by a
+ *   symbolic link to it, so that both the process and the paths it resolved keep working</li>
+ * </ul>
+ * This relies on renaming the working directory of a running process, hence the pool is not available on Windows.
+ * <p>
+ * Closing the pool kills the idle clients and deletes all the slots but the ones of the clients handed out, which
+ * are deleted when these clients exit.
+ */
+class ClientPool {
+  private final static Logger logger = LoggerFactory.getLogger(ClientPool.class);
+
+  private static final String CLASSPATH_DIR_NAME = "cp";
+  private static final String WORK_DIR_NAME = "work";
+
+  private final Path poolDir;
+  private final int size;
+  private final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "angela-client-pool");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final Deque<PooledClient> idle = new ArrayDeque<>();
+  private final Map<Integer, PooledClient> assigned = new ConcurrentHashMap<>();
+  // guarded by this
+  private Launch launch;
+  private int generation;
+  private int starting;
+  private boolean closed;
+
+  ClientPool(Path poolDir, int size) {
+    this.poolDir = poolDir;
+    this.size = size;
+  }
+
+  /**
+   * @return the pool configured by {@link org.terracotta.angela.common.AngelaProperties#CLIENT_POOL_SIZE}, or null if it is disabled
+   */
+  static ClientPool create(Path poolDir) {
+    int size = Integer.parseInt(CLIENT_POOL_SIZE.getValue());
+    if (size <= 0) {
+      return null;
+    }
+    if (OS.INSTANCE.isWindows()) {
+      logger.warn("Ignoring {}={}: the client pool is not supported on Windows", CLIENT_POOL_SIZE.getPropertyName(), size);
+      return null;
+    }
+    return new ClientPool(poolDir, size);
+  }
+
+  /**
+   * Hand out an idle client to an instance, moving the files uploaded in the installation path of the instance into it.
+   * The pool gets refilled in the background.
+   *
+   * @return the PID of the client, or -1 if there is no idle client for this launch, in which case the client must
+   * be spawned normally
+   */
+  int acquire(Launch launch, InstanceId instanceId, Path installationPath, String nodeName) throws IOException, InterruptedException {
+    PooledClient client;
+    synchronized (this) {
+      if (closed) {
+        return -1;
+      }
+      if (!launch.equals(this.launch)) {
+        reset(launch);
+        return -1;
+      }
+      client = idle.poll();
+      refill();
+    }
+    if (client == null) {
+      logger.info("No idle client in the pool, spawning client {}", instanceId);
+      return -1;
+    }
+    if (!client.process.isAlive()) {
+      logger.warn("Pooled client with PID {} died while idle, spawning client {}", client.pid, instanceId);
+      discard(client);
+      return -1;
+    }
+
+    logger.info("Handing out pooled client with PID {} to {}", client.pid, instanceId);
+    assigned.put(client.pid, client);
+    try {
+      moveInto(client, launch, installationPath);
+      client.output.setLabel(instanceId.toString());
+      try (OutputStream stdin = client.stdin) {
+        stdin.write((nodeName + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+      }
+      client.output.awaitReady(client.process);
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      assigned.remove(client.pid);
+      discard(client);
+      throw e;
+    }
+    logger.info("Pooled client with PID {} joined as {}", client.pid, nodeName);
+    return client.pid;
+  }
+
+  /**
+   * @return the future completing once the handed out client exited and its output got pumped, or null if the client
+   * is not one of the pool
+   */
+  Future<ProcessResult> termination(int pid) {
+    PooledClient client = assigned.get(pid);
+    return client == null ? null : client.termination;
+  }
+
+  void clientExited(int pid) {
+    PooledClient client = assigned.remove(pid);
+    if (client != null) {
+      deleteSlot(client.slotDir);
+    }
+  }
+
+  /**
+   * Kill the idle clients, stop refilling the pool and delete the slots no client handed out is using.
+   */
+  void close() {
+    List<PooledClient> idleClients;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      launch = null;
+      generation++;
+      starting = 0;
+      idleClients = new ArrayList<>(idle);
+      idle.clear();
+    }
+    // clients being started get discarded as their generation is gone
+    refillExecutor.shutdownNow();
+    for (PooledClient client : idleClients) {
+      discard(client);
+    }
+
+    if (!Files.isDirectory(poolDir)) {
+      return;
+    }
+    List<Path> inUse = new ArrayList<>();
+    for (PooledClient client : assigned.values()) {
+      inUse.add(client.slotDir);
+    }
+    try (Stream<Path> slots = Files.list(poolDir)) {
+      for (Path slotDir : (Iterable<Path>) slots::iterator) {
+        if (!inUse.contains(slotDir)) {
+          deleteSlot(slotDir);
+        }
+      }
+    } catch (IOException ioe) {
+      logger.warn("Error cleaning up client pool directory {}", poolDir, ioe);
+    }
+  }
+
+  // for testing
+  synchronized int idleCount() {
+    return idle.size();
+  }
+
+  private void moveInto(PooledClient client, Launch launch, Path installationPath) throws IOException {
+    Path libDir = installationPath.resolve(RemoteClientManager.CLASSPATH_SUBDIR_NAME);
+    for (String libEntry : launch.classpath.getLibEntries()) {
+      Files.move(libDir.resolve(libEntry), client.slotDir.resolve(CLASSPATH_DIR_NAME).resolve(libEntry), REPLACE_EXISTING);
+    }
+
+    Path workDir = client.slotDir.resolve(WORK_DIR_NAME);
+    try (Stream<Path> children = Files.list(installationPath)) {
+      for (Path child : (Iterable<Path>) children::iterator) {
+        Files.move(child, workDir.resolve(child.getFileName()));
+      }
+    }
+    Files.delete(installationPath);
+    Files.move(workDir, installationPath);
+    Files.createSymbolicLink(workDir, installationPath);
+  }
+
+  // must be called while holding the lock
+  private void reset(Launch launch) {
+    if (this.launch != null) {
+      logger.info("Client launch changed, emptying the pool of its {} idle client(s)", idle.size());
+    }
+    this.launch = launch;
+    generation++;
+    starting = 0;
+    PooledClient client;
+    while ((client = idle.poll()) != null) {
+      discard(client);
+    }
+    refill();
+  }
+
+  // must be called while holding the lock
+  private void refill() {
+    Launch launch = this.launch;
+    int generation = this.generation;
+    for (int missing = size - idle.size() - starting; missing > 0; missing--) {
+      starting++;
+      refillExecutor.execute(() -> {
+        synchronized (this) {
+          if (generation != this.generation) {
+            // the launch changed while this task was queued
+            return;
+          }
+        }
+        PooledClient client = null;
+        try {
+          client = start(launch);
+        } catch (Exception e) {
+          logger.warn("Error starting pooled client", e);
+        }
+        synchronized (this) {
+          if (generation != this.generation) {
+            if (client != null) {
+              discard(client);
+            }
+            return;
+          }
+          starting--;
+          if (client != null) {
+            idle.add(client);
+          }
+        }
+      });
+    }
+  }
+
+  private PooledClient start(Launch launch) throws IOException, InterruptedException {
+    Path slotDir = poolDir.resolve(UUID.randomUUID().toString());
+    Path classpathDir = slotDir.resolve(CLASSPATH_DIR_NAME);
+    Path workDir = slotDir.resolve(WORK_DIR_NAME);
+    Files.createDirectories(workDir);
+    for (String libEntry : launch.classpath.getLibEntries()) {
+      Files.createDirectories(classpathDir.resolve(libEntry));
+    }
+
+    PortAllocator.PortReservation reservation = launch.portAllocator.reserve(2);
+    List<String> cmdLine = commandLine(launch, classpathDir, reservation);
+
+    logger.debug("Starting pooled client with: {}", cmdLine);
+    PipedOutputStream stdin = new PipedOutputStream();
+    RemoteClientManager.ClientOutput output = new RemoteClientManager.ClientOutput("pool-" + slotDir.getFileName());
+    StartedProcess startedProcess = new ProcessExecutor()
+        .command(cmdLine)
+        .redirectInput(new PipedInputStream(stdin))
+        .redirectOutput(output)
+        .redirectErrorStream(true)
+        .directory(workDir.toFile())
+        .start();
+    PooledClient client = new PooledClient(slotDir, startedProcess, output, stdin, reservation);
+    try {
+      output.awaitWaiting(client.process);
+    } catch (RuntimeException | InterruptedException e) {
+      discard(client);
+      throw e;
+    }
+    logger.info("Started pooled client with PID {}", client.pid);
+    return client;
+  }
+
+  List<String> commandLine(Launch launch, Path classpathDir, PortAllocator.PortReservation reservation) {
+    return RemoteClientManager.clientCommandLine(launch.javaHome, launch.javaOpts, Collections.emptyList(),
+        launch.classpath.toClasspath(classpathDir), reservation, launch.joinedNodes, "-D" + POOLED_CLIENT.getPropertyName() + "=true");
+  }
+
+  private void discard(PooledClient client) {
+    client.process.destroyForcibly();
+    client.reservation.close();
+    deleteSlot(client.slotDir);
+  }
+
+  private static void deleteSlot(Path slotDir) {
+    try {
+      FileUtils.deleteDirectory(slotDir.toFile());
+    } catch (IOException ioe) {
+      logger.warn("Error deleting client pool slot {}", slotDir, ioe);
+    }
+  }
+
+  /**
+   * What a pooled client is started with; only a client started with the same launch can be handed out.
+   */
+  static class Launch {
+    private final String javaHome;
+    private final List<String> javaOpts;
+    private final RemoteClientManager.ClientClasspath classpath;
+    private final Collection<String> joinedNodes;
+    private final PortAllocator portAllocator;
+    private final List<String> key;
+
+    Launch(String javaHome, Collection<String> javaOpts, RemoteClientManager.ClientClasspath classpath, Collection<String> joinedNodes, PortAllocator portAllocator) {
+      this.javaHome = javaHome;
+      this.javaOpts = new ArrayList<>(javaOpts);
+      this.classpath = classpath;
+      this.joinedNodes = new ArrayList<>(joinedNodes);
+      this.portAllocator = portAllocator;
+      this.key = Arrays.asList(javaHome, String.join(" ", javaOpts), classpath.toClasspath(Paths.get(RemoteClientManager.CLASSPATH_SUBDIR_NAME)), String.join(",", joinedNodes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return key.equals(((Launch) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode();
+    }
+  }
+
+  private static class PooledClient {
+    private final Path slotDir;
+    private final Process process;
+    private final Future<ProcessResult> termination;
+    private final int pid;
+    private final RemoteClientManager.ClientOutput output;
+    private final PipedOutputStream stdin;
+    private final PortAllocator.PortReservation reservation;
+
+    PooledClient(Path slotDir, StartedProcess startedProcess, RemoteClientManager.ClientOutput output, PipedOutputStream stdin, PortAllocator.PortReservation reservation) {
+      this.slotDir = slotDir;
+      this.process = startedProcess.getProcess();
+      this.termination = startedProcess.getFuture();
+      this.pid = PidUtil.getPid(process);
+      this.output = output;
+      this.stdin = stdin;
+      this.reservation = reservation;
+    }
+  }
+}
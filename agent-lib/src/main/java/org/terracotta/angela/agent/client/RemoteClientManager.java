@@ -24,23 +24,39 @@ import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
 import org.terracotta.angela.common.ToolExecutionResult;
 import org.terracotta.angela.common.net.PortAllocator;
 import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.DirectoryUtils;
 import org.terracotta.angela.common.util.ExternalLoggers;
 import org.terracotta.angela.common.util.JavaLocationResolver;
+import org.terracotta.angela.common.util.LogForwarder;
 import org.terracotta.angela.common.util.LogOutputStream;
 import org.terracotta.angela.common.util.OS;
+import org.terracotta.angela.common.util.ProcessReaper;
+import org.terracotta.angela.common.util.SharedArchive;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.ProcessResult;
 import org.zeroturnaround.exec.StartedProcess;
 import org.zeroturnaround.process.PidUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.terracotta.angela.common.AngelaProperties.DIRECT_JOIN;
+import static org.terracotta.angela.common.AngelaProperties.KIT_STORE_RETENTION_DAYS;
 import static org.terracotta.angela.common.AngelaProperties.NODE_NAME;
 import static org.terracotta.angela.common.AngelaProperties.ROOT_DIR;
 
@@ -53,7 +69,21 @@ public class RemoteClientManager {
   private final static Logger logger = LoggerFactory.getLogger(RemoteClientManager.class);
   private final JavaLocationResolver javaLocationResolver = new JavaLocationResolver();
 
-  private static final String CLASSPATH_SUBDIR_NAME = "lib";
+  static final String CLASSPATH_SUBDIR_NAME = "lib";
+  // the hashes of the jars of the classpath that are held by the jar cache, in classpath order
+  private static final String CACHED_CLASSPATH_FILE_NAME = "cached-classpath.txt";
+  private static final ClientJarCache JAR_CACHE = new ClientJarCache(Agent.ROOT_DIR.resolve("jars"));
+  // the jar cache is pruned once per agent
+  private static final AtomicBoolean JAR_CACHE_EVICTED = new AtomicBoolean();
+  private static final Path CDS_ARCHIVE_DIR = Agent.ROOT_DIR.resolve("cds");
+  private static final Path CLASS_DIRECTORY_JAR_DIR = Agent.ROOT_DIR.resolve("class-jars");
+  private static final ClassDirectoryJars CLASS_DIRECTORY_JARS = new ClassDirectoryJars(CLASS_DIRECTORY_JAR_DIR);
+  // the class-data-sharing archives and jars are pruned once per agent
+  private static final AtomicBoolean CDS_ARCHIVES_EVICTED = new AtomicBoolean();
+  // the class-data-sharing archives of the running clients, by PID
+  private static final Map<Integer, SharedArchive> SHARED_ARCHIVES = new ConcurrentHashMap<>();
+  // null when the pool is disabled
+  private static final ClientPool CLIENT_POOL = ClientPool.create(Agent.WORK_DIR.resolve(".client-pool"));
   private final File kitInstallationPath;
 
   public RemoteClientManager(InstanceId instanceId) {
@@ -68,6 +98,59 @@ public class RemoteClientManager {
     return new File(kitInstallationPath, CLASSPATH_SUBDIR_NAME);
   }
 
+  public static ClientJarCache getJarCache() {
+    return JAR_CACHE;
+  }
+
+  /**
+   * Record the jars of the client classpath that are to be taken from the jar cache.
+   *
+   * @param jarHashes the hashes of the jars, in classpath order
+   * @return the hashes of the jars that are not cached yet and need to be uploaded
+   */
+  public List<String> prepareCachedJars(List<String> jarHashes) {
+    try {
+      Files.createDirectories(kitInstallationPath.toPath());
+      Files.write(kitInstallationPath.toPath().resolve(CACHED_CLASSPATH_FILE_NAME), jarHashes, StandardCharsets.UTF_8);
+      if (JAR_CACHE_EVICTED.compareAndSet(false, true)) {
+        try {
+          JAR_CACHE.evictUnusedSince(System.currentTimeMillis() - retentionMillis());
+        } catch (IOException ioe) {
+          logger.warn("Error evicting unused jars from the jar cache", ioe);
+        }
+      }
+      List<String> missing = JAR_CACHE.findMissing(jarHashes);
+      logger.info("{} of {} client jar(s) need to be uploaded for {}", missing.size(), jarHashes.size(), kitInstallationPath.getName());
+      return missing;
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot prepare the classpath of client " + kitInstallationPath.getName(), ioe);
+    }
+  }
+
+  /**
+   * Called once a client process exited, to publish the class-data-sharing archive it may have dumped and to clean
+   * up after it if it came from the client pool. The process reaper calls it for every spawned client, calling it
+   * again when stopping a client is harmless.
+   */
+  public static void clientExited(int pid) {
+    SharedArchive sharedArchive = SHARED_ARCHIVES.remove(pid);
+    if (sharedArchive != null) {
+      sharedArchive.processExited();
+    }
+    if (CLIENT_POOL != null) {
+      CLIENT_POOL.clientExited(pid);
+    }
+  }
+
+  /**
+   * Kill the idle clients of the client pool and delete its leftovers, called when the agent closes.
+   */
+  public static void closeClientPool() {
+    if (CLIENT_POOL != null) {
+      CLIENT_POOL.close();
+    }
+  }
+
   public ToolExecutionResult jcmd(int javaPid, TerracottaCommandLineEnvironment tcEnv, String... arguments) {
     String javaHome = tcEnv.getJavaHome().orElseGet(()->javaLocationResolver.resolveJavaLocation(tcEnv).getHome());
 
@@ -94,69 +177,122 @@ public class RemoteClientManager {
   public int spawnClient(InstanceId instanceId, TerracottaCommandLineEnvironment tcEnv, Collection<String> joinedNodes, int ignitePort, PortAllocator portAllocator) {
     try {
       String javaHome = tcEnv.getJavaHome().orElseGet(()->javaLocationResolver.resolveJavaLocation(tcEnv).getHome());
+      ClientClasspath clientClasspath = buildClasspath();
+      String nodeName = instanceId + ":" + ignitePort;
 
-      final AtomicBoolean started = new AtomicBoolean(false);
-      List<String> cmdLine = new ArrayList<>();
-      if (OS.INSTANCE.isWindows()) {
-        cmdLine.add(javaHome + "\\bin\\java.exe");
+      if (CLIENT_POOL != null && clientClasspath.isPoolable()) {
+        ClientPool.Launch launch = new ClientPool.Launch(javaHome, tcEnv.getJavaOpts(), clientClasspath, joinedNodes, portAllocator);
+        int pid = CLIENT_POOL.acquire(launch, instanceId, kitInstallationPath.toPath(), nodeName);
+        if (pid != -1) {
+          ProcessReaper.INSTANCE.watch(pid, CLIENT_POOL.termination(pid), () -> clientExited(pid));
+          return pid;
+        }
+      }
+
+      SharedArchive.Support cdsSupport = SharedArchive.support(javaHome);
+      String classpath;
+      if (cdsSupport != SharedArchive.Support.NONE && clientClasspath.hasDirectories()) {
+        // the JVM refuses to dump an archive when classes are loaded from a directory, like the test classes of
+        // ClientJobs, so the directories are swapped for jars of their content
+        classpath = clientClasspath.toJarClasspath(Paths.get(CLASSPATH_SUBDIR_NAME), getClientClasspathRoot().toPath(), CLASS_DIRECTORY_JARS);
       } else {
-        cmdLine.add(javaHome + "/bin/java");
+        classpath = clientClasspath.toClasspath(Paths.get(CLASSPATH_SUBDIR_NAME));
       }
-      if (!tcEnv.getJavaOpts().isEmpty()) {
-        cmdLine.addAll(tcEnv.getJavaOpts());
+      if (cdsSupport != SharedArchive.Support.NONE) {
+        evictUnusedSharedArchives();
       }
-      cmdLine.add("-classpath");
-      cmdLine.add(buildClasspath());
-
-      PortAllocator.PortReservation reservation = portAllocator.reserve(2);
-      cmdLine.add("-Dignite.discovery.port=" + reservation.next());
-      cmdLine.add("-Dignite.com.port=" + reservation.next());
-      cmdLine.add("-D" + DIRECT_JOIN.getPropertyName() + "=" + String.join(",", joinedNodes));
-      cmdLine.add("-D" + NODE_NAME.getPropertyName() + "=" + instanceId + ":" + ignitePort);
-      cmdLine.add("-D" + ROOT_DIR.getPropertyName() + "=" + Agent.ROOT_DIR);
-      cmdLine.add(Agent.class.getName());
+      SharedArchive sharedArchive = SharedArchive.create(cdsSupport, CDS_ARCHIVE_DIR,
+          javaHome, classpath, String.join(" ", tcEnv.getJavaOpts()));
+      List<String> cmdLine = clientCommandLine(javaHome, tcEnv.getJavaOpts(), sharedArchive.getJvmOptions(), classpath,
+          portAllocator.reserve(2), joinedNodes, "-D" + NODE_NAME.getPropertyName() + "=" + nodeName);
 
       logger.info("Spawning client with: {}", cmdLine);
-      ProcessExecutor processExecutor = new ProcessExecutor()
+      ClientOutput output = new ClientOutput(instanceId.toString());
+      StartedProcess startedProcess = new ProcessExecutor()
           .command(cmdLine)
-          .redirectOutput(new LogOutputStream() {
-            @Override
-            protected void processLine(String line) {
-              ExternalLoggers.clientLogger.info("[{}] {}", instanceId, line);
-              if (line.equals(Agent.AGENT_IS_READY_MARKER_LOG)) {
-                started.set(true);
-              }
-            }
-          })
+          .redirectOutput(output)
           .redirectErrorStream(true)
-          .directory(getClientInstallationPath());
-      StartedProcess startedProcess = processExecutor.start();
-
-      while (startedProcess.getProcess().isAlive() && !started.get()) {
-        logger.debug("Waiting for spawned agent to be ready having PID: {}", PidUtil.getPid(startedProcess.getProcess()));
-        Thread.sleep(100);
-      }
-      if (!startedProcess.getProcess().isAlive()) {
-        throw new RuntimeException("Client process died in infancy");
-      }
+          .directory(getClientInstallationPath())
+          .start();
+      output.awaitReady(startedProcess.getProcess());
 
       int pid = PidUtil.getPid(startedProcess.getProcess());
       logger.info("Spawned client with PID {}", pid);
+      SHARED_ARCHIVES.put(pid, sharedArchive);
+      ProcessReaper.INSTANCE.watch(pid, startedProcess.getFuture(), () -> clientExited(pid));
       return pid;
     } catch (Exception e) {
       throw new RuntimeException("Error spawning client " + instanceId, e);
     }
   }
 
-  private String buildClasspath() {
-    String[] cpEntries = getClientClasspathRoot().list();
-    if (cpEntries == null) {
+  private static void evictUnusedSharedArchives() {
+    if (CDS_ARCHIVES_EVICTED.compareAndSet(false, true)) {
+      long cutoffMillis = System.currentTimeMillis() - retentionMillis();
+      try {
+        int evicted = DirectoryUtils.deleteFilesUnusedSince(CDS_ARCHIVE_DIR, cutoffMillis);
+        evicted += DirectoryUtils.deleteEntriesUnusedSince(CLASS_DIRECTORY_JAR_DIR, cutoffMillis);
+        logger.info("Evicted {} class-data-sharing file(s) unused since {} from {} and {}", evicted, Instant.ofEpochMilli(cutoffMillis),
+            CDS_ARCHIVE_DIR, CLASS_DIRECTORY_JAR_DIR);
+      } catch (IOException ioe) {
+        logger.warn("Error evicting unused class-data-sharing files from {} and {}", CDS_ARCHIVE_DIR, CLASS_DIRECTORY_JAR_DIR, ioe);
+      }
+    }
+  }
+
+  private static long retentionMillis() {
+    return TimeUnit.DAYS.toMillis(Long.parseLong(KIT_STORE_RETENTION_DAYS.getValue()));
+  }
+
+  static List<String> clientCommandLine(String javaHome, Collection<String> javaOpts, List<String> sharedArchiveOptions, String classpath,
+                                        PortAllocator.PortReservation reservation, Collection<String> joinedNodes, String... systemProperties) {
+    List<String> cmdLine = new ArrayList<>();
+    if (OS.INSTANCE.isWindows()) {
+      cmdLine.add(javaHome + "\\bin\\java.exe");
+    } else {
+      cmdLine.add(javaHome + "/bin/java");
+    }
+    cmdLine.addAll(javaOpts);
+    cmdLine.addAll(sharedArchiveOptions);
+    cmdLine.add("-classpath");
+    cmdLine.add(classpath);
+
+    cmdLine.add("-Dignite.discovery.port=" + reservation.next());
+    cmdLine.add("-Dignite.com.port=" + reservation.next());
+    cmdLine.add("-D" + DIRECT_JOIN.getPropertyName() + "=" + String.join(",", joinedNodes));
+    cmdLine.add("-D" + ROOT_DIR.getPropertyName() + "=" + Agent.ROOT_DIR);
+    cmdLine.addAll(Arrays.asList(systemProperties));
+    cmdLine.add(Agent.class.getName());
+    return cmdLine;
+  }
+
+  private ClientClasspath buildClasspath() throws IOException {
+    File classpathRoot = getClientClasspathRoot();
+    String[] cpEntries = classpathRoot.list();
+    Path cachedClasspath = kitInstallationPath.toPath().resolve(CACHED_CLASSPATH_FILE_NAME);
+    if (cpEntries == null && !Files.isRegularFile(cachedClasspath)) {
       throw new RuntimeException("Cannot build client classpath before the classpath root is uploaded");
     }
 
-    StringBuilder sb = new StringBuilder();
-    for (String cpentry : cpEntries) {
-      sb.append(CLASSPATH_SUBDIR_NAME).append(File.separator).append(cpentry).append(File.pathSeparator);
+    List<String> cachedJars = new ArrayList<>();
+    if (Files.isRegularFile(cachedClasspath)) {
+      for (String hash : Files.readAllLines(cachedClasspath, StandardCharsets.UTF_8)) {
+        Path jar = JAR_CACHE.find(hash);
+        if (jar == null) {
+          throw new RuntimeException("Client jar " + hash + " is missing from the jar cache");
+        }
+        cachedJars.add(jar.toAbsolutePath().toString());
+      }
+    }
+    List<String> libEntries = new ArrayList<>();
+    int libDirectories = 0;
+    if (cpEntries != null) {
+      for (String cpentry : cpEntries) {
+        libEntries.add(cpentry);
+        if (new File(classpathRoot, cpentry).isDirectory()) {
+          libDirectories++;
+        }
+      }
     }
 
     // if
@@ -167,13 +303,128 @@ public class RemoteClientManager {
     String agentClassName = Agent.class.getName().replace('.', '/');
     String agentClassPath = Agent.class.getResource("/" + agentClassName + ".class").getPath();
 
+    String agentClasspath;
     if (agentClassPath.startsWith("file:")) {
-      sb.append(agentClassPath, "file:".length(), agentClassPath.lastIndexOf('!'));
+      agentClasspath = agentClassPath.substring("file:".length(), agentClassPath.lastIndexOf('!'));
     } else {
-      sb.append(agentClassPath, 0, agentClassPath.lastIndexOf(agentClassName));
+      agentClasspath = agentClassPath.substring(0, agentClassPath.lastIndexOf(agentClassName));
     }
 
-    return sb.toString();
+    return new ClientClasspath(cachedJars, libEntries, libDirectories, agentClasspath);
+  }
+
+  /**
+   * The classpath of a client: the jars held by the jar cache, the entries uploaded in its classpath root, then the
+   * agent classes.
+   */
+  static class ClientClasspath {
+    private final List<String> cachedJars;
+    private final List<String> libEntries;
+    private final int libDirectories;
+    private final String agentClasspath;
+
+    ClientClasspath(List<String> cachedJars, List<String> libEntries, int libDirectories, String agentClasspath) {
+      this.cachedJars = cachedJars;
+      this.libEntries = libEntries;
+      this.libDirectories = libDirectories;
+      this.agentClasspath = agentClasspath;
+    }
+
+    List<String> getLibEntries() {
+      return libEntries;
+    }
+
+    /**
+     * A pooled client is started before its classpath root is uploaded, so it can only be handed out if all the
+     * entries of the classpath root are directories: a jar that is missing at startup would never be opened.
+     */
+    boolean isPoolable() {
+      return libDirectories == libEntries.size();
+    }
+
+    /**
+     * @return true if some classes are loaded from a directory rather than from a jar
+     */
+    boolean hasDirectories() {
+      return libDirectories > 0 || new File(agentClasspath).isDirectory();
+    }
+
+    String toClasspath(Path libDir) {
+      StringBuilder sb = new StringBuilder();
+      for (String cachedJar : cachedJars) {
+        sb.append(cachedJar).append(File.pathSeparator);
+      }
+      for (String libEntry : libEntries) {
+        sb.append(libDir.resolve(libEntry)).append(File.pathSeparator);
+      }
+      sb.append(agentClasspath);
+      return sb.toString();
+    }
+
+    /**
+     * Same as {@link #toClasspath(Path)}, with the directories replaced by jars of their content.
+     *
+     * @param absoluteLibDir where libDir is on this host
+     */
+    String toJarClasspath(Path libDir, Path absoluteLibDir, ClassDirectoryJars directoryJars) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (String cachedJar : cachedJars) {
+        sb.append(cachedJar).append(File.pathSeparator);
+      }
+      for (String libEntry : libEntries) {
+        Path absoluteEntry = absoluteLibDir.resolve(libEntry);
+        sb.append(Files.isDirectory(absoluteEntry) ? directoryJars.jarOf(absoluteEntry) : libDir.resolve(libEntry)).append(File.pathSeparator);
+      }
+      Path agentEntry = Paths.get(agentClasspath);
+      sb.append(Files.isDirectory(agentEntry) ? directoryJars.jarOf(agentEntry) : agentClasspath);
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Forwards the output of a client process to the client logger, prefixed by the label of the client, and tracks
+   * the markers the client prints.
+   */
+  static class ClientOutput extends LogOutputStream {
+    private final CountDownLatch waiting = new CountDownLatch(1);
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final LogForwarder logForwarder = new LogForwarder(ExternalLoggers.clientLogger, null);
+    private volatile String label;
+
+    ClientOutput(String label) {
+      this.label = label;
+    }
+
+    void setLabel(String label) {
+      this.label = label;
+    }
+
+    @Override
+    protected void processLine(String line) {
+      logForwarder.forward(label, line);
+      if (line.equals(Agent.AGENT_IS_READY_MARKER_LOG)) {
+        ready.countDown();
+      } else if (line.equals(Agent.POOLED_CLIENT_IS_WAITING_MARKER_LOG)) {
+        waiting.countDown();
+      }
+    }
+
+    void awaitWaiting(Process process) throws InterruptedException {
+      await(waiting, process);
+    }
+
+    void awaitReady(Process process) throws InterruptedException {
+      await(ready, process);
+    }
+
+    private static void await(CountDownLatch marker, Process process) throws InterruptedException {
+      while (process.isAlive() && !marker.await(100, TimeUnit.MILLISECONDS)) {
+        logger.debug("Waiting for spawned agent to be ready having PID: {}", PidUtil.getPid(process));
+      }
+      if (marker.getCount() > 0) {
+        throw new RuntimeException("Client process died in infancy");
+      }
+    }
   }
 
 }
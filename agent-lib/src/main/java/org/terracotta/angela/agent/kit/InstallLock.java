@@ -0,0 +1,165 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.kit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A shared or exclusive lock on a kit directory, coordinating the threads and processes of a host using and
+ * installing the kit: a kit is used under a shared lock, so that its users never block each other, and it is
+ * downloaded, extracted or deleted under an exclusive lock.
+ * Processes are coordinated with an OS file lock, so that a waiter is woken up as soon as the holder releases the
+ * lock, and the lock is released by the OS if its holder dies. The lock file is never deleted: a process waiting for
+ * the lock of a deleted file would end up holding a lock nobody else can see.
+ * <p>
+ * A JVM can only hold one lock on a given file, so the holders of a JVM share a single file lock, taken by the first
+ * of them and released by the last one. A lock is not owned by a thread: it can be released by any thread.
+ */
+final class InstallLock implements AutoCloseable {
+
+  enum Mode {SHARED, EXCLUSIVE}
+
+  private static final Map<Path, LockState> LOCKS = new ConcurrentHashMap<>();
+
+  private final LockState state;
+  private final Mode mode;
+  private boolean released;
+
+  private InstallLock(LockState state, Mode mode) {
+    this.state = state;
+    this.mode = mode;
+  }
+
+  static InstallLock acquire(Path lockFile, Mode mode) throws IOException, InterruptedException {
+    LockState state = lockState(lockFile);
+    state.acquire(mode, true);
+    return new InstallLock(state, mode);
+  }
+
+  /**
+   * @return the lock, or null if it is held in an incompatible mode by this or another process
+   */
+  static InstallLock tryAcquire(Path lockFile, Mode mode) throws IOException {
+    LockState state = lockState(lockFile);
+    try {
+      return state.acquire(mode, false) ? new InstallLock(state, mode) : null;
+    } catch (InterruptedException ie) {
+      // never waits
+      throw new AssertionError(ie);
+    }
+  }
+
+  private static LockState lockState(Path lockFile) {
+    return LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), LockState::new);
+  }
+
+  Mode getMode() {
+    return mode;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!released) {
+      released = true;
+      try {
+        state.release(mode);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException("Error releasing the install lock " + state.path, ioe);
+      }
+    }
+  }
+
+  private static class LockState {
+    private final Path path;
+    // guarded by this
+    private int sharedHolders;
+    private boolean exclusivelyHeld;
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    LockState(Path path) {
+      this.path = path;
+    }
+
+    synchronized boolean acquire(Mode mode, boolean wait) throws IOException, InterruptedException {
+      while (exclusivelyHeld || (mode == Mode.EXCLUSIVE && sharedHolders > 0)) {
+        if (!wait) {
+          return false;
+        }
+        wait();
+      }
+      if (fileLock == null) {
+        // nobody in this JVM holds the lock, so waiting for the file lock while holding the monitor blocks nobody
+        Files.createDirectories(path.getParent());
+        FileChannel fileChannel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+          boolean shared = mode == Mode.SHARED;
+          FileLock lock = wait ? fileChannel.lock(0, Long.MAX_VALUE, shared) : fileChannel.tryLock(0, Long.MAX_VALUE, shared);
+          if (lock == null) {
+            fileChannel.close();
+            return false;
+          }
+          fileLock = lock;
+        } catch (IOException | RuntimeException e) {
+          fileChannel.close();
+          throw e;
+        }
+        channel = fileChannel;
+      }
+      if (mode == Mode.SHARED) {
+        sharedHolders++;
+      } else {
+        exclusivelyHeld = true;
+      }
+      return true;
+    }
+
+    synchronized void release(Mode mode) throws IOException {
+      if (mode == Mode.SHARED) {
+        sharedHolders--;
+      } else {
+        exclusivelyHeld = false;
+      }
+      if (sharedHolders > 0) {
+        return;
+      }
+      try {
+        fileLock.release();
+      } finally {
+        fileLock = null;
+        try {
+          channel.close();
+        } finally {
+          channel = null;
+          notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.kit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A persistent index of the Bundle-SymbolicName of jars, keyed by absolute path, size and modification time,
+ * so that the manifest of a jar is only read again when the jar changed.
+ * <p>
+ * The index is shared by all the JVMs of a host: it is loaded once per JVM, and new entries are merged into
+ * the index file when it is saved. A concurrent save may lose entries, which are then computed again.
+ */
+class JarMetadataIndex {
+  private static final Logger logger = LoggerFactory.getLogger(JarMetadataIndex.class);
+
+  private static final int MAX_ENTRIES = 10_000;
+
+  private final Path indexFile;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean dirty;
+
+  JarMetadataIndex(Path indexFile) {
+    this.indexFile = indexFile;
+    entries.putAll(load(indexFile));
+  }
+
+  /**
+   * @return the Bundle-SymbolicName of the jar, or null if it is not a jar or has none
+   */
+  String getBundleSymbolicName(File file) {
+    if (!file.getName().endsWith(".jar")) {
+      return null;
+    }
+    String path = file.getAbsolutePath();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (IOException ioe) {
+      logger.error("Error loading the JAR manifest of " + file, ioe);
+      return null;
+    }
+    long size = attributes.size();
+    long lastModified = attributes.lastModifiedTime().toMillis();
+
+    Entry entry = entries.get(path);
+    if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+      entry = new Entry(size, lastModified, readBundleSymbolicName(file));
+      entries.put(path, entry);
+      dirty = true;
+    }
+    return entry.bundleSymbolicName.isEmpty() ? null : entry.bundleSymbolicName;
+  }
+
+  /**
+   * Merge the entries computed since the index was loaded into the index file.
+   */
+  synchronized void save() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+
+    Map<String, Entry> merged = load(indexFile);
+    merged.putAll(entries);
+    if (merged.size() > MAX_ENTRIES) {
+      merged.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+    }
+
+    List<String> lines = new ArrayList<>(merged.size());
+    merged.forEach((path, entry) -> lines.add(entry.size + "\t" + entry.lastModified + "\t" + entry.bundleSymbolicName + "\t" + path));
+    try {
+      Files.createDirectories(indexFile.getParent());
+      Path tmp = indexFile.resolveSibling(indexFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+      try {
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, indexFile, REPLACE_EXISTING, ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException ioe) {
+      // the index is only an optimization
+      logger.warn("Error saving jar index {}", indexFile, ioe);
+    }
+  }
+
+  private static Map<String, Entry> load(Path indexFile) {
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    try {
+      for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length == 4) {
+          entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // no index yet
+    } catch (IOException | NumberFormatException e) {
+      logger.warn("Ignoring corrupted jar index {}", indexFile, e);
+      entries.clear();
+    }
+    return entries;
+  }
+
+  private static String readBundleSymbolicName(File file) {
+    try (InputStream is = Files.newInputStream(file.toPath());
+         JarInputStream jarInputStream = new JarInputStream(is)) {
+      Manifest manifest = jarInputStream.getManifest();
+      String bundleSymbolicName = manifest == null ? null : manifest.getMainAttributes().getValue("Bundle-SymbolicName");
+      return bundleSymbolicName == null ? "" : bundleSymbolicName;
+    } catch (IOException ioe) {
+      logger.error("Error loading the JAR manifest of " + file, ioe);
+      return "";
+    }
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long lastModified;
+    private final String bundleSymbolicName;
+
+    Entry(long size, long lastModified, String bundleSymbolicName) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.bundleSymbolicName = bundleSymbolicName;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.kit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.FileManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
+
+/**
+ * A content-addressed store of kit files, shared by all the kits installed on a host.
+ * Each file is stored once under its SHA-256 hash, so that only the files that are missing from the store
+ * need to be transferred when a kit is uploaded.
+ * <p>
+ * The modification time of a stored file is refreshed each time the file is used, so that
+ * {@link #evictUnusedSince(long)} can delete the files no kit needed for a while. The store can also be deleted
+ * altogether while no agent is running, it only acts as a cache.
+ */
+public class KitContentStore {
+  private static final Logger logger = LoggerFactory.getLogger(KitContentStore.class);
+
+  private final Path storeRoot;
+
+  public KitContentStore(Path storeRoot) {
+    this.storeRoot = storeRoot;
+  }
+
+  /**
+   * Populate {@code targetDir} with the content of the manifest, using the files available in the store.
+   *
+   * @return the relative paths of the files that are not in the store and still need to be uploaded
+   */
+  public List<String> materialize(FileManifest manifest, Path targetDir) throws IOException {
+    for (String directory : manifest.getDirectories()) {
+      Files.createDirectories(resolve(targetDir, directory));
+    }
+    int deleted = deleteFilesNotIn(manifest, targetDir);
+
+    List<String> missing = new ArrayList<>();
+    int copied = 0;
+    for (Map.Entry<String, String> entry : manifest.getFiles().entrySet()) {
+      Path target = resolve(targetDir, entry.getKey());
+      String hash = entry.getValue();
+      if (Files.isRegularFile(target) && FileManifest.hash(target).equals(hash)) {
+        continue;
+      }
+      Path blob = blobPath(hash);
+      if (Files.isRegularFile(blob)) {
+        Files.createDirectories(target.getParent());
+        Files.copy(blob, target, REPLACE_EXISTING);
+        DirectoryUtils.touch(blob);
+        copied++;
+      } else {
+        missing.add(entry.getKey());
+      }
+    }
+    if (copied > 0) {
+      setCorrectPermissions(targetDir);
+    }
+
+    logger.info("Materialized {} file(s) from the content store into {}, {} file(s) missing, {} file(s) deleted", copied, targetDir, missing.size(), deleted);
+    return missing;
+  }
+
+  /**
+   * Add files of {@code sourceDir} to the store, after checking their content matches the manifest.
+   */
+  public void add(FileManifest manifest, Path sourceDir, Collection<String> relativePaths) throws IOException {
+    for (String relativePath : relativePaths) {
+      Path source = resolve(sourceDir, relativePath);
+      String expectedHash = manifest.getHash(relativePath);
+      String actualHash = FileManifest.hash(source);
+      if (!actualHash.equals(expectedHash)) {
+        throw new IOException("Content of " + source + " does not match the manifest, expected hash " + expectedHash + " but was " + actualHash);
+      }
+
+      Path blob = blobPath(actualHash);
+      if (Files.isRegularFile(blob)) {
+        DirectoryUtils.touch(blob);
+        continue;
+      }
+      Files.createDirectories(blob.getParent());
+      Path tmp = Files.createTempFile(blob.getParent(), actualHash, ".tmp");
+      try {
+        Files.copy(source, tmp, REPLACE_EXISTING);
+        Files.move(tmp, blob, ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+        // another agent sharing this store added it concurrently
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  /**
+   * @return the stored file having the given hash, or null if the store does not contain it
+   */
+  public Path find(String hash) {
+    Path blob = blobPath(hash);
+    if (!Files.isRegularFile(blob)) {
+      return null;
+    }
+    DirectoryUtils.touch(blob);
+    return blob;
+  }
+
+  /**
+   * Delete the stored files which were not used since the given time, and the temporary files left over by agents
+   * that died while adding files.
+   *
+   * @return the number of deleted files
+   */
+  public int evictUnusedSince(long cutoffMillis) throws IOException {
+    int evicted = DirectoryUtils.deleteFilesUnusedSince(storeRoot, cutoffMillis);
+    logger.info("Evicted {} file(s) unused since {} from the content store {}", evicted, Instant.ofEpochMilli(cutoffMillis), storeRoot);
+    return evicted;
+  }
+
+
+  /**
+   * Delete the files of {@code targetDir} that the manifest does not list, e.g.: left over by a previous version of
+   * the kit, so that the directory ends up with the content of the manifest only.
+   */
+  private static int deleteFilesNotIn(FileManifest manifest, Path targetDir) throws IOException {
+    if (!Files.isDirectory(targetDir)) {
+      return 0;
+    }
+    List<Path> extraFiles = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(targetDir)) {
+      files.filter(file -> !Files.isDirectory(file))
+          .filter(file -> !manifest.getFiles().containsKey(toRelativePath(targetDir, file)))
+          .forEach(extraFiles::add);
+    }
+    for (Path extraFile : extraFiles) {
+      logger.debug("Deleting {} which is not part of the kit", extraFile);
+      Files.deleteIfExists(extraFile);
+    }
+    return extraFiles.size();
+  }
+
+  private static String toRelativePath(Path dir, Path file) {
+    return dir.relativize(file).toString().replace(File.separatorChar, '/');
+  }
+
+
+  Path blobPath(String hash) {
+    return storeRoot.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private static Path resolve(Path dir, String relativePath) throws IOException {
+    Path resolved = dir.resolve(relativePath).normalize();
+    if (!resolved.startsWith(dir.normalize())) {
+      throw new IOException("Illegal path '" + relativePath + "' outside of " + dir);
+    }
+    return resolved;
+  }
+}
@@ -20,6 +20,7 @@ package org.terracotta.angela.agent.kit;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.topology.PackageType;
 import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.HttpDownloader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,7 +28,6 @@ import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -35,6 +35,7 @@ import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.terracotta.angela.agent.Agent.ROOT_DIR;
 import static org.terracotta.angela.common.topology.PackageType.KIT;
@@ -80,17 +81,9 @@ public abstract class KitManager {
       return false;
     }
 
-    long timeSinceLastModified;
-    try {
-      // Use the archive to check the modified time, because the timestamp on the inflated directory corresponds to the creation of the archive, and not to its download
-      timeSinceLastModified = System.currentTimeMillis() - Files.getLastModifiedTime(localInstallerFile).toMillis();
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
-    }
-
-    if (!offline && distribution.getVersion().isSnapshot() && timeSinceLastModified > STALE_SNAPSHOT_LIMIT_HOURS * 60 * 60 * 1000) {
+    if (isStaleSnapshot(offline, localInstallerFile)) {
       logger.info("Mode is online, distribution is snapshot, and {} is older than {} hours", localInstallerFile.getFileName(), STALE_SNAPSHOT_LIMIT_HOURS);
-      DirectoryUtils.deleteQuietly(localInstallerFile.getParent());
+      deleteLocalInstall(localInstallerFile);
       return false;
     }
 
@@ -102,12 +95,11 @@ public abstract class KitManager {
     String md5File = localInstallerFile.toAbsolutePath().toString() + ".md5";
     String md5FileHash;
     try {
-      byte[] bytes = Files.readAllBytes(Paths.get(md5File));
-      md5FileHash = new String(bytes, StandardCharsets.US_ASCII).trim();
+      md5FileHash = HttpDownloader.readMd5(Paths.get(md5File));
     } catch (NoSuchFileException nsfe) {
       // no MD5 file? let's consider the archive corrupt
       logger.warn("{} does not have corresponding {} secure hash file on disk, considering it corrupt", localInstallerFile, md5File);
-      DirectoryUtils.deleteQuietly(localInstallerFile.getParent());
+      deleteLocalInstall(localInstallerFile);
       return false;
     } catch (IOException ioe) {
       throw new RuntimeException("Error reading " + md5File, ioe);
@@ -131,7 +123,7 @@ public abstract class KitManager {
       if (!localInstallerFileHash.equalsIgnoreCase(md5FileHash)) {
         // MD5 does not match? let's consider the archive corrupt
         logger.warn("{} secure hash does not match the contents of {} secure hash file on disk, considering it corrupt", localInstallerFile, md5File);
-        DirectoryUtils.deleteQuietly(localInstallerFile.getParent());
+        deleteLocalInstall(localInstallerFile);
         return false;
       }
     } catch (NoSuchAlgorithmException nsae) {
@@ -143,6 +135,45 @@ public abstract class KitManager {
     return true;
   }
 
+  /**
+   * Delete the installer, its secure hash file and the kit extracted next to them, but not the install lock file
+   * which may be held by this or another process.
+   */
+  static void deleteLocalInstall(Path localInstallerFile) {
+    Path installDir = localInstallerFile.toAbsolutePath().getParent();
+    try (Stream<Path> entries = Files.list(installDir)) {
+      entries.filter(entry -> !entry.getFileName().toString().equals(LocalKitManager.INSTALLATION_LOCK_FILE_NAME))
+          .forEach(entry -> {
+            if (Files.isDirectory(entry)) {
+              DirectoryUtils.deleteQuietly(entry);
+            } else {
+              try {
+                Files.deleteIfExists(entry);
+              } catch (IOException ioe) {
+                logger.debug("Deletion of file: " + entry + " failed", ioe);
+              }
+            }
+          });
+    } catch (IOException ioe) {
+      logger.debug("Deletion of the content of directory: " + installDir + " failed", ioe);
+    }
+  }
+
+  boolean isStaleSnapshot(boolean offline, Path localInstallerFile) {
+    if (offline || !distribution.getVersion().isSnapshot()) {
+      return false;
+    }
+
+    long timeSinceLastModified;
+    try {
+      // Use the archive to check the modified time, because the timestamp on the inflated directory corresponds to the creation of the archive, and not to its download
+      timeSinceLastModified = System.currentTimeMillis() - Files.getLastModifiedTime(localInstallerFile).toMillis();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return timeSinceLastModified > STALE_SNAPSHOT_LIMIT_HOURS * 60 * 60 * 1000;
+  }
+
   public Distribution getDistribution() {
     return distribution;
   }
@@ -24,30 +24,31 @@ import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.tcconfig.License;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
-import java.util.concurrent.TimeUnit;
-import java.util.jar.JarInputStream;
-import java.util.jar.Manifest;
 
 import static java.util.stream.Collectors.toList;
+import static org.terracotta.angela.agent.kit.InstallLock.Mode.EXCLUSIVE;
+import static org.terracotta.angela.agent.kit.InstallLock.Mode.SHARED;
+import static org.terracotta.angela.agent.Agent.ROOT_DIR;
 
 /**
  * @author Aurelien Broszniowski
  */
-public class LocalKitManager extends KitManager {
+public class LocalKitManager extends KitManager implements AutoCloseable {
   private static final Logger logger = LoggerFactory.getLogger(LocalKitManager.class);
   private final Map<String, File> clientJars = new HashMap<>();
   private final KitResolver kitResolver;
   static final String INSTALLATION_LOCK_FILE_NAME = "angela-install.lock";
+  // shared lock on the kit while it is used
+  private InstallLock installLock;
 
   public LocalKitManager(Distribution distribution) {
     super(distribution);
@@ -89,78 +90,142 @@ public class LocalKitManager extends KitManager {
           kitResolver.resolveLocalInstallerPath(distribution.getVersion(), distribution.getLicenseType(), distribution.getPackageType()));
       logger.info("Checking if local kit is available at: {}", localInstallerPath);
 
+      releaseInstallLock();
+      this.installLock = lockInstalledKit(license, offline, localInstallerPath);
+    }
+    if (this.kitInstallationPath != null) {
+      initClientJarsMap();
+      logger.info("Local distribution is located in {}", this.kitInstallationPath);
+    }
+  }
+
+  /**
+   * Lock the kit in shared mode for as long as it is used, installing it first under an exclusive lock if needed.
+   * A stale snapshot is only refreshed if nobody uses it, otherwise it is used as is.
+   *
+   * @return the shared lock on the installed kit
+   */
+  private InstallLock lockInstalledKit(License license, boolean offline, Path localInstallerPath) {
+    while (true) {
+      InstallLock sharedLock = lockConcurrentInstall(localInstallerPath, SHARED);
       try {
-        lockConcurrentInstall(localInstallerPath);
-        if (!isValidLocalInstallerFilePath(offline, localInstallerPath)) {
-          logger.info("Local kit at: {} invalid or absent. Downloading a fresh installer", localInstallerPath);
-          kitResolver.downloadLocalInstaller(distribution.getVersion(), distribution.getLicenseType(), distribution.getPackageType(), localInstallerPath);
+        this.kitInstallationPath = findInstalledKit(offline, localInstallerPath);
+        if (this.kitInstallationPath != null) {
+          return sharedLock;
         }
+        Path extractedKit = findExtractedKit(localInstallerPath);
+        sharedLock.close();
 
-        this.kitInstallationPath = kitResolver.resolveKitInstallationPath(distribution.getVersion(), distribution.getPackageType(), localInstallerPath, rootInstallationPath);
-
-        if (!Files.isDirectory(this.kitInstallationPath)) {
-          logger.info("Local install not available at: {}", this.kitInstallationPath);
-          if (offline) {
-            throw new IllegalArgumentException("Can not install the kit version " + distribution + " in offline mode because" +
-                " the kit compressed package is not available. Please run in online mode with an internet connection.");
+        InstallLock exclusiveLock = extractedKit == null ? lockConcurrentInstall(localInstallerPath, EXCLUSIVE) : tryLockConcurrentInstall(localInstallerPath);
+        if (exclusiveLock == null) {
+          logger.info("Stale snapshot kit at: {} is in use, not refreshing it", extractedKit);
+          sharedLock = lockConcurrentInstall(localInstallerPath, SHARED);
+          if (Files.isDirectory(extractedKit)) {
+            this.kitInstallationPath = extractedKit;
+            return sharedLock;
           }
-          kitResolver.createLocalInstallFromInstaller(distribution.getVersion(), distribution.getPackageType(), license, localInstallerPath, rootInstallationPath);
+          // deleted meanwhile
+          sharedLock.close();
+          continue;
+        }
+        try (InstallLock ignored = exclusiveLock) {
+          install(license, offline, localInstallerPath);
         }
-      } finally {
-        unlockConcurrentInstall(localInstallerPath);
+      } catch (RuntimeException e) {
+        sharedLock.close();
+        throw e;
       }
+      // the kit could be deleted by another process between the exclusive and the shared lock: check it again
     }
-    if (this.kitInstallationPath != null) {
-      initClientJarsMap();
-      logger.info("Local distribution is located in {}", this.kitInstallationPath);
+  }
+
+  private void install(License license, boolean offline, Path localInstallerPath) {
+    if (findInstalledKit(offline, localInstallerPath) != null) {
+      // installed meanwhile
+      return;
+    }
+    if (!isValidLocalInstallerFilePath(offline, localInstallerPath)) {
+      logger.info("Local kit at: {} invalid or absent. Downloading a fresh installer", localInstallerPath);
+      kitResolver.downloadLocalInstaller(distribution.getVersion(), distribution.getLicenseType(), distribution.getPackageType(), localInstallerPath);
+    }
+
+    Path installationPath = kitResolver.resolveKitInstallationPath(distribution.getVersion(), distribution.getPackageType(), localInstallerPath, rootInstallationPath);
+
+    if (!Files.isDirectory(installationPath)) {
+      logger.info("Local install not available at: {}", installationPath);
+      if (offline) {
+        throw new IllegalArgumentException("Can not install the kit version " + distribution + " in offline mode because" +
+            " the kit compressed package is not available. Please run in online mode with an internet connection.");
+      }
+      kitResolver.createLocalInstallFromInstaller(distribution.getVersion(), distribution.getPackageType(), license, localInstallerPath, rootInstallationPath);
     }
   }
 
-  void unlockConcurrentInstall(Path localInstallerPath) {
-    logger.debug("Thread {} unlock", Thread.currentThread().getId());
-    File file = localInstallerPath.getParent().resolve(INSTALLATION_LOCK_FILE_NAME).toFile();
-    final boolean deleted = file.delete();
-    if (!deleted) {
-      logger.error("Installer lock file {} could not be deleted", file.getAbsolutePath());
-    } else {
-      logger.info("Deleted installer lock file {}", file);
+  /**
+   * @return the installation of the kit if the installer is there and was already extracted, null otherwise
+   */
+  private Path findInstalledKit(boolean offline, Path localInstallerPath) {
+    if (!Files.isRegularFile(localInstallerPath) || isStaleSnapshot(offline, localInstallerPath)) {
+      return null;
+    }
+    return findExtractedKit(localInstallerPath);
+  }
+
+  /**
+   * @return the installation of the kit if the installer is there and was already extracted, even if stale, null otherwise
+   */
+  private Path findExtractedKit(Path localInstallerPath) {
+    if (!Files.isRegularFile(localInstallerPath)) {
+      return null;
     }
+    Path installationPath = kitResolver.resolveKitInstallationPath(distribution.getVersion(), distribution.getPackageType(), localInstallerPath, rootInstallationPath);
+    return Files.isDirectory(installationPath) ? installationPath : null;
   }
 
-  void lockConcurrentInstall(Path localInstallerPath) {
-    logger.debug("Thread {} lock", Thread.currentThread().getId());
-    Path lockDir = localInstallerPath.getParent();
-    lockDir.toFile().mkdirs();
-    File file = lockDir.resolve(INSTALLATION_LOCK_FILE_NAME).toFile();
-    logger.info("Creating Installer lock file at: {}", file);
+  InstallLock lockConcurrentInstall(Path localInstallerPath, InstallLock.Mode mode) {
+    Path lockFile = installLockFile(localInstallerPath);
+    logger.debug("Thread {} waiting for {} lock on {}", Thread.currentThread().getId(), mode, lockFile);
     try {
-      if (!file.createNewFile()) {
-        long diff = new Date().getTime() - file.lastModified();
-        if (diff > TimeUnit.MINUTES.toMillis(5)) {
-          final boolean deleted = file.delete();
-          if (!deleted) {
-            logger.error("Angela Installer lock file can not be deleted when locking at {}", file.getAbsolutePath());
-          }
-          final boolean created = file.createNewFile();
-          if (!created) {
-            logger.error("Angela Installer lock file can not be created at {}", file.getAbsolutePath());
-          }
-        }
-        logger.debug("Thread {} wait", Thread.currentThread().getId());
-        for (int i = 0; i < 20; i++) {
-          Thread.sleep(6000);
-          if (file.createNewFile()) {
-            logger.debug("Thread {} pass", Thread.currentThread().getId());
-            break;
-          }
-        }
-      }
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-      logger.error("Angela Installer lock file issue at {}", file.getAbsolutePath());
+      InstallLock lock = InstallLock.acquire(lockFile, mode);
+      logger.debug("Thread {} acquired {} lock on {}", Thread.currentThread().getId(), mode, lockFile);
+      return lock;
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Error locking " + lockFile, ioe);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the install lock " + lockFile, ie);
+    }
+  }
+
+  /**
+   * @return the exclusive lock, or null if the kit is locked by this or another process
+   */
+  InstallLock tryLockConcurrentInstall(Path localInstallerPath) {
+    Path lockFile = installLockFile(localInstallerPath);
+    try {
+      return InstallLock.tryAcquire(lockFile, EXCLUSIVE);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Error locking " + lockFile, ioe);
+    }
+  }
+
+  private static Path installLockFile(Path localInstallerPath) {
+    return localInstallerPath.toAbsolutePath().getParent().resolve(INSTALLATION_LOCK_FILE_NAME);
+  }
+
+  private void releaseInstallLock() {
+    if (installLock != null) {
+      installLock.close();
+      installLock = null;
     }
-    logger.debug("Thread {} pass", Thread.currentThread().getId());
+  }
 
+  /**
+   * Release the shared lock on the kit: another process may then refresh or delete it.
+   */
+  @Override
+  public void close() {
+    releaseInstallLock();
   }
 
   private void initClientJarsMap() {
@@ -184,11 +249,12 @@ public class LocalKitManager extends KitManager {
          * are providing the same thing, barring any version differences.
          * Only include jars that have their Bundle-SymbolicName start with "com.terracotta".
          */
-        String bundleSymbolicName = loadManifestBundleSymbolicName(clientJar);
+        String bundleSymbolicName = JarIndexHolder.INDEX.getBundleSymbolicName(clientJar);
         if (bundleSymbolicName != null && bundleSymbolicName.startsWith("com.terracotta")) {
           this.clientJars.put(bundleSymbolicName, clientJar);
         }
       }
+      JarIndexHolder.INDEX.save();
       logger.debug("Kit client jars : {}", this.clientJars);
     } catch (IOException ioe) {
       throw new RuntimeException("Error listing client jars in " + kitInstallationPath, ioe);
@@ -200,24 +266,23 @@ public class LocalKitManager extends KitManager {
   }
 
 
+  /**
+   * @see #flush() to persist what the lookups learnt about the jars
+   */
   public File equivalentClientJar(File file) {
-    String sourceBundleSymbolicName = loadManifestBundleSymbolicName(file);
+    String sourceBundleSymbolicName = JarIndexHolder.INDEX.getBundleSymbolicName(file);
     return clientJars.get(sourceBundleSymbolicName);
   }
 
-  private String loadManifestBundleSymbolicName(File file) {
-    try {
-      if (file.getName().endsWith(".jar")) {
-        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(file))) {
-          Manifest manifest = jarInputStream.getManifest();
-          return manifest == null ? null : manifest.getMainAttributes().getValue("Bundle-SymbolicName");
-        }
-      } else {
-        return null;
-      }
-    } catch (IOException ioe) {
-      logger.error("Error loading the JAR manifest of " + file, ioe);
-      return null;
-    }
+  /**
+   * Save the jar metadata computed by {@link #equivalentClientJar(File)} calls, once they are all done.
+   */
+  public void flush() {
+    JarIndexHolder.INDEX.save();
+  }
+
+  private static class JarIndexHolder {
+    // next to the kits, shared by all the JVMs using this root directory
+    private static final JarMetadataIndex INDEX = new JarMetadataIndex(ROOT_DIR.resolve("kits").resolve("jar-index.txt"));
   }
 }
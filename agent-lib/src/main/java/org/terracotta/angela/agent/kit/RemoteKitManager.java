@@ -25,14 +25,21 @@ import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.tcconfig.License;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.util.DirectoryUtils;
+import org.terracotta.angela.common.util.FileManifest;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.Boolean.parseBoolean;
+import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALL_MODE;
+import static org.terracotta.angela.common.AngelaProperties.KIT_STORE_RETENTION_DAYS;
 import static org.terracotta.angela.common.AngelaProperties.SKIP_KIT_COPY_LOCALHOST;
 import static org.terracotta.angela.common.util.IpUtils.areAllLocal;
 
@@ -44,7 +51,17 @@ import static org.terracotta.angela.common.util.IpUtils.areAllLocal;
 public class RemoteKitManager extends KitManager {
   private static final Logger logger = LoggerFactory.getLogger(RemoteKitManager.class);
 
+  private static final Path KIT_STORE_DIR = Agent.ROOT_DIR.resolve("store");
+  // the content store is pruned once per agent
+  private static final AtomicBoolean KIT_STORE_EVICTED = new AtomicBoolean();
+  private static final List<String> WRITTEN_FILE_EXTENSIONS = Arrays.asList(".properties", ".xml", ".cfg", ".conf", ".json", ".yml", ".yaml", ".lic", ".key", ".log");
+
   private final Path workingDir; // The location containing server logs
+  private final KitContentStore contentStore = new KitContentStore(KIT_STORE_DIR);
+
+  public enum InstallMode {
+    COPY, LINK
+  }
 
   public RemoteKitManager(InstanceId instanceId, Distribution distribution, String kitInstallationName) {
     super(distribution);
@@ -57,6 +74,7 @@ public class RemoteKitManager extends KitManager {
   // Returns the location to be used for kit - could be the source kit path itself, or a new location based on if or not
   // the kit was copied
   public File installKit(License license, Collection<String> serversHostnames) {
+    InstallMode installMode = configuredInstallMode();
     try {
       Files.createDirectories(workingDir);
 
@@ -67,9 +85,16 @@ public class RemoteKitManager extends KitManager {
         }
         return kitInstallationPath.toFile();
       } else {
-        logger.info("Copying {} to {}", kitInstallationPath.toAbsolutePath(), workingDir);
-        DirectoryUtils.copyDirectory(kitInstallationPath, workingDir);
+        if (installMode == InstallMode.LINK) {
+          logger.info("Linking {} to {}", kitInstallationPath.toAbsolutePath(), workingDir);
+          DirectoryUtils.linkDirectory(kitInstallationPath, workingDir, RemoteKitManager::isWrittenByServers);
+        } else {
+          logger.info("Copying {} to {}", kitInstallationPath.toAbsolutePath(), workingDir);
+          DirectoryUtils.copyDirectory(kitInstallationPath, workingDir);
+        }
         if (license != null) {
+          // never write through a hard link into the kit
+          Files.deleteIfExists(workingDir.resolve(license.getFilename()));
           license.writeToFile(workingDir.toFile());
         }
         return workingDir.toFile();
@@ -79,6 +104,29 @@ public class RemoteKitManager extends KitManager {
     }
   }
 
+  public static InstallMode configuredInstallMode() {
+    String value = KIT_INSTALL_MODE.getValue();
+    try {
+      return InstallMode.valueOf(value.toUpperCase());
+    } catch (IllegalArgumentException iae) {
+      throw new IllegalArgumentException("Invalid value for " + KIT_INSTALL_MODE.getPropertyName() + ": " + value + ", expected one of copy, link", iae);
+    }
+  }
+
+  /**
+   * Configuration files, licenses and logs may be modified in place once installed, so they must not be shared
+   * with the kit through hard links.
+   */
+  static boolean isWrittenByServers(Path relativePath) {
+    for (Path segment : relativePath) {
+      if (segment.toString().equals("logs")) {
+        return true;
+      }
+    }
+    String name = relativePath.getFileName().toString().toLowerCase();
+    return WRITTEN_FILE_EXTENSIONS.stream().anyMatch(name::endsWith);
+  }
+
   public Path getWorkingDir() {
     return workingDir;
   }
@@ -92,6 +140,49 @@ public class RemoteKitManager extends KitManager {
     return true;
   }
 
+  /**
+   * Bring the kit installation in sync with the given manifest, using the files of the agent's content store.
+   *
+   * @return the relative paths of the files which must be uploaded to complete the kit installation
+   */
+  public List<String> syncKit(FileManifest manifest) {
+    List<String> missing;
+    try {
+      missing = contentStore.materialize(manifest, kitInstallationPath);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot sync kit installation " + kitInstallationPath, e);
+    }
+    // after materializing, which marked the files of this kit as used
+    if (KIT_STORE_EVICTED.compareAndSet(false, true)) {
+      long retentionMillis = TimeUnit.DAYS.toMillis(Long.parseLong(KIT_STORE_RETENTION_DAYS.getValue()));
+      try {
+        contentStore.evictUnusedSince(System.currentTimeMillis() - retentionMillis);
+      } catch (IOException e) {
+        logger.warn("Error evicting unused files from the content store {}", KIT_STORE_DIR, e);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Add freshly uploaded kit files to the agent's content store.
+   *
+   * @param relativePaths the paths of the uploaded files, relative to the kit installation
+   */
+  public void storeKitFiles(FileManifest manifest, Collection<String> relativePaths) throws IOException {
+    contentStore.add(manifest, kitInstallationPath, relativePaths);
+  }
+
+  /**
+   * @return the file to read when sending a kit file to another agent: preferably the immutable copy held in the content
+   * store, the file of the kit installation otherwise
+   */
+  public File getKitFile(FileManifest manifest, String relativePath) {
+    String hash = manifest.getHash(relativePath);
+    Path stored = hash == null ? null : contentStore.find(hash);
+    return stored != null ? stored.toFile() : kitInstallationPath.resolve(relativePath).toFile();
+  }
+
   public void deleteInstall(File installLocation) throws IOException {
     logger.info("deleting installation in {}", installLocation.getAbsolutePath());
     FileUtils.deleteDirectory(installLocation);
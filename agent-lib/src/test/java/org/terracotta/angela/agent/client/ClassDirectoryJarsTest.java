@@ -0,0 +1,59 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ClassDirectoryJarsTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testJarIsReusedUntilTheDirectoryChanges() throws Exception {
+    Path classes = temporaryFolder.newFolder("test-classes").toPath();
+    Files.createDirectories(classes.resolve("org/example"));
+    Files.write(classes.resolve("org/example/MyJob.class"), "v1".getBytes());
+    ClassDirectoryJars directoryJars = new ClassDirectoryJars(temporaryFolder.newFolder("jars").toPath());
+
+    Path jar = directoryJars.jarOf(classes);
+    assertThat(jar.getFileName().toString(), is("test-classes.jar"));
+    try (JarFile jarFile = new JarFile(jar.toFile())) {
+      assertThat(jarFile.getEntry("org/example/").isDirectory(), is(true));
+      assertThat(jarFile.getEntry("org/example/MyJob.class").getSize(), is(2L));
+    }
+    long lastModified = Files.getLastModifiedTime(jar).toMillis();
+    assertThat(directoryJars.jarOf(classes), is(jar));
+    // the JVM considers an archive stale when the modification time of a jar of its classpath changes
+    assertThat(Files.getLastModifiedTime(jar).toMillis(), is(lastModified));
+
+    Files.write(classes.resolve("org/example/MyJob.class"), "version 2".getBytes());
+    Path newJar = directoryJars.jarOf(classes);
+    assertThat(newJar.equals(jar), is(false));
+    assertThat(Files.exists(jar), is(true));
+  }
+}
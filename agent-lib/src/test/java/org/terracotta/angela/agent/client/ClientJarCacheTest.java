@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.common.util.FileManifest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class ClientJarCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testAddAndFind() throws Exception {
+    ClientJarCache cache = new ClientJarCache(temporaryFolder.newFolder("jars").toPath());
+    Path jar = temporaryFolder.newFile("lib-1.0.jar").toPath();
+    Files.write(jar, "jar content".getBytes());
+    String hash = FileManifest.hash(jar);
+    String otherHash = FileManifest.hash(temporaryFolder.newFile("empty").toPath());
+
+    assertThat(cache.findMissing(Arrays.asList(hash, otherHash)), is(Arrays.asList(hash, otherHash)));
+
+    Path stagingDir = cache.newStagingDir();
+    Files.createDirectories(stagingDir.resolve(hash));
+    Files.copy(jar, stagingDir.resolve(hash).resolve("lib-1.0.jar"));
+    cache.add(stagingDir, Collections.singletonList(hash + "/lib-1.0.jar"));
+
+    assertThat(cache.findMissing(Arrays.asList(hash, otherHash)), is(Collections.singletonList(otherHash)));
+    assertThat(cache.find(hash).getFileName().toString(), is("lib-1.0.jar"));
+    assertThat(new String(Files.readAllBytes(cache.find(hash))), is("jar content"));
+  }
+
+  @Test
+  public void testUnusedJarsAreEvicted() throws Exception {
+    Path cacheRoot = temporaryFolder.newFolder("jars").toPath();
+    ClientJarCache cache = new ClientJarCache(cacheRoot);
+    Path jar = temporaryFolder.newFile("lib-1.0.jar").toPath();
+    Files.write(jar, "jar content".getBytes());
+    String hash = FileManifest.hash(jar);
+    Path stagingDir = cache.newStagingDir();
+    Files.createDirectories(stagingDir.resolve(hash));
+    Files.copy(jar, stagingDir.resolve(hash).resolve("lib-1.0.jar"));
+    cache.add(stagingDir, Collections.singletonList(hash + "/lib-1.0.jar"));
+    long past = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+    Files.setLastModifiedTime(cacheRoot.resolve(hash), FileTime.fromMillis(past));
+    Files.setLastModifiedTime(cacheRoot.resolve(".staging"), FileTime.fromMillis(past));
+    long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+
+    // looking the jar up marks it as used, without changing the modification time of the jar
+    long jarLastModified = Files.getLastModifiedTime(cache.find(hash)).toMillis();
+    assertThat(cache.evictUnusedSince(cutoff), is(1));
+    assertThat(Files.getLastModifiedTime(cache.find(hash)).toMillis(), is(jarLastModified));
+    assertThat(Files.exists(cacheRoot.resolve(".staging")), is(false));
+
+    Files.setLastModifiedTime(cacheRoot.resolve(hash), FileTime.fromMillis(past));
+    assertThat(cache.evictUnusedSince(cutoff), is(1));
+    assertThat(cache.findMissing(Collections.singletonList(hash)), is(Collections.singletonList(hash)));
+  }
+
+  @Test
+  public void testAddRejectsCorruptedJar() throws Exception {
+    ClientJarCache cache = new ClientJarCache(temporaryFolder.newFolder("jars").toPath());
+    Path jar = temporaryFolder.newFile("lib-1.0.jar").toPath();
+    Files.write(jar, "jar content".getBytes());
+    String hash = FileManifest.hash(jar);
+
+    Path stagingDir = cache.newStagingDir();
+    Files.createDirectories(stagingDir.resolve(hash));
+    Files.write(stagingDir.resolve(hash).resolve("lib-1.0.jar"), "corrupted".getBytes());
+    try {
+      cache.add(stagingDir, Collections.singletonList(hash + "/lib-1.0.jar"));
+      fail("expected IOException");
+    } catch (IOException ioe) {
+      // expected
+    }
+    assertThat(cache.find(hash) == null, is(true));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.common.net.DefaultPortAllocator;
+import org.terracotta.angela.common.net.PortAllocator;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.ProcessTerminator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ClientPoolTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testHandOutResetAndCleanup() throws Exception {
+    Path poolDir = temporaryFolder.newFolder("pool").toPath();
+    ClientPool pool = new ClientPool(poolDir, 2) {
+      @Override
+      List<String> commandLine(Launch launch, Path classpathDir, PortAllocator.PortReservation reservation) {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return Arrays.asList(java, "-cp", System.getProperty("java.class.path"), FakeClient.class.getName());
+      }
+    };
+    try (PortAllocator portAllocator = new DefaultPortAllocator()) {
+      RemoteClientManager.ClientClasspath classpath = new RemoteClientManager.ClientClasspath(Collections.emptyList(),
+          Collections.singletonList("classes"), 1, "agent.jar");
+      ClientPool.Launch launch = new ClientPool.Launch("java-home", Collections.emptyList(), classpath, Collections.singletonList("localhost:40000"), portAllocator);
+      ClientPool.Launch otherLaunch = new ClientPool.Launch("java-home", Collections.singletonList("-Xmx1g"), classpath, Collections.singletonList("localhost:40000"), portAllocator);
+      Path installationPath = temporaryFolder.newFolder("instance").toPath();
+      Files.createDirectories(installationPath.resolve(RemoteClientManager.CLASSPATH_SUBDIR_NAME).resolve("classes"));
+      Files.write(installationPath.resolve(RemoteClientManager.CLASSPATH_SUBDIR_NAME).resolve("classes").resolve("Job.class"), new byte[]{1});
+      Files.write(installationPath.resolve("uploaded.txt"), new byte[]{2});
+
+      // the first request of a launch fills the pool
+      assertThat(pool.acquire(launch, new InstanceId("test", "client"), installationPath, "node-1"), is(-1));
+      await(() -> pool.idleCount() == 2);
+
+      int pid = pool.acquire(launch, new InstanceId("test", "client"), installationPath, "node-1");
+      assertThat(pid > 0, is(true));
+      assertThat(Files.isRegularFile(installationPath.resolve("uploaded.txt")), is(true));
+      assertThat(slotCount(poolDir, "cp/classes/Job.class"), is(1L));
+      assertThat(slotCount(poolDir, "work"), is(3L));
+      await(() -> pool.idleCount() == 2);
+
+      // a different launch replaces the idle clients
+      assertThat(pool.acquire(otherLaunch, new InstanceId("test", "client"), installationPath, "node-2"), is(-1));
+      await(() -> pool.idleCount() == 2);
+      assertThat(slotCount(poolDir, "work"), is(3L));
+
+      // closing keeps the slot of the client handed out until it exits
+      pool.close();
+      assertThat(pool.idleCount(), is(0));
+      assertThat(slotCount(poolDir, "work"), is(1L));
+      ProcessTerminator.kill(Collections.singleton(pid));
+      pool.clientExited(pid);
+      assertThat(slotCount(poolDir, "work"), is(0L));
+    } finally {
+      pool.close();
+    }
+  }
+
+  private static long slotCount(Path poolDir, String entry) throws Exception {
+    try (Stream<Path> slots = Files.list(poolDir)) {
+      return slots.filter(slot -> Files.exists(slot.resolve(entry.replace('/', File.separatorChar)))).count();
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Condition not met within 30 seconds");
+      }
+      Thread.sleep(50);
+    }
+  }
+
+  /**
+   * Behaves like a pooled agent: waits for its node name, then reports being ready.
+   */
+  public static class FakeClient {
+    public static void main(String[] args) throws Exception {
+      System.out.println(Agent.POOLED_CLIENT_IS_WAITING_MARKER_LOG);
+      System.out.flush();
+      String nodeName = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+      if (nodeName == null) {
+        return;
+      }
+      System.out.println(Agent.AGENT_IS_READY_MARKER_LOG);
+      System.out.flush();
+      Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+    }
+  }
+}
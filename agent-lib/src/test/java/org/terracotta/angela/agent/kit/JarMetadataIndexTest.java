@@ -0,0 +1,73 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.kit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class JarMetadataIndexTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testIndexIsPersisted() throws Exception {
+    Path indexFile = temporaryFolder.getRoot().toPath().resolve("kits/jar-index.txt");
+    File jar = temporaryFolder.newFile("client.jar");
+    writeJar(jar, "com.terracotta.client");
+    File notAJar = temporaryFolder.newFile("client.txt");
+
+    JarMetadataIndex index = new JarMetadataIndex(indexFile);
+    assertThat(index.getBundleSymbolicName(jar), is("com.terracotta.client"));
+    assertThat(index.getBundleSymbolicName(notAJar) == null, is(true));
+    index.save();
+
+    // a new index trusts the persisted entry as long as the jar is unchanged
+    FileTime lastModified = Files.getLastModifiedTime(jar.toPath());
+    Files.write(jar.toPath(), new byte[(int) jar.length()]);
+    Files.setLastModifiedTime(jar.toPath(), lastModified);
+    assertThat(new JarMetadataIndex(indexFile).getBundleSymbolicName(jar), is("com.terracotta.client"));
+
+    writeJar(jar, "com.terracotta.other");
+    Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(lastModified.toMillis() + 1000));
+    assertThat(new JarMetadataIndex(indexFile).getBundleSymbolicName(jar), is("com.terracotta.other"));
+  }
+
+  private static void writeJar(File jar, String bundleSymbolicName) throws Exception {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Bundle-SymbolicName", bundleSymbolicName);
+    try (OutputStream os = Files.newOutputStream(jar.toPath());
+         JarOutputStream jos = new JarOutputStream(os, manifest)) {
+      jos.flush();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.agent.kit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.common.util.FileManifest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class KitContentStoreTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testOnlyChangedFilesAreMissing() throws Exception {
+    Path kit = temporaryFolder.newFolder("kit").toPath();
+    Files.createDirectories(kit.resolve("server/lib"));
+    Files.createDirectories(kit.resolve("server/plugins"));
+    Files.write(kit.resolve("server/lib/a.jar"), "a".getBytes());
+    Files.write(kit.resolve("server/lib/b.jar"), "b".getBytes());
+
+    KitContentStore store = new KitContentStore(temporaryFolder.newFolder("store").toPath());
+    Path host1 = temporaryFolder.getRoot().toPath().resolve("host1");
+    FileManifest manifest = FileManifest.of(kit);
+
+    List<String> missing = store.materialize(manifest, host1);
+    assertThat(missing, is(Arrays.asList("server/lib/a.jar", "server/lib/b.jar")));
+    for (String relativePath : missing) {
+      Files.copy(kit.resolve(relativePath), host1.resolve(relativePath));
+    }
+    store.add(manifest, host1, missing);
+
+    // a new snapshot changes only one jar
+    Files.write(kit.resolve("server/lib/b.jar"), "b2".getBytes());
+    FileManifest newManifest = FileManifest.of(kit);
+    Path host2 = temporaryFolder.getRoot().toPath().resolve("host2");
+
+    assertThat(store.materialize(newManifest, host2), is(singletonList("server/lib/b.jar")));
+    assertThat(new String(Files.readAllBytes(host2.resolve("server/lib/a.jar"))), is("a"));
+    assertThat(Files.isDirectory(host2.resolve("server/plugins")), is(true));
+
+    Files.write(host2.resolve("server/lib/b.jar"), "b2".getBytes());
+    store.add(newManifest, host2, singletonList("server/lib/b.jar"));
+    assertThat(store.materialize(newManifest, host1), is(emptyList()));
+    assertThat(new String(Files.readAllBytes(host1.resolve("server/lib/b.jar"))), is("b2"));
+  }
+
+  @Test
+  public void testFilesNotInTheManifestAreDeleted() throws Exception {
+    Path kit = temporaryFolder.newFolder("kit").toPath();
+    Files.createDirectories(kit.resolve("server/lib"));
+    Files.write(kit.resolve("server/lib/a.jar"), "a".getBytes());
+    FileManifest manifest = FileManifest.of(kit);
+
+    Path host = temporaryFolder.newFolder("host").toPath();
+    Files.createDirectories(host.resolve("server/lib"));
+    Files.write(host.resolve("server/lib/a.jar"), "a".getBytes());
+    Files.write(host.resolve("server/lib/old.jar"), "old".getBytes());
+
+    KitContentStore store = new KitContentStore(temporaryFolder.newFolder("store").toPath());
+    store.add(manifest, host, singletonList("server/lib/a.jar"));
+
+    assertThat(store.materialize(manifest, host), is(emptyList()));
+    assertThat(Files.exists(host.resolve("server/lib/old.jar")), is(false));
+    assertThat(Files.exists(host.resolve("server/lib/a.jar")), is(true));
+  }
+
+  @Test
+  public void testUnusedFilesAreEvicted() throws Exception {
+    Path kit = temporaryFolder.newFolder("kit").toPath();
+    Files.write(kit.resolve("a.jar"), "a".getBytes());
+    FileManifest manifest = FileManifest.of(kit);
+
+    KitContentStore store = new KitContentStore(temporaryFolder.newFolder("store").toPath());
+    store.add(manifest, kit, singletonList("a.jar"));
+
+    assertThat(store.evictUnusedSince(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)), is(0));
+    assertThat(store.materialize(manifest, temporaryFolder.newFolder("host1").toPath()), is(emptyList()));
+
+    assertThat(store.evictUnusedSince(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)), is(1));
+    assertThat(store.materialize(manifest, temporaryFolder.newFolder("host2").toPath()), is(singletonList("a.jar")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptedUploadIsRejected() throws Exception {
+    Path kit = temporaryFolder.newFolder("kit").toPath();
+    Files.write(kit.resolve("a.jar"), "a".getBytes());
+    FileManifest manifest = FileManifest.of(kit);
+
+    Path host = temporaryFolder.newFolder("host").toPath();
+    Files.write(host.resolve("a.jar"), "corrupted".getBytes());
+    new KitContentStore(temporaryFolder.newFolder("store").toPath()).add(manifest, host, singletonList("a.jar"));
+  }
+}
@@ -1,15 +1,28 @@
 package org.terracotta.angela.agent.kit;
 
+import org.junit.Rule;
 import org.junit.Test;
-import org.terracotta.angela.common.distribution.Distribution;
+import org.junit.rules.TemporaryFolder;
 
-import java.io.File;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.terracotta.angela.agent.kit.InstallLock.Mode.EXCLUSIVE;
+import static org.terracotta.angela.agent.kit.InstallLock.Mode.SHARED;
 import static org.terracotta.angela.agent.kit.LocalKitManager.INSTALLATION_LOCK_FILE_NAME;
 
 /**
@@ -18,20 +31,26 @@ import static org.terracotta.angela.agent.kit.LocalKitManager.INSTALLATION_LOCK_
 
 public class LocalKitManagerTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void testLock() throws InterruptedException {
-    final File file = Paths.get(".").resolve(INSTALLATION_LOCK_FILE_NAME).toFile();
-
-    System.out.println(file.getAbsolutePath());
-    file.delete();
-
+    final Path localInstallerPath = temporaryFolder.getRoot().toPath().resolve("kit.zip");
     final LocalKitManager localKitManager = new LocalKitManager(null);
+    final AtomicInteger holders = new AtomicInteger();
+    final AtomicInteger maxHolders = new AtomicInteger();
 
     List<Thread> threads = new ArrayList<>();
     for (int i = 0; i < 5; i++) {
       final Thread thread = new Thread(() -> {
-        localKitManager.lockConcurrentInstall(Paths.get("."));
-        localKitManager.unlockConcurrentInstall(Paths.get("."));
+        try (InstallLock ignored = localKitManager.lockConcurrentInstall(localInstallerPath, EXCLUSIVE)) {
+          maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+          Thread.sleep(10);
+          holders.decrementAndGet();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
       });
       thread.start();
       threads.add(thread);
@@ -41,8 +60,66 @@ public class LocalKitManagerTest {
       thread.join();
     }
 
-    assertThat(file.exists(), equalTo(false));
+    assertThat(maxHolders.get(), equalTo(1));
+    assertThat(localInstallerPath.resolveSibling(INSTALLATION_LOCK_FILE_NAME).toFile().exists(), equalTo(true));
+  }
+
+  @Test
+  public void testSharedLocksOnlyBlockTheExclusiveLock() throws Exception {
+    final Path localInstallerPath = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    final LocalKitManager localKitManager = new LocalKitManager(null);
+
+    InstallLock first = localKitManager.lockConcurrentInstall(localInstallerPath, SHARED);
+    InstallLock second = localKitManager.lockConcurrentInstall(localInstallerPath, SHARED);
+    assertThat(localKitManager.tryLockConcurrentInstall(localInstallerPath), is(nullValue()));
+
+    first.close();
+    assertThat(localKitManager.tryLockConcurrentInstall(localInstallerPath), is(nullValue()));
+
+    // a shared lock can be released by another thread than the one which took it
+    Thread releaser = new Thread(second::close);
+    releaser.start();
+    releaser.join();
+
+    try (InstallLock exclusive = localKitManager.tryLockConcurrentInstall(localInstallerPath)) {
+      assertThat(exclusive, is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void testExclusiveLockBlocksSharedLocks() throws Exception {
+    final Path localInstallerPath = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    final LocalKitManager localKitManager = new LocalKitManager(null);
+    final CountDownLatch sharedAcquired = new CountDownLatch(1);
+
+    InstallLock exclusive = localKitManager.lockConcurrentInstall(localInstallerPath, EXCLUSIVE);
+    Thread reader = new Thread(() -> {
+      try (InstallLock ignored = localKitManager.lockConcurrentInstall(localInstallerPath, SHARED)) {
+        sharedAcquired.countDown();
+      }
+    });
+    reader.start();
+
+    assertThat(sharedAcquired.await(100, TimeUnit.MILLISECONDS), is(false));
+    exclusive.close();
+    assertThat(sharedAcquired.await(10, TimeUnit.SECONDS), is(true));
+    reader.join();
   }
 
+  @Test
+  public void testDeleteLocalInstallKeepsTheLockFile() throws Exception {
+    final Path localInstallerPath = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    final LocalKitManager localKitManager = new LocalKitManager(null);
+    Files.write(localInstallerPath, new byte[]{1, 2, 3});
+    Files.write(localInstallerPath.resolveSibling("kit.zip.md5"), "abc".getBytes(StandardCharsets.US_ASCII));
+    Files.createDirectories(localInstallerPath.resolveSibling("kit").resolve("lib"));
+
+    try (InstallLock ignored = localKitManager.lockConcurrentInstall(localInstallerPath, EXCLUSIVE)) {
+      KitManager.deleteLocalInstall(localInstallerPath);
+    }
 
+    try (Stream<Path> entries = Files.list(temporaryFolder.getRoot().toPath())) {
+      assertThat(entries.map(p -> p.getFileName().toString()).collect(toList()), equalTo(singletonList(INSTALLATION_LOCK_FILE_NAME)));
+    }
+  }
 }
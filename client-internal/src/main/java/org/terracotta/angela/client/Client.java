@@ -115,8 +115,8 @@ public class Client implements Closeable {
       }
       File classpathFile = new File(classpathJarName);
 
-      File equivalentClientJar = localKitManager.equivalentClientJar(classpathFile);
-      if (substituteClientJars && equivalentClientJar != null) {
+      File equivalentClientJar = substituteClientJars ? localKitManager.equivalentClientJar(classpathFile) : null;
+      if (equivalentClientJar != null) {
         logger.debug("Skipping upload of classpath file as kit contains equivalent jar in client libs : {}", classpathFile.getName());
         jars.add(equivalentClientJar);
         continue;
@@ -127,6 +127,7 @@ public class Client implements Closeable {
     }
 
     if (substituteClientJars) {
+      localKitManager.flush();
       logger.info("Enhancing client classpath with client jars of {}", localKitManager.getDistribution());
       files.addAll(jars);
       logger.debug("Adding clients jars : {}", jars);
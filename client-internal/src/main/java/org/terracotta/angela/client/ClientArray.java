@@ -35,13 +35,22 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 import static org.terracotta.angela.client.util.IgniteClientHelper.executeRemotely;
+import static org.terracotta.angela.common.AngelaProperties.CLIENT_SPAWN_PARALLELISM;
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_DIR;
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_PATH;
 import static org.terracotta.angela.common.AngelaProperties.SKIP_UNINSTALL;
@@ -57,7 +66,7 @@ public class ClientArray implements AutoCloseable {
   private final Ignite ignite;
   private final Supplier<InstanceId> instanceIdSupplier;
   private final LocalKitManager localKitManager;
-  private final Map<ClientId, Client> clients = new HashMap<>();
+  private final Map<ClientId, Client> clients = new ConcurrentHashMap<>();
   private final int ignitePort;
   private final ClientArrayConfigurationContext clientArrayConfigurationContext;
   private boolean closed = false;
@@ -72,23 +81,80 @@ public class ClientArray implements AutoCloseable {
     installAll();
   }
 
+  /**
+   * Spawn the clients concurrently, at most {@link org.terracotta.angela.common.AngelaProperties#CLIENT_SPAWN_PARALLELISM}
+   * at a time on each host. The first client of a host is spawned alone, so that the other ones find their jars
+   * already cached by the agent instead of all uploading them.
+   */
   private void installAll() {
-    clientArrayConfigurationContext.getClientArrayTopology().getClientIds().forEach(this::install);
-  }
-
-  private void install(ClientId clientId) {
     boolean offline = Boolean.parseBoolean(System.getProperty("offline", "false"));
 
     logger.info("Setting up locally the extracted install to be deployed remotely");
     String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
     localKitManager.setupLocalInstall(clientArrayConfigurationContext.getLicense(), kitInstallationPath, offline);
 
+    Map<ClientId, InstanceId> instanceIds = new LinkedHashMap<>();
+    Map<String, Queue<ClientId>> clientsPerHost = new LinkedHashMap<>();
+    for (ClientId clientId : clientArrayConfigurationContext.getClientArrayTopology().getClientIds()) {
+      instanceIds.put(clientId, instanceIdSupplier.get());
+      clientsPerHost.computeIfAbsent(clientId.getHostname(), hostname -> new ConcurrentLinkedQueue<>()).add(clientId);
+    }
+    if (instanceIds.isEmpty()) {
+      return;
+    }
+
+    int parallelism = Math.max(1, Integer.parseInt(CLIENT_SPAWN_PARALLELISM.getValue()));
+    List<Callable<Void>> workers = new ArrayList<>();
+    List<Exception> exceptions = Collections.synchronizedList(new ArrayList<>());
+    for (Queue<ClientId> hostClients : clientsPerHost.values()) {
+      CountDownLatch firstInstalled = new CountDownLatch(1);
+      for (int i = 0; i < Math.min(parallelism, hostClients.size()); i++) {
+        boolean first = i == 0;
+        workers.add(() -> {
+          if (!first) {
+            firstInstalled.await();
+          }
+          ClientId clientId;
+          while ((clientId = hostClients.poll()) != null) {
+            try {
+              install(clientId, instanceIds.get(clientId));
+            } catch (Exception e) {
+              exceptions.add(e);
+            } finally {
+              firstInstalled.countDown();
+            }
+          }
+          return null;
+        });
+      }
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(workers.size());
+    try {
+      executorService.invokeAll(workers);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while spawning clients", e);
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    if (exceptions.size() == 1 && exceptions.get(0) instanceof RuntimeException) {
+      throw (RuntimeException) exceptions.get(0);
+    } else if (!exceptions.isEmpty()) {
+      RuntimeException re = new RuntimeException("Error spawning clients on " + clientsPerHost.keySet());
+      exceptions.forEach(re::addSuppressed);
+      throw re;
+    }
+  }
+
+  private void install(ClientId clientId, InstanceId instanceId) {
     try {
       logger.info("installing the client jars to {}", clientId);
 // TODO : refactor Client to extract the uploading step and the execution step
 //     uploadClientJars(ignite, terracottaClient.getClientHostname(), instanceId, );
 
-      Client client = new Client(ignite, ignitePort, instanceIdSupplier.get(), clientId,
+      Client client = new Client(ignite, ignitePort, instanceId, clientId,
           clientArrayConfigurationContext.getTerracottaCommandLineEnvironment(), localKitManager);
       clients.put(clientId, client);
     } catch (Exception e) {
@@ -132,15 +198,31 @@ public class ClientArray implements AutoCloseable {
     return new Jcmd(ignite, instanceIdSupplier.get(), client, ignitePort, tcEnv);
   }
 
+  /**
+   * Stop all the clients concurrently, so that it takes a single shutdown grace period.
+   */
   public void stopAll() throws IOException {
     List<Exception> exceptions = new ArrayList<>();
 
-    for (ClientId clientId : clientArrayConfigurationContext.getClientArrayTopology().getClientIds()) {
-      try {
-        stop(clientId);
-      } catch (Exception e) {
-        exceptions.add(e);
+    Collection<ClientId> clientIds = clientArrayConfigurationContext.getClientArrayTopology().getClientIds();
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, clientIds.size()));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (ClientId clientId : clientIds) {
+        futures.add(executorService.submit(() -> stop(clientId)));
       }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          exceptions.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while stopping clients", e);
+    } finally {
+      executorService.shutdownNow();
     }
 
     if (!exceptions.isEmpty()) {
@@ -213,6 +295,8 @@ public class ClientArray implements AutoCloseable {
     if (!Boolean.parseBoolean(SKIP_UNINSTALL.getValue())) {
       uninstallAll();
     }
+
+    localKitManager.close();
   }
 
   public Collection<Client> getClients() {
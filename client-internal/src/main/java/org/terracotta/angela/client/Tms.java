@@ -131,6 +131,8 @@ public class Tms implements AutoCloseable {
     if (!Boolean.parseBoolean(SKIP_UNINSTALL.getValue())) {
       uninstall();
     }
+
+    localKitManager.close();
   }
 
   private void uninstall() {
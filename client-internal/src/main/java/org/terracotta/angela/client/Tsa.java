@@ -19,6 +19,7 @@ package org.terracotta.angela.client;
 
 import org.apache.ignite.Ignite;
 import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteFuture;
 import org.apache.ignite.lang.IgniteRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,8 @@ import org.terracotta.angela.client.config.TsaConfigurationContext;
 import org.terracotta.angela.client.filesystem.RemoteFolder;
 import org.terracotta.angela.client.net.DisruptionController;
 import org.terracotta.angela.client.util.IgniteClientHelper;
+import org.terracotta.angela.client.util.KitDistributor;
+import org.terracotta.angela.client.util.ServerStateWaiter;
 import org.terracotta.angela.common.ConfigToolExecutionResult;
 import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
 import org.terracotta.angela.common.TerracottaServerState;
@@ -53,10 +56,19 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.util.EnumSet.of;
@@ -64,6 +76,7 @@ import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_DIR
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_PATH;
 import static org.terracotta.angela.common.AngelaProperties.SKIP_KIT_INSTALL;
 import static org.terracotta.angela.common.AngelaProperties.SKIP_UNINSTALL;
+import static org.terracotta.angela.common.AngelaProperties.TSA_INSTALL_PARALLELISM;
 import static org.terracotta.angela.common.AngelaProperties.getEitherOf;
 import static org.terracotta.angela.common.TerracottaServerState.STARTED_AS_ACTIVE;
 import static org.terracotta.angela.common.TerracottaServerState.STARTED_AS_PASSIVE;
@@ -85,6 +98,8 @@ public class Tsa implements AutoCloseable {
   private final int ignitePort;
   private final TsaConfigurationContext tsaConfigurationContext;
   private final LocalKitManager localKitManager;
+  // the kits of the upgrades, locked until this is closed
+  private final List<LocalKitManager> upgradeKitManagers = new CopyOnWriteArrayList<>();
   private final PortAllocator portAllocator;
   private boolean closed = false;
 
@@ -131,47 +146,95 @@ public class Tsa implements AutoCloseable {
   private void installAll() {
     Topology topology = tsaConfigurationContext.getTopology();
     ConfigurationManager configurationManager = topology.getConfigurationManager();
-    for (TerracottaServer terracottaServer : configurationManager.getServers()) {
-      install(terracottaServer, topology);
-    }
+    installWithKitManager(configurationManager.getServers(), topology, this.localKitManager);
   }
 
   private void install(TerracottaServer terracottaServer, Topology topology) {
-    installWithKitManager(terracottaServer, topology, this.localKitManager);
-  }
-
-  private void installWithKitManager(TerracottaServer terracottaServer, Topology topology, LocalKitManager localKitManager) {
-    TerracottaServerState terracottaServerState = getState(terracottaServer);
-    if (terracottaServerState != TerracottaServerState.NOT_INSTALLED) {
-      throw new IllegalStateException("Cannot install: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
+    installWithKitManager(Collections.singletonList(terracottaServer), topology, this.localKitManager);
+  }
+
+  /**
+   * Install the given servers host by host: the kit is distributed at most once per host by a {@link KitDistributor},
+   * and all the servers of a host are registered in a single remote call. Hosts are installed concurrently, bounded by
+   * {@link org.terracotta.angela.common.AngelaProperties#TSA_INSTALL_PARALLELISM}.
+   */
+  private void installWithKitManager(List<TerracottaServer> terracottaServers, Topology topology, LocalKitManager localKitManager) {
+    Map<String, List<TerracottaServer>> serversPerHost = terracottaServers.stream()
+        .collect(Collectors.groupingBy(TerracottaServer::getHostname, LinkedHashMap::new, Collectors.toList()));
+    if (serversPerHost.isEmpty()) {
+      return;
     }
-    Distribution distribution = localKitManager.getDistribution();
 
     boolean offline = Boolean.parseBoolean(System.getProperty("offline", "false"));
     License license = tsaConfigurationContext.getLicense();
-
     String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
     localKitManager.setupLocalInstall(license, kitInstallationPath, offline);
 
-    boolean isRemoteInstallationSuccessful;
-    IgniteCallable<Boolean> installTsaCallable = () -> Agent.controller.installTsa(instanceId, terracottaServer,
-        license, localKitManager.getKitInstallationName(), distribution, topology);
-    if (kitInstallationPath == null || Boolean.parseBoolean(SKIP_KIT_INSTALL.getValue())) {
-      logger.info("Attempting to remotely install if distribution already exists on {}", terracottaServer.getHostname());
-      isRemoteInstallationSuccessful = IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, installTsaCallable);
-    } else {
-      isRemoteInstallationSuccessful = false;
+    int parallelism = Math.max(1, Math.min(serversPerHost.size(), Integer.parseInt(TSA_INSTALL_PARALLELISM.getValue())));
+    Distribution distribution = localKitManager.getDistribution();
+    String kitInstallationName = localKitManager.getKitInstallationName();
+
+    Map<String, Boolean> installedHosts = forEachHost(serversPerHost.keySet(), parallelism, hostname -> {
+      List<TerracottaServer> servers = serversPerHost.get(hostname);
+      for (TerracottaServer terracottaServer : servers) {
+        TerracottaServerState terracottaServerState = getState(terracottaServer);
+        if (terracottaServerState != TerracottaServerState.NOT_INSTALLED) {
+          throw new IllegalStateException("Cannot install: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
+        }
+      }
+      if (kitInstallationPath == null || Boolean.parseBoolean(SKIP_KIT_INSTALL.getValue())) {
+        logger.info("Attempting to remotely install if distribution already exists on {}", hostname);
+        return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.installTsa(instanceId, servers,
+            license, kitInstallationName, distribution, topology));
+      }
+      return false;
+    });
+
+    List<String> hostsMissingKit = installedHosts.entrySet().stream()
+        .filter(entry -> !entry.getValue())
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+    if (hostsMissingKit.isEmpty()) {
+      return;
     }
 
-    if (!isRemoteInstallationSuccessful) {
-      try {
-        logger.info("Uploading {} on {}", distribution, terracottaServer.getHostname());
-        IgniteClientHelper.uploadKit(ignite, terracottaServer.getHostname(), ignitePort, instanceId, distribution, localKitManager
-            .getKitInstallationName(), localKitManager.getKitInstallationPath().toFile());
-        IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, installTsaCallable);
-      } catch (Exception e) {
-        throw new RuntimeException("Cannot upload kit to " + terracottaServer.getHostname(), e);
+    new KitDistributor(ignite, ignitePort, instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath().toFile())
+        .distribute(hostsMissingKit, parallelism);
+    forEachHost(hostsMissingKit, parallelism, hostname -> {
+      List<TerracottaServer> servers = serversPerHost.get(hostname);
+      return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.installTsa(instanceId, servers,
+          license, kitInstallationName, distribution, topology));
+    });
+  }
+
+  private <R> Map<String, R> forEachHost(Collection<String> hostnames, int parallelism, Function<String, R> action) {
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, hostnames.size())));
+    try {
+      Map<String, CompletableFuture<R>> futures = new LinkedHashMap<>();
+      for (String hostname : hostnames) {
+        futures.put(hostname, CompletableFuture.supplyAsync(() -> action.apply(hostname), executorService));
+      }
+
+      Map<String, R> results = new LinkedHashMap<>();
+      List<Throwable> exceptions = new ArrayList<>();
+      for (Map.Entry<String, CompletableFuture<R>> entry : futures.entrySet()) {
+        try {
+          results.put(entry.getKey(), entry.getValue().join());
+        } catch (CompletionException e) {
+          exceptions.add(e.getCause());
+        }
+      }
+
+      if (exceptions.size() == 1 && exceptions.get(0) instanceof RuntimeException) {
+        throw (RuntimeException) exceptions.get(0);
+      } else if (!exceptions.isEmpty()) {
+        RuntimeException re = new RuntimeException("Error installing servers on " + hostnames);
+        exceptions.forEach(re::addSuppressed);
+        throw re;
       }
+      return results;
+    } finally {
+      executorService.shutdownNow();
     }
   }
 
@@ -179,7 +242,8 @@ public class Tsa implements AutoCloseable {
     logger.info("Upgrading server {} to {}", server, newDistribution);
     uninstall(server);
     LocalKitManager localKitManager = new LocalKitManager(newDistribution);
-    installWithKitManager(server, tsaConfigurationContext.getTopology(), localKitManager);
+    upgradeKitManagers.add(localKitManager);
+    installWithKitManager(Collections.singletonList(server), tsaConfigurationContext.getTopology(), localKitManager);
     return this;
   }
 
@@ -220,24 +284,33 @@ public class Tsa implements AutoCloseable {
   }
 
   public Tsa create(TerracottaServer terracottaServer, String... startUpArgs) {
+    createServer(terracottaServer, startUpArgs);
+    return this;
+  }
+
+  /**
+   * @return the generation of the created server process, or {@link ServerStateWaiter#ANY_GENERATION} if the server
+   * was already created
+   */
+  private long createServer(TerracottaServer terracottaServer, String... startUpArgs) {
     TerracottaServerState terracottaServerState = getState(terracottaServer);
     switch (terracottaServerState) {
       case STARTING:
       case STARTED_AS_ACTIVE:
       case STARTED_AS_PASSIVE:
       case STARTED_IN_DIAGNOSTIC_MODE:
-        return this;
+        return ServerStateWaiter.ANY_GENERATION;
       case STOPPED:
         logger.info("Creating TC server on {}", terracottaServer.getHostname());
-        IgniteRunnable tsaCreator = () -> {
+        UUID listenerNodeId = ignite.cluster().localNode().id();
+        IgniteCallable<Long> tsaCreator = () -> {
           String whatFor = TsaConfigurationContext.TerracottaCommandLineEnvironmentKeys.SERVER_START_PREFIX + terracottaServer
               .getServerSymbolicName()
               .getSymbolicName();
           TerracottaCommandLineEnvironment cliEnv = tsaConfigurationContext.getTerracottaCommandLineEnvironment(whatFor);
-          Agent.controller.createTsa(instanceId, terracottaServer, cliEnv, Arrays.asList(startUpArgs));
+          return Agent.controller.createTsa(instanceId, terracottaServer, cliEnv, Arrays.asList(startUpArgs), listenerNodeId);
         };
-        IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, tsaCreator);
-        return this;
+        return IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, tsaCreator);
     }
     throw new IllegalStateException("Cannot create: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
   }
@@ -255,23 +328,41 @@ public class Tsa implements AutoCloseable {
 
 
   public Tsa start(TerracottaServer terracottaServer, String... startUpArgs) {
-    create(terracottaServer, startUpArgs);
-    IgniteRunnable runnable = () -> Agent.controller.waitForTsaInState(instanceId, terracottaServer,
-        of(STARTED_AS_ACTIVE, STARTED_AS_PASSIVE, STARTED_IN_DIAGNOSTIC_MODE, START_SUSPENDED));
-    IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, runnable);
+    try (ServerStateWaiter serverStateWaiter = new ServerStateWaiter(ignite, instanceId, terracottaServer)) {
+      long generation = createServer(terracottaServer, startUpArgs);
+      serverStateWaiter.await(generation, of(STARTED_AS_ACTIVE, STARTED_AS_PASSIVE, STARTED_IN_DIAGNOSTIC_MODE, START_SUSPENDED),
+          () -> getState(terracottaServer),
+          () -> IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort,
+              () -> Agent.controller.isTsaAlive(instanceId, terracottaServer)));
+    }
     return this;
   }
 
+  /**
+   * Stop all the servers concurrently, so that it takes a single shutdown grace period.
+   */
   public Tsa stopAll() {
     List<Exception> exceptions = new ArrayList<>();
 
-    Topology topology = tsaConfigurationContext.getTopology();
-    for (TerracottaServer terracottaServer : topology.getServers()) {
-      try {
-        stop(terracottaServer);
-      } catch (Exception e) {
-        exceptions.add(e);
+    List<TerracottaServer> servers = tsaConfigurationContext.getTopology().getServers();
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, servers.size()));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (TerracottaServer terracottaServer : servers) {
+        futures.add(executorService.submit(() -> stop(terracottaServer)));
       }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          exceptions.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while stopping all servers", e);
+    } finally {
+      executorService.shutdownNow();
     }
 
     if (!exceptions.isEmpty()) {
@@ -292,6 +383,19 @@ public class Tsa implements AutoCloseable {
     return this;
   }
 
+  /**
+   * Kill a server and the processes it started straight away, without letting it shut down, e.g. to test failover.
+   */
+  public Tsa crash(TerracottaServer terracottaServer) {
+    TerracottaServerState terracottaServerState = getState(terracottaServer);
+    if (terracottaServerState == STOPPED) {
+      return this;
+    }
+    logger.info("Crashing TC server on {}", terracottaServer.getHostname());
+    IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, () -> Agent.controller.crashTsa(instanceId, terracottaServer));
+    return this;
+  }
+
   public Tsa licenseAll() {
     licenseAll(null, false);
     return this;
@@ -376,37 +480,50 @@ public class Tsa implements AutoCloseable {
         () -> Agent.controller.getTsaState(instanceId, terracottaServer));
   }
 
+  /**
+   * @return a snapshot of the state of every server of the topology, fetched with a single call per host
+   */
+  public Map<TerracottaServer, TerracottaServerState> getStates() {
+    Map<String, List<TerracottaServer>> serversPerHost = tsaConfigurationContext.getTopology().getServers().stream()
+        .collect(Collectors.groupingBy(TerracottaServer::getHostname, LinkedHashMap::new, Collectors.toList()));
+
+    Map<String, IgniteFuture<Map<UUID, TerracottaServerState>>> futures = new LinkedHashMap<>();
+    for (Map.Entry<String, List<TerracottaServer>> entry : serversPerHost.entrySet()) {
+      List<TerracottaServer> servers = entry.getValue();
+      futures.put(entry.getKey(), IgniteClientHelper.executeRemotelyAsync(ignite, entry.getKey(), ignitePort,
+          () -> Agent.controller.getTsaStates(instanceId, servers)));
+    }
+
+    Map<TerracottaServer, TerracottaServerState> states = new LinkedHashMap<>();
+    for (Map.Entry<String, IgniteFuture<Map<UUID, TerracottaServerState>>> entry : futures.entrySet()) {
+      Map<UUID, TerracottaServerState> hostStates = entry.getValue().get();
+      for (TerracottaServer terracottaServer : serversPerHost.get(entry.getKey())) {
+        states.put(terracottaServer, hostStates.get(terracottaServer.getId()));
+      }
+    }
+    return states;
+  }
+
   public Map<ServerSymbolicName, Integer> getProxyGroupPortsForServer(TerracottaServer terracottaServer) {
     return IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort, () -> Agent.controller
         .getProxyGroupPortsForServer(instanceId, terracottaServer));
   }
 
   public Collection<TerracottaServer> getStarted() {
+    Map<TerracottaServer, TerracottaServerState> states = getStates();
     Collection<TerracottaServer> allRunningServers = new ArrayList<>();
-    allRunningServers.addAll(getActives());
-    allRunningServers.addAll(getPassives());
-    allRunningServers.addAll(getDiagnosticModeSevers());
+    allRunningServers.addAll(getServersInState(states, STARTED_AS_ACTIVE));
+    allRunningServers.addAll(getServersInState(states, STARTED_AS_PASSIVE));
+    allRunningServers.addAll(getServersInState(states, STARTED_IN_DIAGNOSTIC_MODE));
     return allRunningServers;
   }
 
   public Collection<TerracottaServer> getStopped() {
-    Collection<TerracottaServer> result = new ArrayList<>();
-    for (TerracottaServer terracottaServer : tsaConfigurationContext.getTopology().getServers()) {
-      if (getState(terracottaServer) == STOPPED) {
-        result.add(terracottaServer);
-      }
-    }
-    return result;
+    return getServersInState(getStates(), STOPPED);
   }
 
   public Collection<TerracottaServer> getPassives() {
-    Collection<TerracottaServer> result = new ArrayList<>();
-    for (TerracottaServer terracottaServer : tsaConfigurationContext.getTopology().getServers()) {
-      if (getState(terracottaServer) == STARTED_AS_PASSIVE) {
-        result.add(terracottaServer);
-      }
-    }
-    return result;
+    return getServersInState(getStates(), STARTED_AS_PASSIVE);
   }
 
   public TerracottaServer getPassive() {
@@ -422,13 +539,7 @@ public class Tsa implements AutoCloseable {
   }
 
   public Collection<TerracottaServer> getActives() {
-    Collection<TerracottaServer> result = new ArrayList<>();
-    for (TerracottaServer terracottaServer : tsaConfigurationContext.getTopology().getServers()) {
-      if (getState(terracottaServer) == STARTED_AS_ACTIVE) {
-        result.add(terracottaServer);
-      }
-    }
-    return result;
+    return getServersInState(getStates(), STARTED_AS_ACTIVE);
   }
 
   public Collection<TerracottaServer> getServer(ServerSymbolicName symbolicName) {
@@ -466,9 +577,14 @@ public class Tsa implements AutoCloseable {
   }
 
   public Collection<TerracottaServer> getDiagnosticModeSevers() {
+    return getServersInState(getStates(), STARTED_IN_DIAGNOSTIC_MODE);
+  }
+
+  private Collection<TerracottaServer> getServersInState(Map<TerracottaServer, TerracottaServerState> states, TerracottaServerState state) {
+    // iterate over the topology to keep its order
     Collection<TerracottaServer> result = new ArrayList<>();
     for (TerracottaServer terracottaServer : tsaConfigurationContext.getTopology().getServers()) {
-      if (getState(terracottaServer) == STARTED_IN_DIAGNOSTIC_MODE) {
+      if (states.get(terracottaServer) == state) {
         result.add(terracottaServer);
       }
     }
@@ -497,6 +613,24 @@ public class Tsa implements AutoCloseable {
     return topology.getDistribution().createDistributionController().tsaUri(topology.getServers(), proxyTsaPorts);
   }
 
+  /**
+   * Search the output of a server on its host, across all the times it was started.
+   *
+   * @param fromMillis the earliest time the lines were logged at, inclusive
+   * @param toMillis the latest time the lines were logged at, inclusive
+   * @param regex a regular expression that must be found in the lines, or null for all of them
+   * @param maxLines the maximum number of lines to return, the earliest ones are returned when there are more
+   * @return the matching lines, in the order they were logged
+   */
+  public List<String> queryLog(TerracottaServer terracottaServer, long fromMillis, long toMillis, String regex, int maxLines) {
+    return IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort,
+        () -> Agent.controller.queryTsaLog(instanceId, terracottaServer, fromMillis, toMillis, regex, maxLines));
+  }
+
+  public List<String> grepLog(TerracottaServer terracottaServer, String regex, int maxLines) {
+    return queryLog(terracottaServer, 0L, Long.MAX_VALUE, regex, maxLines);
+  }
+
   public RemoteFolder browse(TerracottaServer terracottaServer, String root) {
     String path = IgniteClientHelper.executeRemotely(ignite, terracottaServer.getHostname(), ignitePort,
         () -> Agent.controller.getTsaInstallPath(instanceId, terracottaServer));
@@ -812,6 +946,9 @@ public class Tsa implements AutoCloseable {
         logger.error("Error when trying to close traffic controller : {}", e.getMessage());
       }
     }
+
+    localKitManager.close();
+    upgradeKitManagers.forEach(LocalKitManager::close);
   }
 
 }
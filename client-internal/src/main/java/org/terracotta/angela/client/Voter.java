@@ -73,6 +73,16 @@ public class Voter implements AutoCloseable {
     return IgniteClientHelper.executeRemotely(ignite, terracottaVoter.getHostName(), ignitePort, () -> Agent.controller.getVoterState(instanceId, terracottaVoter));
   }
 
+  /**
+   * Search the output of a voter on its host.
+   *
+   * @see Tsa#queryLog(org.terracotta.angela.common.tcconfig.TerracottaServer, long, long, String, int)
+   */
+  public List<String> queryLog(TerracottaVoter terracottaVoter, long fromMillis, long toMillis, String regex, int maxLines) {
+    return IgniteClientHelper.executeRemotely(ignite, terracottaVoter.getHostName(), ignitePort,
+        () -> Agent.controller.queryVoterLog(instanceId, terracottaVoter, fromMillis, toMillis, regex, maxLines));
+  }
+
   public Voter startAll() {
     voterConfigurationContext.getTerracottaVoters().stream()
         .map(voter -> CompletableFuture.runAsync(() -> start(voter)))
@@ -125,6 +135,8 @@ public class Voter implements AutoCloseable {
     if (!Boolean.parseBoolean(SKIP_UNINSTALL.getValue())) {
       uninstallAll();
     }
+
+    localKitManager.close();
   }
 
   private void install(TerracottaVoter terracottaVoter) {
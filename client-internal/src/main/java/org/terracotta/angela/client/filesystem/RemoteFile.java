@@ -24,8 +24,13 @@ import org.terracotta.angela.client.util.IgniteClientHelper;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 public class RemoteFile {
+  private static final int DOWNLOAD_CHUNK_SIZE = 4 * 1024 * 1024;
+
   protected final Ignite ignite;
   protected final String hostname;
   private final int ignitePort;
@@ -56,12 +61,58 @@ public class RemoteFile {
   }
 
   public void downloadTo(File path) throws IOException {
-    byte[] bytes = downloadContents();
     try (FileOutputStream fos = new FileOutputStream(path)) {
-      fos.write(bytes);
+      long offset = 0;
+      while (true) {
+        byte[] bytes = read(offset, DOWNLOAD_CHUNK_SIZE);
+        fos.write(bytes);
+        offset += bytes.length;
+        if (bytes.length < DOWNLOAD_CHUNK_SIZE) {
+          break;
+        }
+      }
     }
   }
 
+  /**
+   * @return the current length of the remote file
+   */
+  public long length() {
+    String filename = getAbsoluteName();
+    return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.getFileLength(filename));
+  }
+
+  /**
+   * Read a range of the remote file, without transferring the rest of it.
+   *
+   * @return at most {@code length} bytes starting at {@code offset}, fewer if the end of the file is reached
+   */
+  public byte[] read(long offset, int length) {
+    String filename = getAbsoluteName();
+    return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.downloadFileRange(filename, offset, length));
+  }
+
+  /**
+   * @return the last {@code length} bytes of the remote file, or all of it if it is shorter
+   */
+  public byte[] tail(int length) {
+    String filename = getAbsoluteName();
+    return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.tailFile(filename, length));
+  }
+
+  /**
+   * @return the last {@code lines} lines of the remote file, decoded as UTF-8
+   */
+  public List<String> tailLines(int lines) {
+    return tailLines(lines, StandardCharsets.UTF_8);
+  }
+
+  public List<String> tailLines(int lines, Charset charset) {
+    String filename = getAbsoluteName();
+    String charsetName = charset.name();
+    return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.tailFileLines(filename, lines, charsetName));
+  }
+
   private byte[] downloadContents() {
     String filename = getAbsoluteName();
     return IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.downloadFile(filename));
@@ -17,24 +17,20 @@
 
 package org.terracotta.angela.client.filesystem;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.IgniteException;
 import org.apache.ignite.lang.IgniteCallable;
 import org.terracotta.angela.agent.Agent;
 import org.terracotta.angela.client.util.IgniteClientHelper;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -65,27 +61,17 @@ public class RemoteFolder extends RemoteFile {
   }
 
   public void upload(File localFile) throws IOException {
+    List<File> files;
     if (localFile.isDirectory()) {
-      uploadFolder(".", localFile);
-    } else {
-      try (FileInputStream fis = new FileInputStream(localFile)) {
-        upload(localFile.getName(), fis);
-      }
-    }
-  }
-
-  private void uploadFolder(String parentName, File folder) throws IOException {
-    File[] files = folder.listFiles();
-    for (File f : files) {
-      String currentName = parentName + "/" + f.getName();
-      if (f.isDirectory()) {
-        uploadFolder(currentName, f);
-      } else {
-        try (FileInputStream fis = new FileInputStream(f)) {
-          upload(currentName, fis);
-        }
+      File[] children = localFile.listFiles();
+      if (children == null) {
+        throw new IOException("Error listing folder " + localFile);
       }
+      files = Arrays.asList(children);
+    } else {
+      files = Collections.singletonList(localFile);
     }
+    IgniteClientHelper.uploadFiles(ignite, hostname, ignitePort, getAbsoluteName(), files);
   }
 
   public void upload(String remoteFilename, URL localResourceUrl) throws IOException {
@@ -95,39 +81,25 @@ public class RemoteFolder extends RemoteFile {
   }
 
   public void upload(String remoteFilename, InputStream localStream) throws IOException {
-    byte[] data = IOUtils.toByteArray(localStream);
-    String filename = getAbsoluteName() + "/" + remoteFilename;
-    IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.uploadFile(filename, data));
+    IgniteClientHelper.uploadStream(ignite, hostname, ignitePort, getAbsoluteName(), remoteFilename, localStream);
   }
 
+  /**
+   * Download the content of the remote folder into a local folder. Only the files received are written to and get
+   * their permissions adjusted, whatever else the local folder contains is left untouched.
+   */
   @Override
   public void downloadTo(File localPath) throws IOException {
-    String foldername = getAbsoluteName();
-    byte[] bytes;
-    try {
-      bytes = IgniteClientHelper.executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.downloadFolder(foldername));
-    } catch (IgniteException ie) {
-      throw new IOException("Error downloading remote folder '" + foldername + "' into local folder '" + localPath + "'", ie);
-    }
-
     localPath.mkdirs();
     if (!localPath.isDirectory()) {
       throw new IllegalArgumentException("Destination path '" + localPath + "' is not a folder or could not be created");
     }
 
-    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bytes))) {
-      while (true) {
-        ZipEntry nextEntry = zis.getNextEntry();
-        if (nextEntry == null) {
-          break;
-        }
-        String name = nextEntry.getName();
-        File file = new File(localPath, name);
-        file.getParentFile().mkdirs();
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-          IOUtils.copy(zis, fos);
-        }
-      }
+    String foldername = getAbsoluteName();
+    try {
+      IgniteClientHelper.downloadFiles(ignite, hostname, ignitePort, foldername, localPath);
+    } catch (IgniteException ie) {
+      throw new IOException("Error downloading remote folder '" + foldername + "' into local folder '" + localPath + "'", ie);
     }
   }
 
@@ -33,6 +33,7 @@ import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
 import org.terracotta.angela.common.util.AngelaVersions;
 import org.terracotta.angela.common.util.JDK;
 import org.terracotta.angela.common.util.JavaLocationResolver;
+import org.terracotta.angela.common.util.SharedArchive;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -56,6 +57,8 @@ import static org.terracotta.angela.common.AngelaProperties.ROOT_DIR;
 import static org.terracotta.angela.common.AngelaProperties.SSH_STRICT_HOST_CHECKING;
 import static org.terracotta.angela.common.AngelaProperties.SSH_USERNAME;
 import static org.terracotta.angela.common.AngelaProperties.SSH_USERNAME_KEY_PATH;
+import static org.terracotta.angela.common.util.SharedArchive.Support.AUTO;
+import static org.terracotta.angela.common.util.SharedArchive.Support.NONE;
 
 public class SshRemoteAgentLauncher implements RemoteAgentLauncher {
 
@@ -142,10 +145,20 @@ public class SshRemoteAgentLauncher implements RemoteAgentLauncher {
       LOGGER.info("looking up remote JDK ...");
       String remoteJavaHome = findJavaHomeFromRemoteToolchains(ssh);
 
+      // only JVMs creating their own archive are supported, as the agent is not stopped in a way that lets us
+      // publish an archive dumped at exit
+      Path cdsDir = baseDir.resolve("cds");
+      SharedArchive.Support cdsSupport = exec(ssh, SharedArchive.autoSupportProbeCommand(remoteJavaHome)) == 0 ? AUTO : NONE;
+      if (cdsSupport == AUTO) {
+        exec(ssh, "mkdir -p " + cdsDir.toString());
+      }
+      SharedArchive sharedArchive = SharedArchive.create(cdsSupport, cdsDir, remoteJavaHome, agentJarFile.getName());
+
       Session session = ssh.startSession();
       session.allocateDefaultPTY();
       LOGGER.info("starting agent");
       Session.Command cmd = session.exec(remoteJavaHome + "/bin/java " +
+          String.join(" ", sharedArchive.getJvmOptions()) + " " +
           "-D" + NODE_NAME.getPropertyName() + "=" + nodeName + " " +
           "-Dignite.discovery.port=" + igniteDiscoveryPort + " " +
           "-Dignite.com.port=" + igniteComPort + " " +
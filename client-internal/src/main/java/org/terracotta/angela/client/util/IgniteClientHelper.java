@@ -27,27 +27,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.Agent;
 import org.terracotta.angela.agent.client.RemoteClientManager;
-import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.util.AngelaVersion;
-import org.terracotta.angela.common.util.FileMetadata;
+import org.terracotta.angela.common.util.FileManifest;
+import org.terracotta.angela.common.util.FileTransfer;
 import org.terracotta.angela.common.util.IgniteCommonHelper;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import static org.terracotta.angela.common.AngelaProperties.TRANSFER_PARALLELISM;
+
 public class IgniteClientHelper {
 
   private final static Logger logger = LoggerFactory.getLogger(IgniteClientHelper.class);
 
+  private static final long PARALLEL_UPLOAD_THRESHOLD = 16 * 1024 * 1024;
+
   public static void executeRemotely(Ignite ignite, String hostname, int ignitePort, IgniteRunnable job) {
     executeRemotelyAsync(ignite, hostname, ignitePort, job).get();
   }
@@ -100,78 +111,199 @@ public class IgniteClientHelper {
     return nodeName + ":" + ignitePort;
   }
 
+  /**
+   * Upload the kit files that the agent does not already have in its content store.
+   */
   public static void uploadKit(Ignite ignite, String hostname, int ignitePort, InstanceId instanceId, Distribution distribution,
-                               String kitInstallationName, File kitInstallationPath) throws IOException, InterruptedException {
-    IgniteFuture<Void> remoteDownloadFuture = executeRemotelyAsync(
-        ignite,
-        hostname,
-        ignitePort,
-        () -> {
-          RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
-          File installDir = remoteKitManager.getKitInstallationPath().getParent().toFile();
-          Agent.controller.downloadFiles(instanceId, installDir);
-        }
-    );
+                               String kitInstallationName, File kitInstallationPath) throws IOException {
+    FileManifest manifest = FileManifest.of(kitInstallationPath.toPath());
+    List<String> missingFiles = prepareKitUpload(ignite, hostname, ignitePort, instanceId, distribution, kitInstallationName, manifest);
+    if (missingFiles.isEmpty()) {
+      return;
+    }
 
-    uploadFiles(ignite, instanceId, Collections.singletonList(kitInstallationPath), remoteDownloadFuture);
+    logger.info("Uploading {} of {} kit file(s) to {}", missingFiles.size(), manifest.getFiles().size(), hostname);
+    Map<String, File> entries = new LinkedHashMap<>();
+    for (String missingFile : missingFiles) {
+      entries.put(kitInstallationName + "/" + missingFile, new File(kitInstallationPath, missingFile));
+    }
+    uploadEntries(ignite, hostname, ignitePort,
+        () -> Agent.controller.openKitTransfer(instanceId, distribution, kitInstallationName, manifest), entries);
   }
 
-  public static void uploadClientJars(Ignite ignite, String hostname, int ignitePort, InstanceId instanceId, List<File> filesToUpload) throws IOException, InterruptedException {
-    IgniteFuture<Void> remoteDownloadFuture = executeRemotelyAsync(ignite, hostname,
-        ignitePort, () -> Agent.controller.downloadFiles(instanceId, new RemoteClientManager(instanceId).getClientClasspathRoot()));
+  /**
+   * Have the agent of {@code sourceHostname}, which already holds the kit, send to the agent of {@code hostname}
+   * the kit files it does not already have.
+   */
+  public static void relayKit(Ignite ignite, String sourceHostname, String hostname, int ignitePort, InstanceId instanceId,
+                              Distribution distribution, String kitInstallationName, File kitInstallationPath) {
+    FileManifest manifest = FileManifest.of(kitInstallationPath.toPath());
+    List<String> missingFiles = prepareKitUpload(ignite, hostname, ignitePort, instanceId, distribution, kitInstallationName, manifest);
+    if (missingFiles.isEmpty()) {
+      return;
+    }
 
-    uploadFiles(ignite, instanceId, filesToUpload, remoteDownloadFuture);
+    logger.info("Relaying {} of {} kit file(s) from {} to {}", missingFiles.size(), manifest.getFiles().size(), sourceHostname, hostname);
+    int port = executeRemotely(ignite, hostname, ignitePort,
+        () -> Agent.controller.openKitTransfer(instanceId, distribution, kitInstallationName, manifest));
+    int compressionLevel = FileTransfer.compressionLevel();
+    executeRemotely(ignite, sourceHostname, ignitePort, () -> Agent.controller.relayKitFiles(instanceId, distribution,
+        kitInstallationName, manifest, missingFiles, hostname, port, compressionLevel));
   }
 
-  private static void uploadFiles(Ignite ignite, InstanceId instanceId, List<File> files, IgniteFuture<Void> remoteDownloadFuture) throws InterruptedException, IOException {
-    try {
-      BlockingQueue<Object> queue = IgniteCommonHelper.fileTransferQueue(ignite, instanceId);
-      for (File file : files) {
-        uploadFile(remoteDownloadFuture, queue, file, null);
+  private static List<String> prepareKitUpload(Ignite ignite, String hostname, int ignitePort, InstanceId instanceId, Distribution distribution,
+                                               String kitInstallationName, FileManifest manifest) {
+    List<String> missingFiles = executeRemotely(ignite, hostname, ignitePort,
+        () -> Agent.controller.prepareKitUpload(instanceId, distribution, kitInstallationName, manifest));
+    if (missingFiles.isEmpty()) {
+      logger.info("All {} kit file(s) are already available on {}", manifest.getFiles().size(), hostname);
+    }
+    return missingFiles;
+  }
+
+  /**
+   * Upload the classpath of a client. Jars go through the agent's jar cache, so only the ones the agent has never
+   * seen are transferred; folders, like the classes of the project being tested, are always uploaded.
+   */
+  public static void uploadClientJars(Ignite ignite, String hostname, int ignitePort, InstanceId instanceId, List<File> filesToUpload) throws IOException {
+    Map<String, File> jars = new LinkedHashMap<>();
+    List<File> otherFiles = new ArrayList<>();
+    for (File file : filesToUpload) {
+      if (file.isFile()) {
+        jars.putIfAbsent(FileManifest.hash(file.toPath()), file);
+      } else {
+        otherFiles.add(file);
       }
-      queue.put(Boolean.TRUE); // end of upload marker
-    } finally {
-      remoteDownloadFuture.get();
+    }
+
+    List<String> jarHashes = new ArrayList<>(jars.keySet());
+    List<String> missingJars = executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.prepareClientJars(instanceId, jarHashes));
+    logger.info("Uploading {} of {} client jar(s) to {}", missingJars.size(), jars.size(), hostname);
+    if (!missingJars.isEmpty()) {
+      Map<String, File> entries = new LinkedHashMap<>();
+      for (String hash : missingJars) {
+        File jar = jars.get(hash);
+        entries.put(hash + "/" + jar.getName(), jar);
+      }
+      uploadEntries(ignite, hostname, ignitePort, () -> Agent.controller.openClientJarTransfer(), entries);
+    }
+
+    if (!otherFiles.isEmpty()) {
+      IgniteCallable<Integer> openTransfer = () -> Agent.controller.openFileTransfer(new RemoteClientManager(instanceId).getClientClasspathRoot());
+      uploadFiles(ignite, hostname, ignitePort, openTransfer, otherFiles);
     }
   }
 
-  private static void uploadFile(IgniteFuture<Void> remoteDownloadFuture, BlockingQueue<Object> queue, File file, String path) throws InterruptedException, IOException {
-    if (remoteDownloadFuture.isDone()) {
-      throw new RuntimeException("Download process failed, cancelling upload");
+  /**
+   * Upload files and folders into a remote folder, creating it if needed.
+   */
+  public static void uploadFiles(Ignite ignite, String hostname, int ignitePort, String remoteFolder, List<File> filesToUpload) throws IOException {
+    IgniteCallable<Integer> openTransfer = () -> Agent.controller.openFileTransfer(new File(remoteFolder));
+
+    uploadFiles(ignite, hostname, ignitePort, openTransfer, filesToUpload);
+  }
+
+  /**
+   * Download the content of a remote folder into a local folder, streaming the files to disk as they arrive.
+   */
+  public static void downloadFiles(Ignite ignite, String hostname, int ignitePort, String remoteFolder, File localFolder) throws IOException {
+    int compressionLevel = FileTransfer.compressionLevel();
+    int port = executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.openFolderDownload(remoteFolder, compressionLevel));
+    logger.debug("Downloading {} from {}:{}", remoteFolder, hostname, port);
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port))) {
+      FileTransfer.receive(channel, localFolder.toPath());
     }
-    FileMetadata fileMetadata = new FileMetadata(path, file);
+  }
+
+  /**
+   * Upload the content of a stream into a remote file, without buffering it.
+   *
+   * @param remoteFilename the path of the file relative to {@code remoteFolder}
+   */
+  public static void uploadStream(Ignite ignite, String hostname, int ignitePort, String remoteFolder, String remoteFilename, InputStream inputStream) throws IOException {
+    int port = executeRemotely(ignite, hostname, ignitePort, () -> Agent.controller.openFileTransfer(new File(remoteFolder)));
+    logger.debug("Uploading stream to {}/{} on {}:{}", remoteFolder, remoteFilename, hostname, port);
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port))) {
+      FileTransfer.send(channel, remoteFilename, inputStream, FileTransfer.compressionLevel());
+    }
+  }
+
+  private static void uploadFiles(Ignite ignite, String hostname, int ignitePort, IgniteCallable<Integer> openTransfer, List<File> files) throws IOException {
+    Map<String, File> entries = new LinkedHashMap<>();
+    for (File file : files) {
+      collectEntries(file, file.getName(), entries);
+    }
+    uploadEntries(ignite, hostname, ignitePort, openTransfer, entries);
+  }
+
+  private static void collectEntries(File file, String relativePath, Map<String, File> entries) throws IOException {
     if (!file.exists()) {
-      logger.debug("skipping upload of non-existent classpath entry {}", fileMetadata);
+      logger.debug("skipping upload of non-existent file {}", file);
       return;
     }
-    queue.put(fileMetadata);
-    logger.debug("uploading {}", fileMetadata);
-
+    entries.put(relativePath, file);
     if (file.isDirectory()) {
-      File[] files = file.listFiles();
-      for (File _file : files) {
-        String parentPath = path == null ? "" : path + "/";
-        uploadFile(remoteDownloadFuture, queue, _file, parentPath + file.getName());
+      File[] children = file.listFiles();
+      if (children == null) {
+        throw new IOException("Error listing folder " + file);
+      }
+      for (File child : children) {
+        collectEntries(child, relativePath + "/" + child.getName(), entries);
+      }
+    }
+  }
+
+  /**
+   * Large uploads are split across several connections which are transferred concurrently, each one opened with
+   * {@code openTransfer}.
+   */
+  private static void uploadEntries(Ignite ignite, String hostname, int ignitePort, IgniteCallable<Integer> openTransfer, Map<String, File> entries) throws IOException {
+    int parallelism = Integer.parseInt(TRANSFER_PARALLELISM.getValue());
+    List<Map<String, File>> partitions = FileTransfer.partition(entries, parallelism, PARALLEL_UPLOAD_THRESHOLD);
+    if (partitions.size() == 1) {
+      uploadEntries(ignite, hostname, ignitePort, openTransfer, partitions.get(0), 1, 1);
+      return;
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(partitions.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < partitions.size(); i++) {
+        Map<String, File> partition = partitions.get(i);
+        int index = i + 1;
+        futures.add(executorService.submit(() -> {
+          uploadEntries(ignite, hostname, ignitePort, openTransfer, partition, index, partitions.size());
+          return null;
+        }));
       }
-    } else {
-      byte[] buffer = new byte[64 * 1024];
-      try (FileInputStream fis = new FileInputStream(file)) {
-        while (true) {
-          int read = fis.read(buffer);
-          if (read < 0) {
-            break;
-          }
-          byte[] toSend;
-          if (read != buffer.length) {
-            toSend = new byte[read];
-            System.arraycopy(buffer, 0, toSend, 0, read);
-          } else {
-            toSend = buffer;
-          }
-          queue.put(toSend);
+
+      List<Throwable> exceptions = new ArrayList<>();
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          exceptions.add(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while uploading files to " + hostname);
         }
       }
-      logger.debug("uploaded {}", fileMetadata);
+      if (!exceptions.isEmpty()) {
+        IOException ioe = new IOException("Error uploading files to " + hostname);
+        exceptions.forEach(ioe::addSuppressed);
+        throw ioe;
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static void uploadEntries(Ignite ignite, String hostname, int ignitePort, IgniteCallable<Integer> openTransfer, Map<String, File> entries,
+                                    int index, int count) throws IOException {
+    int port = executeRemotely(ignite, hostname, ignitePort, openTransfer);
+    logger.debug("Uploading {} file(s) to {}:{} ({}/{})", entries.size(), hostname, port, index, count);
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostname, port))) {
+      FileTransfer.send(channel, entries, FileTransfer.compressionLevel());
     }
   }
 
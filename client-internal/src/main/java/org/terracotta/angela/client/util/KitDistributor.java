@@ -0,0 +1,177 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.client.util;
+
+import org.apache.ignite.Ignite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.distribution.Distribution;
+import org.terracotta.angela.common.topology.InstanceId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.terracotta.angela.common.AngelaProperties.KIT_DISTRIBUTION;
+
+/**
+ * Distributes a kit to a set of hosts, according to {@link org.terracotta.angela.common.AngelaProperties#KIT_DISTRIBUTION}:
+ * <ul>
+ *   <li>{@code direct}: the orchestrator uploads the kit to every host</li>
+ *   <li>{@code tree}: the orchestrator uploads the kit to a single host, then every host holding the kit relays it
+ *   to another one as soon as it is done with the previous one. The number of hosts holding the kit doubles at each
+ *   round, so distributing it takes log2(hosts) rounds instead of hosts / parallelism.</li>
+ * </ul>
+ * A failed relay falls back to a direct upload from the orchestrator.
+ */
+public class KitDistributor {
+  private final static Logger logger = LoggerFactory.getLogger(KitDistributor.class);
+
+  public enum Mode {
+    DIRECT, TREE
+  }
+
+  /**
+   * Sends the kit to a host, either from the orchestrator or from a host already holding it.
+   */
+  interface Sender {
+    void relay(String source, String target) throws Exception;
+
+    void upload(String target) throws Exception;
+  }
+
+  private final Distribution distribution;
+  private final Sender sender;
+
+  public KitDistributor(Ignite ignite, int ignitePort, InstanceId instanceId, Distribution distribution, String kitInstallationName, File kitInstallationPath) {
+    this(distribution, new Sender() {
+      @Override
+      public void relay(String source, String target) {
+        IgniteClientHelper.relayKit(ignite, source, target, ignitePort, instanceId, distribution, kitInstallationName, kitInstallationPath);
+      }
+
+      @Override
+      public void upload(String target) throws IOException {
+        IgniteClientHelper.uploadKit(ignite, target, ignitePort, instanceId, distribution, kitInstallationName, kitInstallationPath);
+      }
+    });
+  }
+
+  KitDistributor(Distribution distribution, Sender sender) {
+    this.distribution = distribution;
+    this.sender = sender;
+  }
+
+  public static Mode configuredMode() {
+    String value = KIT_DISTRIBUTION.getValue();
+    try {
+      return Mode.valueOf(value.toUpperCase());
+    } catch (IllegalArgumentException iae) {
+      throw new IllegalArgumentException("Invalid value for " + KIT_DISTRIBUTION.getPropertyName() + ": " + value + ", expected one of direct, tree", iae);
+    }
+  }
+
+  public void distribute(Collection<String> hostnames, int parallelism) {
+    distribute(hostnames, parallelism, configuredMode());
+  }
+
+  public void distribute(Collection<String> hostnames, int parallelism, Mode mode) {
+    if (hostnames.isEmpty()) {
+      return;
+    }
+    logger.info("Distributing {} to {} in {} mode", distribution, hostnames, mode);
+
+    Queue<String> pending = new ConcurrentLinkedQueue<>(hostnames);
+    CountDownLatch done = new CountDownLatch(hostnames.size());
+    List<RuntimeException> exceptions = Collections.synchronizedList(new ArrayList<>());
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, hostnames.size())));
+    try {
+      if (mode == Mode.DIRECT) {
+        for (int i = 0; i < hostnames.size(); i++) {
+          sendToNext(null, mode, pending, done, exceptions, executorService);
+        }
+      } else {
+        sendToNext(null, mode, pending, done, exceptions, executorService);
+      }
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while distributing kit to " + hostnames, e);
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    if (exceptions.size() == 1) {
+      throw exceptions.get(0);
+    } else if (!exceptions.isEmpty()) {
+      RuntimeException re = new RuntimeException("Error distributing kit to " + hostnames);
+      exceptions.forEach(re::addSuppressed);
+      throw re;
+    }
+  }
+
+  /**
+   * @param source the host sending the kit, null for the orchestrator
+   */
+  private void sendToNext(String source, Mode mode, Queue<String> pending, CountDownLatch done, List<RuntimeException> exceptions, ExecutorService executorService) {
+    String target = pending.poll();
+    if (target == null) {
+      return;
+    }
+    executorService.execute(() -> {
+      try {
+        boolean received = send(source, target, exceptions);
+        if (mode == Mode.TREE) {
+          if (received) {
+            sendToNext(target, mode, pending, done, exceptions, executorService);
+          }
+          sendToNext(source, mode, pending, done, exceptions, executorService);
+        }
+      } finally {
+        done.countDown();
+      }
+    });
+  }
+
+  private boolean send(String source, String target, List<RuntimeException> exceptions) {
+    if (source != null) {
+      try {
+        sender.relay(source, target);
+        return true;
+      } catch (Exception e) {
+        logger.warn("Relaying kit from {} to {} failed, uploading it directly", source, target, e);
+      }
+    }
+    try {
+      logger.info("Uploading {} on {}", distribution, target);
+      sender.upload(target);
+      return true;
+    } catch (Exception e) {
+      exceptions.add(new RuntimeException("Cannot upload kit to " + target, e));
+      return false;
+    }
+  }
+}
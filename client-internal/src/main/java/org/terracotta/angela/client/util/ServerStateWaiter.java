@@ -0,0 +1,117 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.client.util;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.lang.IgniteBiPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.TerracottaServerState;
+import org.terracotta.angela.common.TerracottaServerStateEvent;
+import org.terracotta.angela.common.tcconfig.TerracottaServer;
+import org.terracotta.angela.common.topology.InstanceId;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.terracotta.angela.common.TerracottaServerState.STOPPED;
+
+/**
+ * Waits for a server to reach a state by listening to the {@link TerracottaServerStateEvent}s published by its agent,
+ * so that no thread of the agent is blocked while the server starts.
+ * <p>
+ * The waiter must be created before the action changing the state of the server, so that no event is missed.
+ * Only the events of the awaited server process are considered, the ones still in flight from a previous process of
+ * the same server being ignored. The current state is queried once when starting to wait, then again every
+ * {@link #RECHECK_INTERVAL_SECONDS} in case an event got lost, together with the liveness of the server process.
+ * <p>
+ * A STOPPED state does not mean the process is gone, since the log triggers of the distributions also report it
+ * while the server shuts down, so the liveness of the process is checked before giving up.
+ */
+public class ServerStateWaiter implements AutoCloseable {
+  private final static Logger logger = LoggerFactory.getLogger(ServerStateWaiter.class);
+
+  public static final long ANY_GENERATION = -1L;
+  private static final long RECHECK_INTERVAL_SECONDS = 10;
+
+  private final Ignite ignite;
+  private final TerracottaServer terracottaServer;
+  private final BlockingQueue<TerracottaServerStateEvent> events = new LinkedBlockingQueue<>();
+  private final IgniteBiPredicate<UUID, Object> listener;
+
+  public ServerStateWaiter(Ignite ignite, InstanceId instanceId, TerracottaServer terracottaServer) {
+    this.ignite = ignite;
+    this.terracottaServer = terracottaServer;
+    this.listener = (nodeId, message) -> {
+      TerracottaServerStateEvent event = (TerracottaServerStateEvent) message;
+      if (event.getInstanceId().equals(instanceId) && event.getServerSymbolicName().equals(terracottaServer.getServerSymbolicName())) {
+        events.add(event);
+      }
+      return true;
+    };
+    ignite.message().localListen(TerracottaServerStateEvent.TOPIC, listener);
+  }
+
+  /**
+   * @param generation   the generation of the awaited server process, or {@link #ANY_GENERATION}
+   * @param currentState queries the current state of the server from its agent
+   * @param alive        queries whether the server process is still running from its agent
+   * @throws RuntimeException if the server process stops before reaching one of the wanted states
+   */
+  public void await(long generation, Set<TerracottaServerState> wanted, Supplier<TerracottaServerState> currentState, BooleanSupplier alive) {
+    TerracottaServerState state = currentState.get();
+    try {
+      while (!wanted.contains(state)) {
+        TerracottaServerStateEvent event = events.poll(RECHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (event == null) {
+          state = currentState.get();
+          logger.debug("No state event from {} for {}s, its state is {}", terracottaServer.getServerSymbolicName(), RECHECK_INTERVAL_SECONDS, state);
+          if (!wanted.contains(state) && !alive.getAsBoolean()) {
+            throw died(state, wanted);
+          }
+        } else if (generation != ANY_GENERATION && event.getGeneration() != generation) {
+          logger.debug("Ignoring {}, awaiting generation {}", event, generation);
+        } else {
+          state = event.getState();
+          if (state == STOPPED && !wanted.contains(STOPPED) && !alive.getAsBoolean()) {
+            throw died(state, wanted);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for " + terracottaServer.getServerSymbolicName() + " to reach one of the states: " + wanted, e);
+    }
+  }
+
+  private RuntimeException died(TerracottaServerState state, Set<TerracottaServerState> wanted) {
+    return new RuntimeException("The Terracotta server " + terracottaServer.getServerSymbolicName() + " was in state " + state +
+                                " and was expected to reach one of the states: " + wanted + " but died before reaching it.");
+  }
+
+  @Override
+  public void close() {
+    ignite.message().stopLocalListen(TerracottaServerStateEvent.TOPIC, listener);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.client.util;
+
+import org.junit.Test;
+import org.terracotta.angela.client.util.KitDistributor.Mode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class KitDistributorTest {
+
+  @Test
+  public void testTreeDistributionDoublesTheHoldersEachRound() {
+    StubSender sender = new StubSender(emptySet(), emptySet());
+    List<String> hosts = hosts(15);
+
+    new KitDistributor(null, sender).distribute(hosts, hosts.size(), Mode.TREE);
+
+    sender.assertEveryHostReceivedOnce(hosts);
+    // 1, 2, 4 then 8 holders, counting the orchestrator
+    assertThat(sender.rounds(), is(4));
+  }
+
+  @Test
+  public void testDistributionStaysWithinTheParallelism() {
+    for (Mode mode : Mode.values()) {
+      StubSender sender = new StubSender(emptySet(), emptySet());
+      List<String> hosts = hosts(20);
+
+      new KitDistributor(null, sender).distribute(hosts, 3, mode);
+
+      sender.assertEveryHostReceivedOnce(hosts);
+      assertThat(sender.maxInFlight(), lessThanOrEqualTo(3));
+    }
+  }
+
+  @Test
+  public void testFailedRelaysFallBackToDirectUploads() {
+    List<String> hosts = hosts(10);
+    StubSender sender = new StubSender(new HashSet<>(hosts.subList(0, 5)), emptySet());
+
+    new KitDistributor(null, sender).distribute(hosts, 4, Mode.TREE);
+
+    sender.assertEveryHostReceivedOnce(hosts);
+    assertThat(sender.maxInFlight(), lessThanOrEqualTo(4));
+    for (String host : hosts.subList(0, 5)) {
+      assertThat(sender.uploaded.contains(host), is(true));
+    }
+  }
+
+  @Test
+  public void testFailedUploadKeepsTheChainGoing() {
+    List<String> hosts = hosts(10);
+    StubSender sender = new StubSender(emptySet(), singleton("host-0"));
+
+    try {
+      new KitDistributor(null, sender).distribute(hosts, 4, Mode.TREE);
+      fail("expected RuntimeException");
+    } catch (RuntimeException re) {
+      assertThat(re.getMessage(), is("Cannot upload kit to host-0"));
+    }
+
+    // the first host never got the kit, so it relayed it to nobody, but the others still got it
+    sender.assertEveryHostReceivedOnce(hosts.subList(1, hosts.size()));
+    assertThat(sender.received.containsKey("host-0"), is(false));
+    assertThat(sender.sources.contains("host-0"), is(false));
+  }
+
+  @Test
+  public void testErrorsAreAggregated() {
+    List<String> hosts = hosts(10);
+    // every relay fails, so every host is uploaded to
+    StubSender sender = new StubSender(new HashSet<>(hosts), new HashSet<>(asList("host-3", "host-7")));
+
+    try {
+      new KitDistributor(null, sender).distribute(hosts, 4, Mode.TREE);
+      fail("expected RuntimeException");
+    } catch (RuntimeException re) {
+      assertThat(re.getMessage(), is("Error distributing kit to " + hosts));
+      assertThat(re.getSuppressed().length, is(2));
+    }
+
+    List<String> received = new ArrayList<>(hosts);
+    received.removeAll(asList("host-3", "host-7"));
+    sender.assertEveryHostReceivedOnce(received);
+  }
+
+  private static List<String> hosts(int count) {
+    List<String> hosts = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      hosts.add("host-" + i);
+    }
+    return hosts;
+  }
+
+  /**
+   * Records who sent the kit to whom, and numbers the rounds: a host sends the kit one round after it got it, or after
+   * its previous send. The orchestrator is the null source.
+   */
+  private static class StubSender implements KitDistributor.Sender {
+    private final Set<String> failingRelayTargets;
+    private final Set<String> failingUploadTargets;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    // guarded by this
+    private final Map<String, Integer> received = new HashMap<>();
+    private final Map<String, Integer> clocks = new HashMap<>();
+    private final Set<String> sources = new HashSet<>();
+    private final Set<String> uploaded = new HashSet<>();
+    private final List<String> errors = new ArrayList<>();
+
+    StubSender(Set<String> failingRelayTargets, Set<String> failingUploadTargets) {
+      this.failingRelayTargets = failingRelayTargets;
+      this.failingUploadTargets = failingUploadTargets;
+    }
+
+    @Override
+    public void relay(String source, String target) {
+      send(source, target, failingRelayTargets.contains(target) ? new RuntimeException("relay to " + target + " failed") : null);
+    }
+
+    @Override
+    public void upload(String target) throws IOException {
+      IOException failure = failingUploadTargets.contains(target) ? new IOException("upload to " + target + " failed") : null;
+      if (failure == null) {
+        synchronized (this) {
+          uploaded.add(target);
+        }
+      }
+      try {
+        send(null, target, failure);
+      } catch (RuntimeException re) {
+        throw (IOException) re.getCause();
+      }
+    }
+
+    private void send(String source, String target, Exception failure) {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        synchronized (this) {
+          if (source != null && !received.containsKey(source)) {
+            errors.add(source + " relayed the kit before getting it");
+          }
+          sources.add(source);
+        }
+        Thread.sleep(20);
+        synchronized (this) {
+          int round = clocks.getOrDefault(source, 0) + 1;
+          clocks.put(source, round);
+          if (failure != null) {
+            throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+          }
+          clocks.put(target, round);
+          received.merge(target, 1, Integer::sum);
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    }
+
+    synchronized void assertEveryHostReceivedOnce(Collection<String> hosts) {
+      assertThat(errors.isEmpty(), is(true));
+      for (String host : hosts) {
+        assertThat(host, received.get(host), is(1));
+      }
+      assertThat(received.size(), is(hosts.size()));
+    }
+
+    synchronized int rounds() {
+      return clocks.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    int maxInFlight() {
+      return maxInFlight.get();
+    }
+  }
+}
@@ -34,17 +34,33 @@ public enum AngelaProperties {
   IGNITE_LOGGING("angela.igniteLogging", "false"),
   NODE_NAME("angela.nodeName", IpUtils.getHostName()),
   SKIP_KIT_COPY_LOCALHOST("angela.skipKitCopyLocalhost", "true"),
+  KIT_INSTALL_MODE("angela.kitInstallMode", "copy"),
   SKIP_UNINSTALL("angela.skipUninstall", "false"),
   SSH_USERNAME("angela.ssh.userName", System.getProperty("user.name")),
   SSH_USERNAME_KEY_PATH("angela.ssh.userName.keyPath", null),
   SSH_STRICT_HOST_CHECKING("angela.ssh.strictHostKeyChecking", "true"),
   TMS_FULL_LOGGING("angela.tms.fullLogging", "false"),
   TSA_FULL_LOGGING("angela.tsa.fullLogging", "false"),
+  TSA_INSTALL_PARALLELISM("angela.tsa.installParallelism", "8"),
+  CLIENT_SPAWN_PARALLELISM("angela.clientArray.spawnParallelism", "8"),
+  KIT_DISTRIBUTION("angela.kitDistribution", "direct"),
+  KIT_DOWNLOAD_PARALLELISM("angela.kitDownload.parallelism", "4"),
+  KIT_STORE_RETENTION_DAYS("angela.kitStore.retentionDays", "30"),
+  CLASS_DATA_SHARING("angela.classDataSharing", "true"),
+  CLIENT_POOL_SIZE("angela.clientPool.size", "0"),
+  POOLED_CLIENT("angela.clientPool.pooled", "false"),
   VOTER_FULL_LOGGING("angela.voter.fullLogging", "false"),
+  LOG_FORWARDING_CAPACITY("angela.logForwarding.capacity", "10000"),
+  LOG_FORWARDING_POLICY("angela.logForwarding.policy", "drop"),
+  PROCESS_LOG_SEGMENT_SIZE("angela.processLog.segmentSize", "16777216"),
+  PROCESS_LOG_MAX_SEGMENTS("angela.processLog.maxSegments", "8"),
+  PROCESS_TERMINATION_GRACE_PERIOD("angela.processTermination.gracePeriodMillis", "30000"),
   JAVA_VENDOR("angela.java.vendor", "zulu"),
   JAVA_VERSION("angela.java.version", "1.8"),
   JAVA_OPTS("angela.java.opts", "-Djdk.security.allowNonCaAnchor=false"),
   DISTRIBUTION("angela.distribution", null),
+  TRANSFER_COMPRESSION_LEVEL("angela.transfer.compressionLevel", "0"),
+  TRANSFER_PARALLELISM("angela.transfer.parallelism", "4"),
 
   // Deprecated properties
   KITS_DIR("kitsDir", Paths.get("/data/angela").toAbsolutePath().toString()),
@@ -28,10 +28,14 @@ import org.terracotta.angela.common.tcconfig.SecurityRootDirectory;
 import org.terracotta.angela.common.tcconfig.ServerSymbolicName;
 import org.terracotta.angela.common.tcconfig.TerracottaServer;
 import org.terracotta.angela.common.topology.Topology;
-import org.zeroturnaround.process.Processes;
+import org.terracotta.angela.common.util.ObservableReference;
+import org.terracotta.angela.common.util.ProcessLogStore;
+import org.terracotta.angela.common.util.ProcessReaper;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,7 +45,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Terracotta server instance
@@ -49,6 +54,10 @@ import java.util.concurrent.atomic.AtomicReference;
  * @author Aurelien Broszniowski
  */
 public class TerracottaServerInstance implements Closeable {
+  public static final String PROCESS_LOGS_DIR_NAME = "process-logs";
+  // unique in the JVM, so that a reinstalled server does not reuse the generations of the previous install
+  private static final AtomicLong GENERATIONS = new AtomicLong();
+
   private static final DisruptionProvider DISRUPTION_PROVIDER = DisruptionProviderFactory.getDefault();
   private final Map<ServerSymbolicName, Disruptor> disruptionLinks = new ConcurrentHashMap<>();
   private final Map<ServerSymbolicName, Integer> proxiedPorts = new HashMap<>();
@@ -60,6 +69,7 @@ public class TerracottaServerInstance implements Closeable {
   private final PortAllocator portAllocator;
   private final File licenseFileLocation;
   private volatile TerracottaServerInstanceProcess terracottaServerInstanceProcess;
+  private volatile ProcessLogStore logStore;
   private final boolean netDisruptionEnabled;
   private final Topology topology;
 
@@ -93,8 +103,26 @@ public class TerracottaServerInstance implements Closeable {
     return distribution;
   }
 
-  public void create(TerracottaCommandLineEnvironment env, List<String> startUpArgs) {
-    this.terracottaServerInstanceProcess = this.distributionController.createTsa(terracottaServer, kitDir, workingDir, topology, proxiedPorts, env, startUpArgs);
+  /**
+   * @param stateListener told about every update of the state of the created server process, together with the
+   *                      generation of the process, or null
+   * @return the generation of the created server process
+   */
+  public long create(TerracottaCommandLineEnvironment env, List<String> startUpArgs, ObjLongConsumer<TerracottaServerState> stateListener) {
+    if (logStore == null) {
+      logStore = new ProcessLogStore(new File(workingDir, PROCESS_LOGS_DIR_NAME + File.separator + terracottaServer.getServerSymbolicName().getSymbolicName()).toPath());
+    } else {
+      // the last line of the previous process may not have been terminated
+      logStore.flush();
+    }
+    // the listener is registered before the process starts, so that it cannot miss the process dying early
+    long generation = GENERATIONS.incrementAndGet();
+    ObservableReference<TerracottaServerState> stateRef = new ObservableReference<>(TerracottaServerState.STOPPED);
+    if (stateListener != null) {
+      stateRef.addListener(state -> stateListener.accept(state, generation));
+    }
+    this.terracottaServerInstanceProcess = this.distributionController.createTsa(terracottaServer, kitDir, workingDir, topology, proxiedPorts, env, startUpArgs, logStore, stateRef);
+    return generation;
   }
 
   public void disrupt(Collection<TerracottaServer> targets) {
@@ -119,9 +147,24 @@ public class TerracottaServerInstance implements Closeable {
     this.distributionController.stopTsa(terracottaServer.getServerSymbolicName(), terracottaServerInstanceProcess);
   }
 
+  /**
+   * Kill the server processes straight away, without letting the server shut down.
+   */
+  public void crash() {
+    this.distributionController.stopTsa(terracottaServer.getServerSymbolicName(), terracottaServerInstanceProcess, true);
+  }
+
   @Override
   public void close() {
     removeDisruptionLinks();
+    ProcessLogStore logStore = this.logStore;
+    if (logStore != null) {
+      try {
+        logStore.close();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
   }
 
   public void configure(String clusterName, String licensePath, Topology topology, Map<ServerSymbolicName, Integer> proxyTsaPorts, SecurityRootDirectory securityRootDirectory, TerracottaCommandLineEnvironment env, boolean verbose) {
@@ -140,31 +183,19 @@ public class TerracottaServerInstance implements Closeable {
     return distributionController.invokeJcmd(terracottaServerInstanceProcess, env, arguments);
   }
 
-  public void waitForState(Set<TerracottaServerState> terracottaServerStates) {
-    boolean isStateSame = true;
-    TerracottaServerState currentState = getTerracottaServerState();
-    while (isStateSame) {
-      try {
-        Thread.sleep(100);
-
-        isStateSame = this.terracottaServerInstanceProcess.isAlive();
-        currentState = getTerracottaServerState();
-        for (TerracottaServerState terracottaServerState : terracottaServerStates) {
-          isStateSame &= (terracottaServerState != currentState);
-        }
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-    if (!this.terracottaServerInstanceProcess.isAlive()) {
-      StringBuilder states = new StringBuilder();
-      for (TerracottaServerState terracottaServerState : terracottaServerStates) {
-        states.append(terracottaServerState).append(" ");
-      }
-      throw new RuntimeException("The Terracotta server was in state " + currentState +
-                                 " and was expected to reach one of the states: " + states.toString()
-                                 + "but died before reaching it.");
-    }
+  /**
+   * Search the output of all the server processes created so far.
+   *
+   * @see ProcessLogStore#query(long, long, String, int)
+   */
+  public List<String> queryLog(long fromMillis, long toMillis, String regex, int maxLines) {
+    ProcessLogStore logStore = this.logStore;
+    return logStore == null ? Collections.emptyList() : logStore.query(fromMillis, toMillis, regex, maxLines);
+  }
+
+  public boolean isAlive() {
+    TerracottaServerInstanceProcess process = this.terracottaServerInstanceProcess;
+    return process != null && process.isAlive();
   }
 
   public TerracottaServerState getTerracottaServerState() {
@@ -188,11 +219,11 @@ public class TerracottaServerInstance implements Closeable {
   }
 
   public static class TerracottaServerInstanceProcess {
-    private final AtomicReference<TerracottaServerState> state;
+    private final ObservableReference<TerracottaServerState> state;
     private final Number wrapperPid;
     private final Number javaPid;
 
-    public TerracottaServerInstanceProcess(AtomicReference<TerracottaServerState> state, Number wrapperPid, Number javaPid) {
+    public TerracottaServerInstanceProcess(ObservableReference<TerracottaServerState> state, Number wrapperPid, Number javaPid) {
       Objects.requireNonNull(wrapperPid, "wrapperPid cannot be null");
       if (wrapperPid.intValue() < 1 || (javaPid != null && javaPid.intValue() < 1)) {
         throw new IllegalArgumentException("Pid cannot be < 1");
@@ -200,6 +231,9 @@ public class TerracottaServerInstance implements Closeable {
       this.wrapperPid = wrapperPid;
       this.javaPid = javaPid;
       this.state = state;
+      if (javaPid != null) {
+        ProcessReaper.INSTANCE.watch(javaPid.intValue(), null);
+      }
     }
 
     public TerracottaServerState getState() {
@@ -220,13 +254,9 @@ public class TerracottaServerInstance implements Closeable {
     }
 
     public boolean isAlive() {
-      try {
-        // if at least one PID is alive, the process is considered alive
-        return (wrapperPid != null && Processes.newPidProcess(wrapperPid.intValue()).isAlive()) ||
-               (javaPid != null && Processes.newPidProcess(javaPid.intValue()).isAlive());
-      } catch (Exception e) {
-        throw new RuntimeException("Error checking liveness of a process instance with PIDs " + wrapperPid + " and " + javaPid, e);
-      }
+      // if at least one PID is alive, the process is considered alive
+      return (wrapperPid != null && ProcessReaper.INSTANCE.isAlive(wrapperPid.intValue())) ||
+             (javaPid != null && ProcessReaper.INSTANCE.isAlive(javaPid.intValue()));
     }
   }
 
@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common;
+
+import org.terracotta.angela.common.tcconfig.ServerSymbolicName;
+import org.terracotta.angela.common.topology.InstanceId;
+
+/**
+ * Published by the agents on {@link #TOPIC} each time the state of one of their servers is updated.
+ * <p>
+ * The generation identifies the server process the event is about, so that the events of a process are not taken
+ * for the ones of the process that replaced it.
+ */
+public class TerracottaServerStateEvent {
+  public static final String TOPIC = "angela.tsaStateEvents";
+
+  private final InstanceId instanceId;
+  private final ServerSymbolicName serverSymbolicName;
+  private final long generation;
+  private final TerracottaServerState state;
+
+  public TerracottaServerStateEvent(InstanceId instanceId, ServerSymbolicName serverSymbolicName, long generation, TerracottaServerState state) {
+    this.instanceId = instanceId;
+    this.serverSymbolicName = serverSymbolicName;
+    this.generation = generation;
+    this.state = state;
+  }
+
+  public InstanceId getInstanceId() {
+    return instanceId;
+  }
+
+  public ServerSymbolicName getServerSymbolicName() {
+    return serverSymbolicName;
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  public TerracottaServerState getState() {
+    return state;
+  }
+
+  @Override
+  public String toString() {
+    return "TerracottaServerStateEvent{" + instanceId + "/" + serverSymbolicName + "#" + generation + " -> " + state + "}";
+  }
+}
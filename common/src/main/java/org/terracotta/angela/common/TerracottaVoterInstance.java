@@ -18,10 +18,12 @@
 package org.terracotta.angela.common;
 
 import org.terracotta.angela.common.distribution.DistributionController;
+import org.terracotta.angela.common.util.ProcessLogStore;
 
 import java.io.File;
 import java.util.Collections;
 import java.util.Arrays;
+import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
@@ -33,6 +35,7 @@ public class TerracottaVoterInstance {
   private final File workingDir;
   private final TerracottaCommandLineEnvironment tcEnv;
   private volatile TerracottaVoterInstance.TerracottaVoterInstanceProcess terracottaVoterInstanceProcess = new TerracottaVoterInstance.TerracottaVoterInstanceProcess(new AtomicReference<>(TerracottaVoterState.STOPPED));
+  private volatile ProcessLogStore logStore;
 
   public TerracottaVoterInstance(TerracottaVoter terracottaVoter, DistributionController distributionController, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv) {
     this.terracottaVoter = terracottaVoter;
@@ -43,13 +46,28 @@ public class TerracottaVoterInstance {
   }
 
   public void start() {
-    terracottaVoterInstanceProcess = distributionController.startVoter(terracottaVoter, kitDir, workingDir, tcEnv);
+    if (logStore == null) {
+      logStore = new ProcessLogStore(new File(workingDir, TerracottaServerInstance.PROCESS_LOGS_DIR_NAME + File.separator + terracottaVoter.getId()).toPath());
+    } else {
+      logStore.flush();
+    }
+    terracottaVoterInstanceProcess = distributionController.startVoter(terracottaVoter, kitDir, workingDir, tcEnv, logStore);
   }
 
   public void stop() {
     distributionController.stopVoter(terracottaVoterInstanceProcess);
   }
 
+  /**
+   * Search the output of all the voter processes started so far.
+   *
+   * @see ProcessLogStore#query(long, long, String, int)
+   */
+  public List<String> queryLog(long fromMillis, long toMillis, String regex, int maxLines) {
+    ProcessLogStore logStore = this.logStore;
+    return logStore == null ? Collections.emptyList() : logStore.query(fromMillis, toMillis, regex, maxLines);
+  }
+
   public TerracottaVoterState getTerracottaVoterState() {
     return this.terracottaVoterInstanceProcess.getState();
   }
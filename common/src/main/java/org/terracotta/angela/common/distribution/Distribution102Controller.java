@@ -43,8 +43,11 @@ import org.terracotta.angela.common.topology.Topology;
 import org.terracotta.angela.common.topology.Version;
 import org.terracotta.angela.common.util.ExternalLoggers;
 import org.terracotta.angela.common.util.HostPort;
+import org.terracotta.angela.common.util.LogForwarder;
+import org.terracotta.angela.common.util.ObservableReference;
 import org.terracotta.angela.common.util.OS;
-import org.terracotta.angela.common.util.ProcessUtil;
+import org.terracotta.angela.common.util.ProcessLogStore;
+import org.terracotta.angela.common.util.ProcessTerminator;
 import org.terracotta.angela.common.util.TriggeringOutputStream;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.ProcessResult;
@@ -91,10 +94,10 @@ public class Distribution102Controller extends DistributionController {
   @Override
   public TerracottaServerInstanceProcess createTsa(TerracottaServer terracottaServer, File kitDir, File workingDir,
                                                    Topology topology, Map<ServerSymbolicName, Integer> proxiedPorts,
-                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs) {
+                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs,
+                                                   ProcessLogStore logStore, ObservableReference<TerracottaServerState> stateRef) {
     Map<String, String> env = buildEnv(tcEnv);
 
-    AtomicReference<TerracottaServerState> stateRef = new AtomicReference<>(TerracottaServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
 
     TriggeringOutputStream serverLogOutputStream = TriggeringOutputStream
@@ -112,16 +115,18 @@ public class Distribution102Controller extends DistributionController {
               javaPid.set(parseInt(mr.group(1)));
               stateRef.compareAndSet(TerracottaServerState.STOPPED, TerracottaServerState.STARTING);
             });
+    LogForwarder serverLogForwarder = new LogForwarder(ExternalLoggers.tsaLogger, terracottaServer.getServerSymbolicName().getSymbolicName());
     serverLogOutputStream = tsaFullLogging ?
-        serverLogOutputStream.andForward(line -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), line)) :
-        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), mr.group()));
+        serverLogOutputStream.andForward(serverLogForwarder) :
+        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> serverLogForwarder.accept(mr.group()));
 
     WatchedProcess<TerracottaServerState> watchedProcess = new WatchedProcess<>(new ProcessExecutor()
         .command(createTsaCommand(terracottaServer.getServerSymbolicName(), terracottaServer.getId(), topology, proxiedPorts, kitDir, workingDir, startUpArgs))
         .directory(workingDir)
         .environment(env)
         .redirectErrorStream(true)
-        .redirectOutput(serverLogOutputStream), stateRef, TerracottaServerState.STOPPED);
+        .redirectOutput(serverLogOutputStream)
+        .redirectOutputAlsoTo(logStore), stateRef, TerracottaServerState.STOPPED);
 
     while (javaPid.get() == -1 && watchedProcess.isAlive()) {
       try {
@@ -327,9 +332,10 @@ public class Distribution102Controller extends DistributionController {
     ).andTriggerOn(
         compile("^.*\\QStarting TmsApplication\\E.*with PID (\\d+).*$"), mr -> javaPid.set(parseInt(mr.group(1)))
     );
+    LogForwarder tmsLogForwarder = new LogForwarder(ExternalLoggers.tmsLogger, null);
     outputStream = tmsFullLogging ?
-        outputStream.andForward(ExternalLoggers.tmsLogger::info) :
-        outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tmsLogger.info(mr.group()));
+        outputStream.andForward(tmsLogForwarder) :
+        outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> tmsLogForwarder.accept(mr.group()));
 
     WatchedProcess<TerracottaManagementServerState> watchedProcess = new WatchedProcess<>(new ProcessExecutor()
         .command(startTmsCommand(kitDir))
@@ -356,17 +362,15 @@ public class Distribution102Controller extends DistributionController {
   @Override
   public void stopTms(File installLocation, TerracottaManagementServerInstanceProcess terracottaServerInstanceProcess, TerracottaCommandLineEnvironment tcEnv) {
     logger.debug("Destroying TMS process");
-    for (Number pid : terracottaServerInstanceProcess.getPids()) {
-      try {
-        ProcessUtil.destroyGracefullyOrForcefullyAndWait(pid.intValue());
-      } catch (Exception e) {
-        logger.error("Could not destroy TMS process {}", pid, e);
-      }
+    try {
+      ProcessTerminator.terminate(terracottaServerInstanceProcess.getPids());
+    } catch (Exception e) {
+      logger.error("Could not destroy TMS process {}", terracottaServerInstanceProcess.getPids(), e);
     }
   }
 
   @Override
-  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv) {
+  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv, ProcessLogStore logStore) {
     throw new UnsupportedOperationException("Running voter is supported not in this distribution version");
   }
 
@@ -36,8 +36,11 @@ import org.terracotta.angela.common.topology.PackageType;
 import org.terracotta.angela.common.topology.Topology;
 import org.terracotta.angela.common.util.ExternalLoggers;
 import org.terracotta.angela.common.util.HostPort;
+import org.terracotta.angela.common.util.LogForwarder;
+import org.terracotta.angela.common.util.ObservableReference;
 import org.terracotta.angela.common.util.OS;
-import org.terracotta.angela.common.util.ProcessUtil;
+import org.terracotta.angela.common.util.ProcessLogStore;
+import org.terracotta.angela.common.util.ProcessTerminator;
 import org.terracotta.angela.common.util.TriggeringOutputStream;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.ProcessResult;
@@ -75,9 +78,9 @@ public class Distribution107Controller extends DistributionController {
   @Override
   public TerracottaServerInstanceProcess createTsa(TerracottaServer terracottaServer, File kitDir, File workingDir,
                                                    Topology topology, Map<ServerSymbolicName, Integer> proxiedPorts,
-                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs) {
+                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs,
+                                                   ProcessLogStore logStore, ObservableReference<TerracottaServerState> stateRef) {
     Map<String, String> env = buildEnv(tcEnv);
-    AtomicReference<TerracottaServerState> stateRef = new AtomicReference<>(TerracottaServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
 
     TriggeringOutputStream serverLogOutputStream = TriggeringOutputStream
@@ -102,9 +105,10 @@ public class Distribution107Controller extends DistributionController {
               javaPid.set(parseInt(mr.group(1)));
               stateRef.compareAndSet(TerracottaServerState.STOPPED, TerracottaServerState.STARTING);
             });
+    LogForwarder serverLogForwarder = new LogForwarder(ExternalLoggers.tsaLogger, terracottaServer.getServerSymbolicName().getSymbolicName());
     serverLogOutputStream = tsaFullLogging ?
-        serverLogOutputStream.andForward(line -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), line)) :
-        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), mr.group()));
+        serverLogOutputStream.andForward(serverLogForwarder) :
+        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> serverLogForwarder.accept(mr.group()));
 
     WatchedProcess<TerracottaServerState> watchedProcess = new WatchedProcess<>(
         new ProcessExecutor()
@@ -112,7 +116,8 @@ public class Distribution107Controller extends DistributionController {
             .directory(workingDir)
             .environment(env)
             .redirectErrorStream(true)
-            .redirectOutput(serverLogOutputStream),
+            .redirectOutput(serverLogOutputStream)
+            .redirectOutputAlsoTo(logStore),
         stateRef,
         TerracottaServerState.STOPPED);
 
@@ -144,9 +149,10 @@ public class Distribution107Controller extends DistributionController {
         .andTriggerOn(
             compile("^.*\\QStarting TmsApplication\\E.*with PID (\\d+).*$"),
             mr -> javaPid.set(parseInt(mr.group(1))));
+    LogForwarder tmsLogForwarder = new LogForwarder(ExternalLoggers.tmsLogger, null);
     outputStream = tmsFullLogging ?
-        outputStream.andForward(ExternalLoggers.tmsLogger::info) :
-        outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tmsLogger.info(mr.group()));
+        outputStream.andForward(tmsLogForwarder) :
+        outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> tmsLogForwarder.accept(mr.group()));
 
     WatchedProcess<TerracottaManagementServerState> watchedProcess = new WatchedProcess<>(new ProcessExecutor()
         .command(startTmsCommand(kitDir))
@@ -174,22 +180,21 @@ public class Distribution107Controller extends DistributionController {
   @Override
   public void stopTms(File installLocation, TerracottaManagementServerInstanceProcess terracottaServerInstanceProcess, TerracottaCommandLineEnvironment tcEnv) {
     LOGGER.debug("Destroying TMS process");
-    for (Number pid : terracottaServerInstanceProcess.getPids()) {
-      try {
-        ProcessUtil.destroyGracefullyOrForcefullyAndWait(pid.intValue());
-      } catch (Exception e) {
-        LOGGER.error("Could not destroy TMS process {}", pid, e);
-      }
+    try {
+      ProcessTerminator.terminate(terracottaServerInstanceProcess.getPids());
+    } catch (Exception e) {
+      LOGGER.error("Could not destroy TMS process {}", terracottaServerInstanceProcess.getPids(), e);
     }
   }
 
   @Override
-  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv) {
+  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv, ProcessLogStore logStore) {
     Map<String, String> env = buildEnv(tcEnv);
 
     AtomicReference<TerracottaVoterState> stateRef = new AtomicReference<>(TerracottaVoterState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
 
+    LogForwarder voterLogForwarder = new LogForwarder(ExternalLoggers.voterLogger, terracottaVoter.getId());
     TriggeringOutputStream outputStream = TriggeringOutputStream
         .triggerOn(
             compile("^.*PID is (\\d+).*$"),
@@ -198,14 +203,15 @@ public class Distribution107Controller extends DistributionController {
             compile("^.*\\QVote owner state: ACTIVE-COORDINATOR\\E.*$"),
             mr -> stateRef.compareAndSet(TerracottaVoterState.STOPPED, TerracottaVoterState.STARTED))
         .andTriggerOn(voterFullLogging ? compile("^.*$") : compile("^.*(WARN|ERROR).*$"),
-            mr -> ExternalLoggers.voterLogger.info("[{}] {}", terracottaVoter.getId(), mr.group()));
+            mr -> voterLogForwarder.accept(mr.group()));
 
     WatchedProcess<TerracottaVoterState> watchedProcess = new WatchedProcess<>(new ProcessExecutor()
         .command(startVoterCommand(kitDir, terracottaVoter))
         .directory(workingDir)
         .environment(env)
         .redirectErrorStream(true)
-        .redirectOutput(outputStream), stateRef, TerracottaVoterState.STOPPED);
+        .redirectOutput(outputStream)
+        .redirectOutputAlsoTo(logStore), stateRef, TerracottaVoterState.STOPPED);
 
     while ((javaPid.get() == -1 || stateRef.get() == TerracottaVoterState.STOPPED) && watchedProcess.isAlive()) {
       try {
@@ -226,12 +232,10 @@ public class Distribution107Controller extends DistributionController {
   @Override
   public void stopVoter(TerracottaVoterInstance.TerracottaVoterInstanceProcess terracottaVoterInstanceProcess) {
     LOGGER.debug("Destroying Voter process");
-    for (Number pid : terracottaVoterInstanceProcess.getPids()) {
-      try {
-        ProcessUtil.destroyGracefullyOrForcefullyAndWait(pid.intValue());
-      } catch (Exception e) {
-        LOGGER.error("Could not destroy TMS process {}", pid, e);
-      }
+    try {
+      ProcessTerminator.terminate(terracottaVoterInstanceProcess.getPids());
+    } catch (Exception e) {
+      LOGGER.error("Could not destroy Voter process {}", terracottaVoterInstanceProcess.getPids(), e);
     }
   }
 
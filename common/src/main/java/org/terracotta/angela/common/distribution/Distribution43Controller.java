@@ -35,7 +35,11 @@ import org.terracotta.angela.common.topology.Topology;
 import org.terracotta.angela.common.topology.Version;
 import org.terracotta.angela.common.util.ExternalLoggers;
 import org.terracotta.angela.common.util.HostPort;
+import org.terracotta.angela.common.util.LogForwarder;
+import org.terracotta.angela.common.util.ObservableReference;
 import org.terracotta.angela.common.util.OS;
+import org.terracotta.angela.common.util.PidResolver;
+import org.terracotta.angela.common.util.ProcessLogStore;
 import org.terracotta.angela.common.util.TriggeringOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -72,6 +76,7 @@ import static java.util.regex.Pattern.compile;
  */
 public class Distribution43Controller extends DistributionController {
   private final static Logger logger = LoggerFactory.getLogger(Distribution43Controller.class);
+  private static final String PROCESS_IDENTIFIER_OPTION = "-Dangela.processIdentifier";
 
   private final boolean tsaFullLogging = Boolean.parseBoolean(TSA_FULL_LOGGING.getValue());
 
@@ -86,8 +91,8 @@ public class Distribution43Controller extends DistributionController {
   @Override
   public TerracottaServerInstanceProcess createTsa(TerracottaServer terracottaServer, File kitDir, File workingDir,
                                                    Topology topology, Map<ServerSymbolicName, Integer> proxiedPorts,
-                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs) {
-    AtomicReference<TerracottaServerState> stateRef = new AtomicReference<>(STOPPED);
+                                                   TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs,
+                                                   ProcessLogStore logStore, ObservableReference<TerracottaServerState> stateRef) {
     AtomicReference<TerracottaServerState> tempStateRef = new AtomicReference<>(STOPPED);
 
     TriggeringOutputStream serverLogOutputStream = TriggeringOutputStream
@@ -109,14 +114,15 @@ public class Distribution43Controller extends DistributionController {
         .andTriggerOn(
             compile("^.*\\QServer exiting\\E.*$"),
             mr -> stateRef.set(STOPPED));
+    LogForwarder serverLogForwarder = new LogForwarder(ExternalLoggers.tsaLogger, terracottaServer.getServerSymbolicName().getSymbolicName());
     serverLogOutputStream = tsaFullLogging ?
-        serverLogOutputStream.andForward(line -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), line)) :
-        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), mr.group()));
+        serverLogOutputStream.andForward(serverLogForwarder) :
+        serverLogOutputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> serverLogForwarder.accept(mr.group()));
 
     // add an identifiable ID to the JVM's system properties
     Map<String, String> env = buildEnv(tcEnv);
     env.compute("JAVA_OPTS", (key, value) -> {
-      String prop = " -Dangela.processIdentifier=" + terracottaServer.getId();
+      String prop = " " + PROCESS_IDENTIFIER_OPTION + "=" + terracottaServer.getId();
       return value == null ? prop : value + prop;
     });
 
@@ -126,15 +132,46 @@ public class Distribution43Controller extends DistributionController {
             .directory(workingDir)
             .environment(env)
             .redirectErrorStream(true)
-            .redirectOutput(serverLogOutputStream),
+            .redirectOutput(serverLogOutputStream)
+            .redirectOutputAlsoTo(logStore),
         stateRef,
         STOPPED);
 
     int wrapperPid = watchedProcess.getPid();
-    Number javaPid = findWithJcmdJavaPidOf(terracottaServer.getId().toString(), tcEnv);
+    Number javaPid = PidResolver.isSupported() ?
+        findInProcessTreeJavaPidOf(wrapperPid, terracottaServer.getId().toString(), watchedProcess) :
+        null;
+    if (javaPid == null) {
+      javaPid = findWithJcmdJavaPidOf(terracottaServer.getId().toString(), tcEnv);
+    }
     return new TerracottaServerInstanceProcess(stateRef, wrapperPid, javaPid);
   }
 
+  /**
+   * Look for the JVM started by the wrapper script among its descendants, which is much cheaper than running jcmd.
+   */
+  private Number findInProcessTreeJavaPidOf(int wrapperPid, String serverUuid, WatchedProcess<?> watchedProcess) {
+    String argument = PROCESS_IDENTIFIER_OPTION + "=" + serverUuid;
+    final int maxWaitTimeMillis = 10_000;
+    long deadline = System.currentTimeMillis() + maxWaitTimeMillis;
+    while (System.currentTimeMillis() < deadline) {
+      Integer pid = PidResolver.findInTree(wrapperPid, argument);
+      if (pid != null) {
+        return pid;
+      }
+      if (!watchedProcess.isAlive()) {
+        break;
+      }
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    logger.warn("Unable to find the server process having {} among the descendants of {}", argument, wrapperPid);
+    return null;
+  }
+
   private Number findWithJcmdJavaPidOf(String serverUuid, TerracottaCommandLineEnvironment tcEnv) {
     String javaHome = tcEnv.getJavaHome().orElseGet(()->javaLocationResolver.resolveJavaLocation(tcEnv).getHome());
 
@@ -290,7 +327,7 @@ public class Distribution43Controller extends DistributionController {
   }
 
   @Override
-  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv) {
+  public TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv, ProcessLogStore logStore) {
     throw new UnsupportedOperationException("Running voter is supported not in this distribution version");
   }
 
@@ -26,8 +26,10 @@ import org.terracotta.angela.common.tcconfig.ServerSymbolicName;
 import org.terracotta.angela.common.tcconfig.TerracottaServer;
 import org.terracotta.angela.common.topology.Topology;
 import org.terracotta.angela.common.util.JavaLocationResolver;
+import org.terracotta.angela.common.util.ObservableReference;
 import org.terracotta.angela.common.util.OS;
-import org.terracotta.angela.common.util.ProcessUtil;
+import org.terracotta.angela.common.util.ProcessLogStore;
+import org.terracotta.angela.common.util.ProcessTerminator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.angela.common.TerracottaVoter;
@@ -109,20 +111,34 @@ public abstract class DistributionController {
     }
   }
 
-  public abstract TerracottaServerInstance.TerracottaServerInstanceProcess createTsa(TerracottaServer terracottaServer, File kitDir, File workingDir, Topology topology, Map<ServerSymbolicName, Integer> proxiedPorts, TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs);
+  /**
+   * @param stateRef the state of the server, updated by the created process from its very start
+   */
+  public abstract TerracottaServerInstance.TerracottaServerInstanceProcess createTsa(TerracottaServer terracottaServer, File kitDir, File workingDir, Topology topology, Map<ServerSymbolicName, Integer> proxiedPorts, TerracottaCommandLineEnvironment tcEnv, List<String> startUpArgs, ProcessLogStore logStore, ObservableReference<TerracottaServerState> stateRef);
 
   public abstract TerracottaManagementServerInstance.TerracottaManagementServerInstanceProcess startTms(File kitDir, File workingDir, TerracottaCommandLineEnvironment env);
 
   public abstract void stopTms(File installLocation, TerracottaManagementServerInstance.TerracottaManagementServerInstanceProcess terracottaServerInstanceProcess, TerracottaCommandLineEnvironment tcEnv);
 
   public void stopTsa(ServerSymbolicName serverSymbolicName, TerracottaServerInstance.TerracottaServerInstanceProcess terracottaServerInstanceProcess) {
-    LOGGER.debug("Destroying TC server process for {}", serverSymbolicName);
-    for (Number pid : terracottaServerInstanceProcess.getPids()) {
-      try {
-        ProcessUtil.destroyGracefullyOrForcefullyAndWait(pid.intValue());
-      } catch (Exception e) {
-        throw new RuntimeException("Could not destroy TC server process with PID " + pid, e);
+    stopTsa(serverSymbolicName, terracottaServerInstanceProcess, false);
+  }
+
+  /**
+   * Stop a server process, along with the JVM its start script started.
+   *
+   * @param crash true to kill the processes straight away instead of letting them shut down
+   */
+  public void stopTsa(ServerSymbolicName serverSymbolicName, TerracottaServerInstance.TerracottaServerInstanceProcess terracottaServerInstanceProcess, boolean crash) {
+    LOGGER.debug("{} TC server process for {}", crash ? "Killing" : "Destroying", serverSymbolicName);
+    try {
+      if (crash) {
+        ProcessTerminator.kill(terracottaServerInstanceProcess.getPids());
+      } else {
+        ProcessTerminator.terminate(terracottaServerInstanceProcess.getPids());
       }
+    } catch (Exception e) {
+      throw new RuntimeException("Could not destroy TC server process with PIDs " + terracottaServerInstanceProcess.getPids(), e);
     }
 
     final int maxWaitTimeMillis = 30000;
@@ -139,7 +155,7 @@ public abstract class DistributionController {
     }
   }
 
-  public abstract TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv);
+  public abstract TerracottaVoterInstance.TerracottaVoterInstanceProcess startVoter(TerracottaVoter terracottaVoter, File kitDir, File workingDir, TerracottaCommandLineEnvironment tcEnv, ProcessLogStore logStore);
 
   public abstract void stopVoter(TerracottaVoterInstance.TerracottaVoterInstanceProcess terracottaVoterInstanceProcess);
   
@@ -17,12 +17,13 @@
 
 package org.terracotta.angela.common.distribution;
 
+import org.terracotta.angela.common.util.ObservableReference;
+import org.terracotta.angela.common.util.ProcessReaper;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.StartedProcess;
 import org.zeroturnaround.process.PidUtil;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 
@@ -32,24 +33,21 @@ class WatchedProcess<S extends Enum<S>> {
   private final int pid;
 
   public WatchedProcess(ProcessExecutor processExecutor, final AtomicReference<S> stateRef, final S deadState) {
+    this(processExecutor, () -> stateRef.set(deadState));
+  }
+
+  public WatchedProcess(ProcessExecutor processExecutor, final ObservableReference<S> stateRef, final S deadState) {
+    this(processExecutor, () -> stateRef.set(deadState));
+  }
+
+  private WatchedProcess(ProcessExecutor processExecutor, Runnable onExit) {
     try {
       this.startedProcess = processExecutor.start();
     } catch (IOException e) {
       throw new RuntimeException("Cannot start process " + processExecutor.getCommand(), e);
     }
     this.pid = PidUtil.getPid(startedProcess.getProcess());
-
-    Thread watcherThread = new Thread(() -> {
-      try {
-        startedProcess.getFuture().get();
-        stateRef.set(deadState);
-      } catch (InterruptedException | ExecutionException e) {
-        throw new RuntimeException(e);
-      }
-    });
-    watcherThread.setDaemon(true);
-    watcherThread.setName("ProcessWatcher on PID#" + pid);
-    watcherThread.start();
+    ProcessReaper.INSTANCE.watch(pid, startedProcess.getFuture(), onExit);
   }
 
   public boolean isAlive() {
@@ -25,14 +25,20 @@ import java.io.UncheckedIOException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class DirectoryUtils {
   private static final Logger logger = LoggerFactory.getLogger(DirectoryUtils.class);
@@ -90,6 +96,77 @@ public class DirectoryUtils {
     }
   }
 
+  /**
+   * Refresh the modification time of a file or directory of a cache, so that it is not evicted.
+   */
+  public static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException ioe) {
+      // at worst, the file gets evicted and must be created again
+      logger.debug("Cannot refresh the modification time of {}", file, ioe);
+    }
+  }
+
+  /**
+   * Delete the files of a cache which were not modified, nor {@link #touch(Path) touched}, since the given time.
+   *
+   * @return the number of deleted files
+   */
+  public static int deleteFilesUnusedSince(Path root, long cutoffMillis) throws IOException {
+    if (!Files.isDirectory(root)) {
+      return 0;
+    }
+    int deleted = 0;
+    try (Stream<Path> files = Files.walk(root)) {
+      for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        try {
+          if (Files.getLastModifiedTime(file).toMillis() < cutoffMillis) {
+            Files.deleteIfExists(file);
+            deleted++;
+          }
+        } catch (NoSuchFileException e) {
+          // deleted concurrently by another agent
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Delete the entries of a cache directory, files or whole directories, which were not modified, nor
+   * {@link #touch(Path) touched}, since the given time.
+   *
+   * @return the number of deleted entries
+   */
+  public static int deleteEntriesUnusedSince(Path root, long cutoffMillis) throws IOException {
+    if (!Files.isDirectory(root)) {
+      return 0;
+    }
+    int deleted = 0;
+    try (Stream<Path> entries = Files.list(root)) {
+      for (Path entry : (Iterable<Path>) entries::iterator) {
+        try {
+          if (Files.getLastModifiedTime(entry).toMillis() < cutoffMillis) {
+            if (Files.isDirectory(entry)) {
+              try {
+                deleteDirectory(entry);
+              } catch (UncheckedIOException uioe) {
+                throw uioe.getCause();
+              }
+            } else {
+              Files.deleteIfExists(entry);
+            }
+            deleted++;
+          }
+        } catch (NoSuchFileException e) {
+          // deleted concurrently by another agent
+        }
+      }
+    }
+    return deleted;
+  }
+
   public static void copyDirectory(Path src, Path dest) {
     try {
       Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
@@ -109,4 +186,47 @@ public class DirectoryUtils {
       throw new UncheckedIOException(e);
     }
   }
+
+  /**
+   * Same as {@link #copyDirectory(Path, Path)}, except that files are hard-linked instead of copied, unless
+   * {@code copyInstead} matches them. Falls back to copying when the file system does not support hard links, or when
+   * {@code src} and {@code dest} are on different file systems.
+   * Hard-linked files share their content with {@code src}: they must never be modified in place.
+   */
+  public static void linkDirectory(Path src, Path dest, Predicate<Path> copyInstead) {
+    AtomicBoolean linkSupported = new AtomicBoolean(true);
+    AtomicInteger linked = new AtomicInteger();
+    AtomicInteger copied = new AtomicInteger();
+    try {
+      Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          Files.createDirectories(dest.resolve(src.relativize(dir)));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Path target = dest.resolve(src.relativize(file));
+          if (linkSupported.get() && attrs.isRegularFile() && !copyInstead.test(src.relativize(file))) {
+            try {
+              Files.deleteIfExists(target);
+              Files.createLink(target, file);
+              linked.incrementAndGet();
+              return FileVisitResult.CONTINUE;
+            } catch (UnsupportedOperationException | IOException e) {
+              logger.info("Cannot hard link {} to {}, copying files instead: {}", file, target, e.toString());
+              linkSupported.set(false);
+            }
+          }
+          Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+          copied.incrementAndGet();
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    logger.info("Linked {} and copied {} file(s) from {} to {}", linked.get(), copied.get(), src, dest);
+  }
 }
@@ -0,0 +1,196 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The content of a folder, as the relative path of each of its files mapped to the SHA-256 hash of its content.
+ * Relative paths always use '/' as separator.
+ * <p>
+ * Hashes are cached per absolute path, size and modification time so that computing the manifest of a folder that
+ * did not change since the last time is cheap.
+ */
+public class FileManifest implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final int MAX_CACHED_HASHES = 100_000;
+  private static final Map<Path, CachedHash> HASH_CACHE = new ConcurrentHashMap<>();
+
+  private final Map<String, String> files;
+  private final Set<String> directories;
+
+  private FileManifest(Map<String, String> files, Set<String> directories) {
+    this.files = files;
+    this.directories = directories;
+  }
+
+  public static FileManifest of(Path root) {
+    Map<String, String> files = new TreeMap<>();
+    Set<String> directories = new TreeSet<>();
+    try (Stream<Path> walk = Files.walk(root)) {
+      Iterator<Path> it = walk.iterator();
+      while (it.hasNext()) {
+        Path path = it.next();
+        if (path.equals(root)) {
+          continue;
+        }
+        String relativePath = toRelativePath(root, path);
+        if (Files.isDirectory(path)) {
+          directories.add(relativePath);
+        } else {
+          files.put(relativePath, hash(path));
+        }
+      }
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot compute manifest of " + root, ioe);
+    }
+    return new FileManifest(files, directories);
+  }
+
+  /**
+   * @return the SHA-256 hash of the content of the file, as a lowercase hex string
+   */
+  public static String hash(Path file) throws IOException {
+    Path absolutePath = file.toAbsolutePath();
+    BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    CachedHash cached = HASH_CACHE.get(absolutePath);
+    if (cached != null && cached.size == attributes.size() && cached.lastModified == lastModified) {
+      return cached.hash;
+    }
+
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream is = Files.newInputStream(absolutePath)) {
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    String hash = toHex(digest.digest());
+
+    if (HASH_CACHE.size() >= MAX_CACHED_HASHES) {
+      HASH_CACHE.clear();
+    }
+    HASH_CACHE.put(absolutePath, new CachedHash(attributes.size(), lastModified, hash));
+    return hash;
+  }
+
+  public static String toRelativePath(Path root, Path path) {
+    return root.relativize(path).toString().replace(root.getFileSystem().getSeparator(), "/");
+  }
+
+  /**
+   * @return the files of the manifest, as relative path to content hash
+   */
+  public Map<String, String> getFiles() {
+    return Collections.unmodifiableMap(files);
+  }
+
+  public Set<String> getDirectories() {
+    return Collections.unmodifiableSet(directories);
+  }
+
+  public String getHash(String relativePath) {
+    return files.get(relativePath);
+  }
+
+  /**
+   * @return the SHA-256 hash of the whole manifest: of the paths of its directories, and of the paths and hashes of
+   * its files, as a lowercase hex string
+   */
+  public String contentHash() {
+    MessageDigest digest = newDigest();
+    for (String directory : directories) {
+      digest.update(directory.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(file.getValue().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    FileManifest that = (FileManifest) o;
+    return files.equals(that.files) && directories.equals(that.directories);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(files, directories);
+  }
+
+  @Override
+  public String toString() {
+    return "FileManifest{" + files.size() + " files, " + directories.size() + " directories}";
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  private static class CachedHash {
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+
+    CachedHash(long size, long lastModified, String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+}
@@ -32,6 +32,13 @@ public class FileMetadata {
         this.directory = file.isDirectory();
     }
 
+    public FileMetadata(String path, String name, long length, boolean directory) {
+        this.path = path;
+        this.name = name;
+        this.length = length;
+        this.directory = directory;
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads parts of a file without loading the rest of it, so that a few bytes or lines of a huge log can be inspected cheaply.
+ */
+public class FileRangeReader {
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * @return at most {@code length} bytes starting at {@code offset}, fewer if the end of the file is reached
+   */
+  public static byte[] read(Path file, long offset, int length) throws IOException {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("Invalid range: offset=" + offset + ", length=" + length);
+    }
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return read(fileChannel, offset, (int) Math.max(0, Math.min(length, fileChannel.size() - offset)));
+    }
+  }
+
+  /**
+   * @return the last {@code length} bytes of the file, or the whole file if it is shorter
+   */
+  public static byte[] tail(Path file, int length) throws IOException {
+    if (length < 0) {
+      throw new IllegalArgumentException("Invalid length: " + length);
+    }
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      long offset = Math.max(0, size - length);
+      return read(fileChannel, offset, (int) (size - offset));
+    }
+  }
+
+  /**
+   * Read the file backwards until {@code lines} line breaks are found, then decode only that last part.
+   * Works for any charset in which '\n' is encoded as a single byte, like UTF-8 or ISO-8859-1.
+   *
+   * @return the last {@code lines} lines of the file, without their line terminators
+   */
+  public static List<String> tailLines(Path file, int lines, Charset charset) throws IOException {
+    if (lines < 0) {
+      throw new IllegalArgumentException("Invalid line count: " + lines);
+    }
+    if (lines == 0) {
+      return Collections.emptyList();
+    }
+
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      long start = findStartOfLastLines(fileChannel, size, lines);
+      long length = size - start;
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("The last " + lines + " lines of " + file + " are too large to be read at once");
+      }
+
+      String content = new String(read(fileChannel, start, (int) length), charset);
+      if (content.isEmpty()) {
+        return Collections.emptyList();
+      }
+      List<String> result = new ArrayList<>(Arrays.asList(content.split("\r?\n", -1)));
+      if (content.endsWith("\n")) {
+        result.remove(result.size() - 1);
+      }
+      return result;
+    }
+  }
+
+  private static long findStartOfLastLines(FileChannel fileChannel, long size, int lines) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    long position = size;
+    int lineBreaks = 0;
+    while (position > 0) {
+      int blockLength = (int) Math.min(BLOCK_SIZE, position);
+      position -= blockLength;
+      buffer.clear();
+      buffer.limit(blockLength);
+      readFully(fileChannel, buffer, position);
+      for (int i = blockLength - 1; i >= 0; i--) {
+        long absolutePosition = position + i;
+        // the line break terminating the last line does not start a new one
+        if (buffer.get(i) == '\n' && absolutePosition != size - 1) {
+          lineBreaks++;
+          if (lineBreaks == lines) {
+            return absolutePosition + 1;
+          }
+        }
+      }
+    }
+    return 0;
+  }
+
+  private static byte[] read(FileChannel fileChannel, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    readFully(fileChannel, buffer, offset);
+    if (buffer.hasRemaining()) {
+      // the file got truncated concurrently
+      return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+    return buffer.array();
+  }
+
+  private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = fileChannel.read(buffer, position);
+      if (read < 0) {
+        break;
+      }
+      position += read;
+    }
+  }
+}
@@ -0,0 +1,528 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.AngelaProperties;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.terracotta.angela.common.AngelaProperties.TRANSFER_COMPRESSION_LEVEL;
+import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
+
+/**
+ * Streams files and folders over a socket channel, using {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * and {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} so that the file contents never go through
+ * the java heap.
+ * <p>
+ * The wire format is a sequence of entries, each one starting with a one byte tag:
+ * <ul>
+ *   <li>{@code DIRECTORY}: path, name</li>
+ *   <li>{@code FILE}: path, name, length, followed by exactly {@code length} bytes of file content</li>
+ *   <li>{@code STREAM}: path, name, followed by chunks made of an int length and that many bytes, until a 0 length chunk</li>
+ *   <li>{@code END}: no payload, the receiver answers with a status byte followed by an error message on failure</li>
+ * </ul>
+ * Strings are sent as an int length followed by UTF-8 bytes, paths always use '/' as separator.
+ * <p>
+ * Before the entries, the sender proposes a {@link Deflater} compression level and the receiver answers with the
+ * level it accepts. When it is not 0, the entries are sent deflated, while the final status stays uncompressed.
+ */
+public class FileTransfer {
+  private final static Logger logger = LoggerFactory.getLogger(FileTransfer.class);
+
+  private static final byte END = 0;
+  private static final byte DIRECTORY = 1;
+  private static final byte FILE = 2;
+  private static final byte STREAM = 3;
+
+  private static final byte STATUS_OK = 0;
+  private static final byte STATUS_ERROR = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public static void send(SocketChannel channel, List<File> files) throws IOException {
+    send(channel, files, compressionLevel());
+  }
+
+  /**
+   * @param compressionLevel the {@link Deflater} level proposed to the receiver, 0 to send uncompressed
+   */
+  public static void send(SocketChannel channel, List<File> files, int compressionLevel) throws IOException {
+    send(channel, compressionLevel, out -> {
+      for (File file : files) {
+        sendFile(out, file, null);
+      }
+    });
+  }
+
+  public static void send(SocketChannel channel, File root, Collection<String> relativePaths) throws IOException {
+    send(channel, root, relativePaths, compressionLevel());
+  }
+
+  /**
+   * Send only some of the files of a folder. On the receiving end, they are placed under a folder named after {@code root}.
+   *
+   * @param root the folder containing the files
+   * @param relativePaths the paths of the files to send, relative to {@code root} and using '/' as separator
+   * @param compressionLevel the {@link Deflater} level proposed to the receiver, 0 to send uncompressed
+   */
+  public static void send(SocketChannel channel, File root, Collection<String> relativePaths, int compressionLevel) throws IOException {
+    send(channel, compressionLevel, out -> {
+      for (String relativePath : relativePaths) {
+        int idx = relativePath.lastIndexOf('/');
+        String path = idx == -1 ? root.getName() : root.getName() + "/" + relativePath.substring(0, idx);
+        sendFile(out, new File(root, relativePath), path);
+      }
+    });
+  }
+
+  /**
+   * Send files and folders under explicit paths. Folders are sent without their content, so that a tree can be split
+   * across several concurrent transfers.
+   *
+   * @param entries the files and folders to send, keyed by their path relative to the receiver's destination
+   *                directory, using '/' as separator
+   * @param compressionLevel the {@link Deflater} level proposed to the receiver, 0 to send uncompressed
+   */
+  public static void send(SocketChannel channel, Map<String, File> entries, int compressionLevel) throws IOException {
+    send(channel, compressionLevel, out -> {
+      for (Map.Entry<String, File> entry : entries.entrySet()) {
+        String relativePath = entry.getKey();
+        File file = entry.getValue();
+        int idx = relativePath.lastIndexOf('/');
+        String path = idx == -1 ? null : relativePath.substring(0, idx);
+        String name = relativePath.substring(idx + 1);
+        if (file.isDirectory()) {
+          writeHeader(out, DIRECTORY, new FileMetadata(path, name, 0L, true));
+        } else {
+          writeFileEntry(out, file, new FileMetadata(path, name, file.length(), false));
+        }
+      }
+    });
+  }
+
+  /**
+   * Send the content of a stream of unknown length, in chunks, so that neither side needs to buffer it.
+   *
+   * @param relativePath the path of the file relative to the receiver's destination directory, using '/' as separator
+   * @param compressionLevel the {@link Deflater} level proposed to the receiver, 0 to send uncompressed
+   */
+  public static void send(SocketChannel channel, String relativePath, InputStream inputStream, int compressionLevel) throws IOException {
+    int idx = relativePath.lastIndexOf('/');
+    FileMetadata fileMetadata = new FileMetadata(idx == -1 ? null : relativePath.substring(0, idx), relativePath.substring(idx + 1), -1L, false);
+    send(channel, compressionLevel, out -> {
+      writeHeader(out, STREAM, fileMetadata);
+      byte[] chunk = new byte[BUFFER_SIZE];
+      ByteBuffer chunkLength = ByteBuffer.allocate(Integer.BYTES);
+      while (true) {
+        int read = inputStream.read(chunk);
+        if (read == -1) {
+          break;
+        }
+        if (read == 0) {
+          continue;
+        }
+        chunkLength.clear();
+        chunkLength.putInt(read).flip();
+        writeFully(out, chunkLength);
+        writeFully(out, ByteBuffer.wrap(chunk, 0, read));
+      }
+      chunkLength.clear();
+      chunkLength.putInt(0).flip();
+      writeFully(out, chunkLength);
+      logger.debug("uploaded {}", fileMetadata);
+    });
+  }
+
+  /**
+   * Split entries into at most {@code maxPartitions} groups of similar total size, so that they can be sent
+   * concurrently with {@link #send(SocketChannel, Map, int)}. Folders all go to the first group.
+   *
+   * @param threshold the total size under which the entries are not worth splitting
+   */
+  public static List<Map<String, File>> partition(Map<String, File> entries, int maxPartitions, long threshold) {
+    long totalSize = 0;
+    List<Map.Entry<String, File>> files = new ArrayList<>();
+    for (Map.Entry<String, File> entry : entries.entrySet()) {
+      if (!entry.getValue().isDirectory()) {
+        files.add(entry);
+        totalSize += entry.getValue().length();
+      }
+    }
+    int partitionCount = totalSize < threshold ? 1 : Math.max(1, Math.min(maxPartitions, files.size()));
+    if (partitionCount == 1) {
+      return Collections.singletonList(entries);
+    }
+
+    List<Map<String, File>> partitions = new ArrayList<>();
+    long[] partitionSizes = new long[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      partitions.add(new LinkedHashMap<>());
+    }
+    for (Map.Entry<String, File> entry : entries.entrySet()) {
+      if (entry.getValue().isDirectory()) {
+        partitions.get(0).put(entry.getKey(), entry.getValue());
+      }
+    }
+    // largest files first, each one into the currently smallest partition
+    files.sort(Comparator.comparingLong((Map.Entry<String, File> e) -> e.getValue().length()).reversed());
+    for (Map.Entry<String, File> entry : files) {
+      int smallest = 0;
+      for (int i = 1; i < partitionCount; i++) {
+        if (partitionSizes[i] < partitionSizes[smallest]) {
+          smallest = i;
+        }
+      }
+      partitions.get(smallest).put(entry.getKey(), entry.getValue());
+      partitionSizes[smallest] += entry.getValue().length();
+    }
+    return partitions;
+  }
+
+  /**
+   * @return the compression level configured with {@link AngelaProperties#TRANSFER_COMPRESSION_LEVEL}
+   */
+  public static int compressionLevel() {
+    String value = TRANSFER_COMPRESSION_LEVEL.getValue();
+    int level;
+    try {
+      level = Integer.parseInt(value);
+    } catch (NumberFormatException nfe) {
+      throw new IllegalArgumentException("Invalid value for " + TRANSFER_COMPRESSION_LEVEL.getPropertyName() + ": " + value, nfe);
+    }
+    if (level < 0 || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid value for " + TRANSFER_COMPRESSION_LEVEL.getPropertyName() + ": " + value
+          + ", expected a level between 0 (no compression) and " + Deflater.BEST_COMPRESSION);
+    }
+    return level;
+  }
+
+  private static void send(SocketChannel channel, int compressionLevel, EntriesWriter entriesWriter) throws IOException {
+    writeByte(channel, (byte) compressionLevel);
+    int level = readByte(channel);
+    logger.debug("sending files with compression level {}", level);
+
+    Deflater deflater = level == 0 ? null : new Deflater(level);
+    try {
+      if (deflater == null) {
+        entriesWriter.write(channel);
+        writeByte(channel, END);
+      } else {
+        DeflaterOutputStream dos = new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, BUFFER_SIZE);
+        WritableByteChannel out = Channels.newChannel(dos);
+        entriesWriter.write(out);
+        writeByte(out, END);
+        dos.finish();
+        dos.flush();
+      }
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+
+    byte status = readByte(channel);
+    if (status != STATUS_OK) {
+      throw new IOException("Remote end failed to receive files: " + readString(channel));
+    }
+  }
+
+  private static void sendFile(WritableByteChannel channel, File file, String path) throws IOException {
+    FileMetadata fileMetadata = new FileMetadata(path, file);
+    if (!file.exists()) {
+      logger.debug("skipping upload of non-existent file {}", fileMetadata);
+      return;
+    }
+    logger.debug("uploading {}", fileMetadata);
+
+    if (file.isDirectory()) {
+      writeHeader(channel, DIRECTORY, fileMetadata);
+      File[] files = file.listFiles();
+      if (files == null) {
+        throw new IOException("Error listing folder " + file);
+      }
+      String parentPath = path == null ? "" : path + "/";
+      for (File _file : files) {
+        sendFile(channel, _file, parentPath + file.getName());
+      }
+    } else {
+      writeFileEntry(channel, file, fileMetadata);
+    }
+  }
+
+  private static void writeFileEntry(WritableByteChannel channel, File file, FileMetadata fileMetadata) throws IOException {
+    writeHeader(channel, FILE, fileMetadata);
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long position = 0;
+      long length = fileMetadata.getLength();
+      while (position < length) {
+        long transferred = fileChannel.transferTo(position, length - position, channel);
+        if (transferred == 0 && position >= fileChannel.size()) {
+          throw new IOException("File " + file + " shrunk while being uploaded");
+        }
+        position += transferred;
+      }
+    }
+    logger.debug("uploaded {}", fileMetadata);
+  }
+
+  public static void receive(SocketChannel channel, Path destDir) throws IOException {
+    receive(channel, destDir, (dir, relativePaths) -> {
+    });
+  }
+
+  /**
+   * Receive files, and let the handler process them before the sender gets notified of the outcome of the transfer.
+   */
+  public static void receive(SocketChannel channel, Path destDir, ReceivedFilesHandler handler) throws IOException {
+    int proposedLevel = readByte(channel);
+    int level = proposedLevel >= 0 && proposedLevel <= Deflater.BEST_COMPRESSION ? proposedLevel : 0;
+    writeByte(channel, (byte) level);
+    logger.debug("receiving files with compression level {}", level);
+
+    Inflater inflater = level == 0 ? null : new Inflater();
+    try {
+      ReadableByteChannel in = inflater == null ? channel :
+          Channels.newChannel(new InflaterInputStream(Channels.newInputStream(channel), inflater, BUFFER_SIZE));
+      receiveEntries(channel, in, destDir, handler);
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  private static void receiveEntries(SocketChannel channel, ReadableByteChannel in, Path destDir, ReceivedFilesHandler handler) throws IOException {
+    List<String> receivedFiles = new ArrayList<>();
+    try {
+      Files.createDirectories(destDir);
+      Path root = destDir.toAbsolutePath().normalize();
+      while (true) {
+        byte tag = readByte(in);
+        if (tag == END) {
+          break;
+        }
+        if (tag != DIRECTORY && tag != FILE && tag != STREAM) {
+          throw new IOException("Unexpected entry tag " + tag);
+        }
+        FileMetadata fileMetadata = readHeader(in, tag);
+        Path target = resolveTarget(root, fileMetadata);
+        logger.debug("downloading {}", fileMetadata);
+
+        if (tag == DIRECTORY) {
+          Files.createDirectories(target);
+        } else if (tag == STREAM) {
+          receiveFile(target, fileChannel -> {
+            ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+            while (true) {
+              int chunkLength = readFully(in, Integer.BYTES).getInt();
+              if (chunkLength == 0) {
+                break;
+              }
+              if (chunkLength < 0 || chunkLength > BUFFER_SIZE) {
+                throw new IOException("Invalid chunk length " + chunkLength + " while downloading " + fileMetadata);
+              }
+              chunk.clear();
+              chunk.limit(chunkLength);
+              readFully(in, chunk);
+              chunk.flip();
+              writeFully(fileChannel, chunk);
+            }
+          });
+          // only the received files, not what the destination already contained
+          setCorrectPermissions(target, 0);
+          logger.debug("downloaded {}", fileMetadata);
+          receivedFiles.add(fileMetadata.getPath() == null ? fileMetadata.getName() : fileMetadata.getPath() + "/" + fileMetadata.getName());
+        } else {
+          receiveFile(target, fileChannel -> {
+            long position = 0;
+            long length = fileMetadata.getLength();
+            while (position < length) {
+              long transferred = fileChannel.transferFrom(in, position, length - position);
+              if (transferred == 0) {
+                throw new EOFException("Premature end of stream while downloading " + fileMetadata);
+              }
+              position += transferred;
+            }
+          });
+          setCorrectPermissions(target, 0);
+          logger.debug("downloaded {}", fileMetadata);
+          receivedFiles.add(fileMetadata.getPath() == null ? fileMetadata.getName() : fileMetadata.getPath() + "/" + fileMetadata.getName());
+        }
+      }
+      handler.received(destDir, receivedFiles);
+    } catch (IOException | RuntimeException e) {
+      try {
+        writeByte(channel, STATUS_ERROR);
+        writeString(channel, String.valueOf(e));
+      } catch (IOException ioe) {
+        e.addSuppressed(ioe);
+      }
+      throw e;
+    }
+    writeByte(channel, STATUS_OK);
+  }
+
+  /**
+   * Write into a temporary file which then replaces the target, so that an existing file, possibly hard-linked from
+   * other installations, is never modified in place.
+   */
+  private static void receiveFile(Path target, ContentReceiver contentReceiver) throws IOException {
+    Files.createDirectories(target.getParent());
+    // not Files.createTempFile, which would restrict the permissions to the owner
+    Path tmp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+    try {
+      try (FileChannel fileChannel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        contentReceiver.receive(fileChannel);
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @FunctionalInterface
+  private interface ContentReceiver {
+    void receive(FileChannel fileChannel) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface EntriesWriter {
+    void write(WritableByteChannel out) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface ReceivedFilesHandler {
+    /**
+     * @param destDir the directory the files were written to
+     * @param relativePaths the paths of the received files, relative to {@code destDir} and using '/' as separator
+     */
+    void received(Path destDir, List<String> relativePaths) throws IOException;
+  }
+
+  private static void writeHeader(WritableByteChannel channel, byte tag, FileMetadata fileMetadata) throws IOException {
+    writeByte(channel, tag);
+    writeString(channel, fileMetadata.getPath() == null ? "" : fileMetadata.getPath());
+    writeString(channel, fileMetadata.getName());
+    if (tag == FILE) {
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+      buffer.putLong(fileMetadata.getLength()).flip();
+      writeFully(channel, buffer);
+    }
+  }
+
+  private static FileMetadata readHeader(ReadableByteChannel channel, byte tag) throws IOException {
+    String path = readString(channel);
+    String name = readString(channel);
+    if (name.isEmpty()) {
+      throw new IOException("Refusing to download entry with illegal path '" + path + "/" + name + "'");
+    }
+    long length = tag == FILE ? readFully(channel, Long.BYTES).getLong() : 0L;
+    return new FileMetadata(path.isEmpty() ? null : path, name, length, tag == DIRECTORY);
+  }
+
+  /**
+   * @param root the absolute and normalized destination directory
+   * @throws IOException if the entry would land outside of the destination directory, e.g. it is absolute or
+   * contains {@code ..} segments climbing out of it
+   */
+  private static Path resolveTarget(Path root, FileMetadata fileMetadata) throws IOException {
+    Path target;
+    try {
+      target = root.resolve(fileMetadata.getPathName().replace('/', File.separatorChar)).normalize();
+    } catch (InvalidPathException ipe) {
+      throw new IOException("Refusing to download entry with illegal path '" + fileMetadata.getPathName() + "'", ipe);
+    }
+    if (!target.startsWith(root) || target.equals(root)) {
+      throw new IOException("Refusing to download entry with illegal path '" + fileMetadata.getPathName() + "'");
+    }
+    return target;
+  }
+
+  private static void writeByte(WritableByteChannel channel, byte b) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1);
+    buffer.put(b).flip();
+    writeFully(channel, buffer);
+  }
+
+  private static byte readByte(ReadableByteChannel channel) throws IOException {
+    return readFully(channel, 1).get();
+  }
+
+  private static void writeString(WritableByteChannel channel, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+    buffer.putInt(bytes.length).put(bytes).flip();
+    writeFully(channel, buffer);
+  }
+
+  private static String readString(ReadableByteChannel channel) throws IOException {
+    int length = readFully(channel, Integer.BYTES).getInt();
+    ByteBuffer buffer = readFully(channel, length);
+    return new String(buffer.array(), 0, length, StandardCharsets.UTF_8);
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static ByteBuffer readFully(ReadableByteChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    readFully(channel, buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Premature end of stream");
+      }
+    }
+  }
+}
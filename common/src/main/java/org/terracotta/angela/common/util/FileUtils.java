@@ -39,15 +39,10 @@ public class FileUtils {
 
     try (Stream<Path> walk = Files.walk(dest)) {
       walk.filter(Files::isRegularFile)
-          .filter(path -> {
-            String name = path.getFileName().toString();
-            return name.endsWith(".sh") || name.endsWith("tms.jar");
-          })
+          .filter(FileUtils::needsExecutePermissions)
           .forEach(path -> {
             try {
-              Set<PosixFilePermission> perms = new HashSet<>(Files.getPosixFilePermissions(path));
-              perms.addAll(EnumSet.of(OWNER_EXECUTE, GROUP_EXECUTE, OTHERS_EXECUTE));
-              Files.setPosixFilePermissions(path, perms);
+              addExecutePermissions(path);
             } catch (IOException ioe) {
               throw new UncheckedIOException(ioe);
             }
@@ -56,4 +51,28 @@ public class FileUtils {
       throw new UncheckedIOException(ioe);
     }
   }
+
+  /**
+   * Give a single freshly extracted file the permissions {@link #setCorrectPermissions(Path)} would, plus the execute
+   * permissions found in the unix mode of its archive entry.
+   */
+  static void setCorrectPermissions(Path file, int unixMode) throws IOException {
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      return;
+    }
+    if ((unixMode & 0111) != 0 || needsExecutePermissions(file)) {
+      addExecutePermissions(file);
+    }
+  }
+
+  private static boolean needsExecutePermissions(Path path) {
+    String name = path.getFileName().toString();
+    return name.endsWith(".sh") || name.endsWith("tms.jar");
+  }
+
+  private static void addExecutePermissions(Path path) throws IOException {
+    Set<PosixFilePermission> perms = new HashSet<>(Files.getPosixFilePermissions(path));
+    perms.addAll(EnumSet.of(OWNER_EXECUTE, GROUP_EXECUTE, OTHERS_EXECUTE));
+    Files.setPosixFilePermissions(path, perms);
+  }
 }
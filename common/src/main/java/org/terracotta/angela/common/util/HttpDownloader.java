@@ -0,0 +1,453 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Downloads a file over HTTP, splitting it in segments fetched concurrently with range requests when the server
+ * supports them.
+ * <p>
+ * The content is downloaded to {@code <dest>.part}, and the segments already downloaded are recorded in
+ * {@code <dest>.part.state}, so that a download that failed half-way resumes where it stopped the next time it is
+ * attempted. The MD5 of the content is computed while the segments arrive, so that verifying it does not require
+ * reading the file again once the download is complete.
+ */
+public class HttpDownloader {
+  private final static Logger logger = LoggerFactory.getLogger(HttpDownloader.class);
+
+  private static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int parallelism;
+  private final int segmentSize;
+  private final int maxAttempts;
+
+  public HttpDownloader(int parallelism) {
+    this(parallelism, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_ATTEMPTS);
+  }
+
+  HttpDownloader(int parallelism, int segmentSize, int maxAttempts) {
+    if (parallelism < 1 || segmentSize < 1 || maxAttempts < 1) {
+      throw new IllegalArgumentException("Invalid downloader configuration: parallelism=" + parallelism + ", segmentSize=" + segmentSize + ", maxAttempts=" + maxAttempts);
+    }
+    this.parallelism = parallelism;
+    this.segmentSize = segmentSize;
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * @param expectedMd5 the expected MD5 of the content as an hex string, or null if it must not be checked
+   * @throws IOException if the download failed, in which case what was downloaded so far is kept to be resumed,
+   *                     unless the content did not match the expected MD5
+   */
+  public void download(URL url, Path dest, String expectedMd5) throws IOException {
+    Path part = Paths.get(dest + ".part");
+    Path state = Paths.get(dest + ".part.state");
+
+    URLConnection probe = url.openConnection();
+    probe.setRequestProperty("Range", "bytes=0-0");
+    String digest;
+    if (probe instanceof HttpURLConnection && ((HttpURLConnection) probe).getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+      HttpURLConnection httpProbe = (HttpURLConnection) probe;
+      long length = parseTotalLength(httpProbe.getHeaderField("Content-Range"));
+      String validator = validator(httpProbe);
+      // redirects were resolved by the probe, no need to follow them again for every segment
+      URL resolvedUrl = httpProbe.getURL();
+      httpProbe.disconnect();
+      if (length < 0) {
+        digest = downloadInOnePiece(url.openConnection(), url, part);
+      } else {
+        digest = downloadInSegments(resolvedUrl, part, state, length, validator);
+      }
+    } else {
+      // the range header was ignored, so the probe is downloading the whole content already
+      digest = downloadInOnePiece(probe, url, part);
+    }
+
+    if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(digest)) {
+      Files.deleteIfExists(part);
+      Files.deleteIfExists(state);
+      throw new IOException("MD5 of " + url + " is " + digest + " but " + expectedMd5 + " was expected");
+    }
+    Files.move(part, dest, REPLACE_EXISTING);
+    Files.deleteIfExists(state);
+    logger.debug("Success -> file downloaded successfully");
+  }
+
+  /**
+   * Download a small file, like a secure hash file, in a single request: neither probed for range support nor
+   * resumable.
+   */
+  public static void downloadSmallFile(URL url, Path dest) throws IOException {
+    Path part = Paths.get(dest + ".part");
+    downloadInOnePiece(url.openConnection(), url, part);
+    Files.move(part, dest, REPLACE_EXISTING);
+  }
+
+  /**
+   * Read the hash of an MD5 file, which may contain the name of the hashed file after the hash.
+   *
+   * @return the hash as an hex string
+   */
+  public static String readMd5(Path md5File) throws IOException {
+    return new String(Files.readAllBytes(md5File), StandardCharsets.US_ASCII).trim().split("\\s+")[0];
+  }
+
+  private static String downloadInOnePiece(URLConnection connection, URL url, Path part) throws IOException {
+    if (connection instanceof HttpURLConnection) {
+      checkResponseCode((HttpURLConnection) connection, HttpURLConnection.HTTP_OK);
+    }
+    long length = connection.getContentLengthLong();
+    logger.info("Downloading {} from {}", humanReadableByteCount(length), url);
+
+    MessageDigest md = newMd5();
+    Progress progress = new Progress(length, 0);
+    try (InputStream is = connection.getInputStream();
+         FileChannel fileChannel = FileChannel.open(part, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int count;
+      while ((count = is.read(buffer)) != -1) {
+        md.update(buffer, 0, count);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+        while (byteBuffer.hasRemaining()) {
+          fileChannel.write(byteBuffer);
+        }
+        progress.add(count);
+      }
+    }
+    return toHex(md.digest());
+  }
+
+  private String downloadInSegments(URL url, Path part, Path statePath, long length, String validator) throws IOException {
+    int segmentCount = (int) ((length + segmentSize - 1) / segmentSize);
+    DownloadState state = DownloadState.load(statePath, length, validator, segmentCount);
+    if (state == null || !Files.isRegularFile(part) || Files.size(part) != length) {
+      state = new DownloadState(statePath, length, validator, new boolean[segmentCount]);
+      state.save();
+      try (FileChannel fileChannel = FileChannel.open(part, CREATE, WRITE, TRUNCATE_EXISTING)) {
+        // allocate the file so that segments can be written at their position in any order
+        fileChannel.write(ByteBuffer.allocate(1), length - 1);
+      }
+    } else {
+      logger.info("Resuming download of {}, {} of {} segment(s) already downloaded", url, state.doneCount(), segmentCount);
+    }
+
+    Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+    long alreadyDownloaded = 0;
+    for (int i = 0; i < segmentCount; i++) {
+      if (state.isDone(i)) {
+        alreadyDownloaded += segmentLength(i, length);
+      } else {
+        pending.add(i);
+      }
+    }
+    logger.info("Downloading {} from {} in {} segment(s) over {} connection(s)", humanReadableByteCount(length), url, pending.size(), Math.min(parallelism, Math.max(1, pending.size())));
+
+    Progress progress = new Progress(length, alreadyDownloaded);
+    MessageDigest md = newMd5();
+    int threads = Math.min(parallelism, Math.max(1, pending.size()));
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try (FileChannel fileChannel = FileChannel.open(part, READ, WRITE)) {
+      for (int i = 0; i < threads; i++) {
+        DownloadState finalState = state;
+        executorService.execute(() -> {
+          Integer segment;
+          while ((segment = pending.poll()) != null && !finalState.isFailed()) {
+            try {
+              downloadSegment(url, fileChannel, segment, length, progress);
+              finalState.markDone(segment);
+            } catch (Throwable t) {
+              // anything left uncaught would leave the hashing thread waiting for the segment forever
+              finalState.fail(t);
+            }
+          }
+        });
+      }
+
+      // hash the segments in order as soon as they are available, reading them back while they are still in the page cache
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      for (int i = 0; i < segmentCount; i++) {
+        state.awaitDone(i);
+        long position = (long) i * segmentSize;
+        long end = position + segmentLength(i, length);
+        while (position < end) {
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), end - position));
+          int read = fileChannel.read(buffer, position);
+          if (read < 0) {
+            throw new IOException("Unexpected end of " + part + " at position " + position);
+          }
+          md.update(buffer.array(), 0, read);
+          position += read;
+        }
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading " + url, ie);
+    } finally {
+      executorService.shutdownNow();
+    }
+    return toHex(md.digest());
+  }
+
+  private void downloadSegment(URL url, FileChannel fileChannel, int segment, long length, Progress progress) throws IOException {
+    long start = (long) segment * segmentSize;
+    long end = start + segmentLength(segment, length);
+    long position = start;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+        checkResponseCode(connection, HttpURLConnection.HTTP_PARTIAL);
+        try (InputStream is = connection.getInputStream()) {
+          byte[] buffer = new byte[BUFFER_SIZE];
+          int count;
+          while (position < end && (count = is.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+            while (byteBuffer.hasRemaining()) {
+              position += fileChannel.write(byteBuffer, position);
+            }
+            progress.add(count);
+          }
+        }
+        if (position < end) {
+          throw new IOException("Connection closed after " + (position - start) + " of " + (end - start) + " bytes of segment " + segment);
+        }
+        return;
+      } catch (IOException ioe) {
+        if (attempt >= maxAttempts) {
+          throw new IOException("Cannot download segment " + segment + " of " + url + " after " + attempt + " attempt(s)", ioe);
+        }
+        logger.warn("Error downloading segment {} of {} (attempt {}/{}), retrying from byte {}", segment, url, attempt, maxAttempts, position, ioe);
+        try {
+          Thread.sleep(500L * attempt);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while downloading " + url, ie);
+        }
+      }
+    }
+  }
+
+  private long segmentLength(int segment, long length) {
+    return Math.min(segmentSize, length - (long) segment * segmentSize);
+  }
+
+  private static void checkResponseCode(HttpURLConnection connection, int expected) throws IOException {
+    int responseCode = connection.getResponseCode();
+    if (responseCode != expected) {
+      connection.disconnect();
+      throw new IOException("Unexpected response " + responseCode + " from " + connection.getURL() + ", expected " + expected);
+    }
+  }
+
+  private static long parseTotalLength(String contentRange) {
+    // bytes 0-0/12345
+    if (contentRange == null || contentRange.indexOf('/') < 0) {
+      return -1;
+    }
+    String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+    try {
+      return "*".equals(total) ? -1 : Long.parseLong(total);
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  private static String validator(HttpURLConnection connection) {
+    String etag = connection.getHeaderField("ETag");
+    if (etag != null) {
+      return etag;
+    }
+    String lastModified = connection.getHeaderField("Last-Modified");
+    return lastModified == null ? "" : lastModified;
+  }
+
+  private static MessageDigest newMd5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new RuntimeException("Missing MD5 secure hash implementation", nsae);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  // Adapted from https://programming.guide/java/formatting-byte-size-to-human-readable-format.html
+  static String humanReadableByteCount(long bytes) {
+    if (bytes < 0) return "unknown size";
+    if (bytes < 1024) return bytes + " B";
+    int exp = (int) (Math.log(bytes) / Math.log(1024));
+    String pre = "" + "KMGTPE".charAt(exp - 1);
+    return String.format("%.1f %sB", bytes / Math.pow(1024, exp), pre);
+  }
+
+  private static class Progress {
+    private final long length;
+    private final AtomicLong downloaded;
+    private long lastDecile = -1;
+
+    Progress(long length, long alreadyDownloaded) {
+      this.length = length;
+      this.downloaded = new AtomicLong(alreadyDownloaded);
+    }
+
+    void add(int count) {
+      long len = downloaded.addAndGet(count);
+      if (length <= 0) {
+        return;
+      }
+      long decile = 10 * len / length;
+      synchronized (this) {
+        if (decile > lastDecile) {
+          logger.info("Download progress = {}%", decile * 10);
+          lastDecile = decile;
+        }
+      }
+    }
+  }
+
+  /**
+   * The segments of a download that are complete, persisted so that the download can be resumed.
+   */
+  private static class DownloadState {
+    private final Path path;
+    private final long length;
+    private final String validator;
+    private final boolean[] done;
+    private Throwable failure;
+
+    DownloadState(Path path, long length, String validator, boolean[] done) {
+      this.path = path;
+      this.length = length;
+      this.validator = validator;
+      this.done = done;
+    }
+
+    /**
+     * @return the persisted state, or null if there is none or it does not describe the same content
+     */
+    static DownloadState load(Path path, long length, String validator, int segmentCount) {
+      try {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.size() != 3 || Long.parseLong(lines.get(0)) != length || !lines.get(1).equals(validator) || lines.get(2).length() != segmentCount) {
+          return null;
+        }
+        boolean[] done = new boolean[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+          done[i] = lines.get(2).charAt(i) == '1';
+        }
+        return new DownloadState(path, length, validator, done);
+      } catch (IOException | NumberFormatException e) {
+        return null;
+      }
+    }
+
+    synchronized boolean isDone(int segment) {
+      return done[segment];
+    }
+
+    synchronized int doneCount() {
+      int count = 0;
+      for (boolean d : done) {
+        if (d) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    synchronized boolean isFailed() {
+      return failure != null;
+    }
+
+    synchronized void markDone(int segment) throws IOException {
+      done[segment] = true;
+      save();
+      notifyAll();
+    }
+
+    synchronized void fail(Throwable t) {
+      if (failure == null) {
+        failure = t;
+      } else {
+        failure.addSuppressed(t);
+      }
+      notifyAll();
+    }
+
+    synchronized void awaitDone(int segment) throws IOException, InterruptedException {
+      while (!done[segment]) {
+        if (failure != null) {
+          throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+        }
+        wait();
+      }
+    }
+
+    synchronized void save() throws IOException {
+      char[] segments = new char[done.length];
+      for (int i = 0; i < done.length; i++) {
+        segments[i] = done[i] ? '1' : '0';
+      }
+      List<String> lines = new ArrayList<>(Arrays.asList(Long.toString(length), Objects.toString(validator, ""), new String(segments)));
+      Path tmp = Paths.get(path + ".tmp");
+      Files.write(tmp, lines, StandardCharsets.UTF_8);
+      Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+  }
+}
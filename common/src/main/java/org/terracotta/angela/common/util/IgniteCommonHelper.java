@@ -20,26 +20,19 @@ package org.terracotta.angela.common.util;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.cluster.ClusterGroup;
 import org.apache.ignite.cluster.ClusterNode;
-import org.apache.ignite.configuration.CollectionConfiguration;
 import org.apache.ignite.lang.IgniteCallable;
 import org.apache.ignite.lang.IgniteFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terracotta.angela.common.topology.InstanceId;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class IgniteCommonHelper {
   private final static Logger logger = LoggerFactory.getLogger(IgniteCommonHelper.class);
 
-  public static BlockingQueue<Object> fileTransferQueue(Ignite ignite, InstanceId instanceId) {
-    return ignite.queue(instanceId + "@file-transfer-queue", 100, new CollectionConfiguration());
-  }
-
   public static void checkForDuplicateAgent(Ignite ignite, String nodeName) {
     ClusterGroup location = ignite.cluster().forAttribute("nodename", nodeName);
     IgniteFuture<Collection<Object>> future = ignite.compute(location).broadcastAsync((IgniteCallable<Object>) () -> 0);
@@ -18,28 +18,80 @@ package org.terracotta.angela.common.util;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.zip.GZIPInputStream;
 
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
 
 public class KitUtils {
+  private static final int EXTRACTION_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+  // tar entries up to that size are decompressed in memory and handed over to the writer threads
+  private static final int MAX_BUFFERED_ENTRY_SIZE = 8 * 1024 * 1024;
+  private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Extract a zip archive. The archive is read with random access so that its entries are decompressed concurrently.
+   */
   public static void extractZip(Path kitInstaller, Path kitDest) {
-    try (ArchiveInputStream archiveIs = new ZipArchiveInputStream(new BufferedInputStream(Files.newInputStream(kitInstaller)))) {
-      extractArchive(archiveIs, kitDest);
+    ForkJoinPool pool = new ForkJoinPool(EXTRACTION_PARALLELISM);
+    try (ZipFile zipFile = new ZipFile(kitInstaller.toFile())) {
+      Set<Path> createdDirectories = new HashSet<>();
+      List<ZipArchiveEntry> files = new ArrayList<>();
+      for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+        Path pathEntryOutput = resolveEntry(kitDest, entry);
+        if (entry.isDirectory()) {
+          createDirectories(pathEntryOutput, createdDirectories);
+        } else {
+          createDirectories(pathEntryOutput.getParent(), createdDirectories);
+          files.add(entry);
+        }
+      }
+
+      // start with the largest entries so that a big jar does not end up being extracted alone at the end
+      files.sort(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed());
+      List<Future<?>> extractions = new ArrayList<>();
+      for (ZipArchiveEntry entry : files) {
+        extractions.add(pool.submit(() -> {
+          Path pathEntryOutput = resolveEntry(kitDest, entry);
+          try (InputStream is = zipFile.getInputStream(entry)) {
+            Files.copy(is, pathEntryOutput);
+          }
+          setCorrectPermissions(pathEntryOutput, entry.getUnixMode());
+          return null;
+        }));
+      }
+      awaitAll(extractions);
     } catch (IOException ioe) {
       ioe.printStackTrace();
       throw new UncheckedIOException("Error when extracting installer package", ioe);
+    } finally {
+      pool.shutdownNow();
     }
-    setCorrectPermissions(kitDest);
   }
 
   public static void extractArchive(ArchiveInputStream archiveIs, Path pathOutput) throws IOException {
@@ -60,15 +112,57 @@ public class KitUtils {
     }
   }
 
+  /**
+   * Extract a tar.gz archive. The calling thread decompresses the archive while a pool of threads writes the entries
+   * to disk, so that inflating the archive is never waiting for the disk. Entries larger than
+   * {@link #MAX_BUFFERED_ENTRY_SIZE} are written by the calling thread directly.
+   */
   public static void extractTarGz(Path kitInstaller, Path kitDest) {
-    try (ArchiveInputStream archiveIs = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files
+    ExecutorService writers = Executors.newFixedThreadPool(EXTRACTION_PARALLELISM);
+    Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+    try (TarArchiveInputStream archiveIs = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files
         .newInputStream(kitInstaller))))) {
-      extractArchive(archiveIs, kitDest);
+      Set<Path> createdDirectories = new HashSet<>();
+      List<Future<?>> writes = new ArrayList<>();
+      TarArchiveEntry entry;
+      while ((entry = archiveIs.getNextTarEntry()) != null) {
+        Path pathEntryOutput = resolveEntry(kitDest, entry);
+        if (entry.isDirectory()) {
+          createDirectories(pathEntryOutput, createdDirectories);
+          continue;
+        }
+        createDirectories(pathEntryOutput.getParent(), createdDirectories);
+
+        int mode = entry.getMode();
+        if (entry.getSize() > MAX_BUFFERED_ENTRY_SIZE) {
+          Files.copy(archiveIs, pathEntryOutput);
+          setCorrectPermissions(pathEntryOutput, mode);
+          continue;
+        }
+
+        int size = (int) entry.getSize();
+        bufferedBytes.acquire(size);
+        byte[] content = IOUtils.toByteArray(archiveIs);
+        writes.add(writers.submit(() -> {
+          try {
+            Files.write(pathEntryOutput, content, CREATE_NEW);
+            setCorrectPermissions(pathEntryOutput, mode);
+            return null;
+          } finally {
+            bufferedBytes.release(size);
+          }
+        }));
+      }
+      awaitAll(writes);
     } catch (IOException ioe) {
       ioe.printStackTrace();
       throw new UncheckedIOException("Error when extracting installer package", ioe);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted when extracting installer package", ie);
+    } finally {
+      writers.shutdownNow();
     }
-    setCorrectPermissions(kitDest);
   }
 
   public static String getParentDirFromTarGz(Path localInstaller) {
@@ -80,4 +174,40 @@ public class KitUtils {
       throw new UncheckedIOException("Error when getting parent dir from archive", ioe);
     }
   }
+
+  private static Path resolveEntry(Path dest, ArchiveEntry entry) throws IOException {
+    Path resolved = dest.resolve(entry.getName()).normalize();
+    if (!resolved.startsWith(dest.normalize())) {
+      throw new IOException("Illegal archive entry '" + entry.getName() + "' outside of " + dest);
+    }
+    return resolved;
+  }
+
+  private static void createDirectories(Path directory, Set<Path> createdDirectories) throws IOException {
+    if (createdDirectories.add(directory)) {
+      Files.createDirectories(directory);
+    }
+  }
+
+  private static void awaitAll(List<Future<?>> futures) throws IOException {
+    IOException exception = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException | InterruptedException e) {
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+        if (exception == null) {
+          exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } else {
+          exception.addSuppressed(cause);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
 }
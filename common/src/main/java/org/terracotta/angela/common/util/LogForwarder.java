@@ -0,0 +1,223 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.terracotta.angela.common.AngelaProperties.LOG_FORWARDING_CAPACITY;
+import static org.terracotta.angela.common.AngelaProperties.LOG_FORWARDING_POLICY;
+
+/**
+ * Forwards the output lines of a process to a logger without making the thread pumping the output wait for the
+ * logger: lines go into a bounded ring buffer per process, which a single writer thread shared by all the processes
+ * drains into the loggers.
+ * <p>
+ * When the buffer is full, lines are either dropped and counted, or the pumping thread waits for room, according
+ * to {@link org.terracotta.angela.common.AngelaProperties#LOG_FORWARDING_POLICY}. The number of dropped lines is
+ * logged once the buffer got drained. Lines the logger fails on are dropped as well.
+ */
+public class LogForwarder implements Consumer<String> {
+  private final static Logger logger = LoggerFactory.getLogger(LogForwarder.class);
+
+  public enum Policy {
+    DROP, BLOCK
+  }
+
+  private static final int BATCH_SIZE = 256;
+  private static final BlockingQueue<LogForwarder> READY = new LinkedBlockingQueue<>();
+
+  static {
+    Thread writer = new Thread(LogForwarder::writeForever, "angela-log-forwarder");
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(LogForwarder::writeAll, "angela-log-forwarder-flush"));
+  }
+
+  private final Logger target;
+  private final String label;
+  private final Policy policy;
+  private final String[] labels;
+  private final String[] lines;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  // guarded by this
+  private int head;
+  private int size;
+  private long forwardedLines;
+  private long droppedLines;
+  private long unreportedDroppedLines;
+
+  /**
+   * Create a forwarder configured by {@link org.terracotta.angela.common.AngelaProperties#LOG_FORWARDING_CAPACITY}
+   * and {@link org.terracotta.angela.common.AngelaProperties#LOG_FORWARDING_POLICY}.
+   *
+   * @param label the prefix of the forwarded lines, or null for none
+   */
+  public LogForwarder(Logger target, String label) {
+    this(target, label, Integer.parseInt(LOG_FORWARDING_CAPACITY.getValue()), configuredPolicy());
+  }
+
+  public LogForwarder(Logger target, String label, int capacity, Policy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.target = target;
+    this.label = label;
+    this.policy = policy;
+    this.labels = new String[capacity];
+    this.lines = new String[capacity];
+  }
+
+  public static Policy configuredPolicy() {
+    String value = LOG_FORWARDING_POLICY.getValue();
+    try {
+      return Policy.valueOf(value.toUpperCase());
+    } catch (IllegalArgumentException iae) {
+      throw new IllegalArgumentException("Invalid value for " + LOG_FORWARDING_POLICY.getPropertyName() + ": " + value + ", expected one of drop, block", iae);
+    }
+  }
+
+  @Override
+  public void accept(String line) {
+    forward(label, line);
+  }
+
+  /**
+   * Forward a line with a label that is not the one of this forwarder.
+   */
+  public void forward(String label, String line) {
+    synchronized (this) {
+      while (size == lines.length) {
+        if (policy == Policy.DROP) {
+          droppedLines++;
+          unreportedDroppedLines++;
+          return;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          droppedLines++;
+          unreportedDroppedLines++;
+          return;
+        }
+      }
+      int tail = (head + size) % lines.length;
+      labels[tail] = label;
+      lines[tail] = line;
+      size++;
+    }
+    schedule();
+  }
+
+  public synchronized long getForwardedLines() {
+    return forwardedLines;
+  }
+
+  public synchronized long getDroppedLines() {
+    return droppedLines;
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      READY.add(this);
+    }
+  }
+
+  /**
+   * Log at most {@link #BATCH_SIZE} lines, so that a chatty process does not delay the other ones for long.
+   */
+  private void write() {
+    String[] batchLabels;
+    String[] batchLines;
+    int count;
+    long dropped;
+    synchronized (this) {
+      count = Math.min(size, BATCH_SIZE);
+      batchLabels = new String[count];
+      batchLines = new String[count];
+      for (int i = 0; i < count; i++) {
+        batchLabels[i] = labels[head];
+        batchLines[i] = lines[head];
+        labels[head] = null;
+        lines[head] = null;
+        head = (head + 1) % lines.length;
+      }
+      size -= count;
+      dropped = size == 0 ? unreportedDroppedLines : 0L;
+      if (size == 0) {
+        unreportedDroppedLines = 0L;
+      }
+      notifyAll();
+    }
+
+    int logged = 0;
+    boolean reported = false;
+    try {
+      for (; logged < count; logged++) {
+        if (batchLabels[logged] == null) {
+          target.info(batchLines[logged]);
+        } else {
+          target.info("[{}] {}", batchLabels[logged], batchLines[logged]);
+        }
+      }
+      if (dropped > 0) {
+        target.warn("{}{} line(s) dropped because the log forwarding buffer was full", label == null ? "" : "[" + label + "] ", dropped);
+      }
+      reported = true;
+    } finally {
+      // even if the logger failed, the lines left in the buffer must still get written
+      scheduled.set(false);
+      boolean pending;
+      synchronized (this) {
+        // the lines the logger failed on are dropped, and reported with a later batch
+        forwardedLines += logged;
+        droppedLines += count - logged;
+        unreportedDroppedLines += count - logged + (reported ? 0L : dropped);
+        pending = size > 0;
+      }
+      if (pending) {
+        schedule();
+      }
+    }
+  }
+
+  private static void writeForever() {
+    while (true) {
+      try {
+        READY.take().write();
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        logger.error("Error forwarding log lines", e);
+      }
+    }
+  }
+
+  private static void writeAll() {
+    LogForwarder forwarder;
+    while ((forwarder = READY.poll()) != null) {
+      forwarder.write();
+    }
+  }
+}
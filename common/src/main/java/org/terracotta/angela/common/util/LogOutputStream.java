@@ -17,9 +17,10 @@
 
 package org.terracotta.angela.common.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Base class to connect a logging system to the output and/or
@@ -38,9 +39,9 @@ public abstract class LogOutputStream extends OutputStream {
   /** Linefeed */
   private static final int LF = 0x0a;
 
-  /** the internal buffer */
-  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
-      INTIAL_SIZE);
+  /** the internal buffer, holding the start of a line that spans several writes */
+  private byte[] buffer = new byte[INTIAL_SIZE];
+  private int count;
 
   byte lastReceivedByte;
 
@@ -61,18 +62,55 @@ public abstract class LogOutputStream extends OutputStream {
         processBuffer();
       }
     } else {
-      buffer.write(cc);
+      append(c);
     }
     lastReceivedByte = c;
   }
 
+  /**
+   * Write a block of characters to the output stream. Lines that are entirely contained in the block are processed
+   * straight from it, without being copied to the internal buffer.
+   *
+   * @param b the array containing the data
+   * @param off the offset into the array where data starts
+   * @param len the length of block
+   * @see java.io.OutputStream#write(byte[], int, int)
+   */
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    final int end = off + len;
+    int blockStartOffset = off;
+    for (int offset = off; offset < end; offset++) {
+      final byte c = b[offset];
+      if (c != LF && c != CR) {
+        continue;
+      }
+      // either a line separator char ends the line of the block, or the block starts with one
+      if (offset > blockStartOffset) {
+        if (count == 0) {
+          processLine(b, blockStartOffset, offset - blockStartOffset);
+        } else {
+          append(b, blockStartOffset, offset - blockStartOffset);
+          processBuffer();
+        }
+        lastReceivedByte = c;
+      } else {
+        write(c);
+      }
+      blockStartOffset = offset + 1;
+    }
+    if (end > blockStartOffset) {
+      append(b, blockStartOffset, end - blockStartOffset);
+      lastReceivedByte = b[end - 1];
+    }
+  }
+
   /**
    * Flush this log stream.
    *
    * @see java.io.OutputStream#flush()
    */
   public void flush() {
-    if (buffer.size() > 0) {
+    if (count > 0) {
       processBuffer();
     }
   }
@@ -83,53 +121,29 @@ public abstract class LogOutputStream extends OutputStream {
    * @see java.io.OutputStream#close()
    */
   public void close() throws IOException {
-    if (buffer.size() > 0) {
+    if (count > 0) {
       processBuffer();
     }
     super.close();
   }
 
-//  /**
-//   * Write a block of characters to the output stream
-//   *
-//   * @param b the array containing the data
-//   * @param off the offset into the array where data starts
-//   * @param len the length of block
-//   * @throws java.io.IOException if the data cannot be written into the stream.
-//   * @see java.io.OutputStream#write(byte[], int, int)
-//   */
-//  public void write(final byte[] b, final int off, final int len)
-//      throws IOException {
-//    // find the line breaks and pass other chars through in blocks
-//    int offset = off;
-//    int blockStartOffset = offset;
-//    int remaining = len;
-//    while (remaining > 0) {
-//      while (remaining > 0 && b[offset] != LF && b[offset] != CR) {
-//        offset++;
-//        remaining--;
-//      }
-//      // either end of buffer or a line separator char
-//      int blockLength = offset - blockStartOffset;
-//      if (blockLength > 0) {
-//        buffer.write(b, blockStartOffset, blockLength);
-//        lastReceivedByte = 0;
-//      }
-//      while (remaining > 0 && (b[offset] == LF || b[offset] == CR)) {
-//        write(b[offset]);
-//        offset++;
-//        remaining--;
-//      }
-//      blockStartOffset = offset;
-//    }
-//  }
-
   /**
-   * Converts the buffer to a string and sends it to <code>processLine</code>.
+   * Sends the buffer to <code>processLine</code>.
    */
   protected void processBuffer() {
-    processLine(buffer.toString());
-    buffer.reset();
+    try {
+      processLine(buffer, 0, count);
+    } finally {
+      count = 0;
+    }
+  }
+
+  /**
+   * Processes a line, as bytes which are only valid during this call. Converts it to a string and sends it to
+   * <code>processLine</code> by default; overriding it allows to skip the conversion of uninteresting lines.
+   */
+  protected void processLine(byte[] bytes, int offset, int length) {
+    processLine(new String(bytes, offset, length, Charset.defaultCharset()));
   }
 
   /**
@@ -140,4 +154,20 @@ public abstract class LogOutputStream extends OutputStream {
    */
   protected abstract void processLine(String line);
 
+  private void append(byte c) {
+    ensureCapacity(count + 1);
+    buffer[count++] = c;
+  }
+
+  private void append(byte[] b, int off, int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+  }
 }
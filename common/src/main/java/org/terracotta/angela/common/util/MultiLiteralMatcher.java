@@ -0,0 +1,464 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An Aho-Corasick automaton finding, in a single pass over the bytes of a line, which of up to 64 groups of literals
+ * it contains. A group is found as soon as one of its literals is. The automaton is compiled to a DFA over the byte
+ * values used by the literals, so scanning a line is one table lookup per byte and allocates nothing.
+ */
+class MultiLiteralMatcher {
+  static final int MAX_GROUPS = 64;
+  private static final Pattern INLINE_FLAGS = Pattern.compile("\\(\\?[idmsuxU-]+[:)]");
+
+  private final int[] byteClasses = new int[256];
+  private final int classCount;
+  private final int[] transitions;
+  private final long[] outputs;
+
+  /**
+   * @param groups the literals of each group, a group being identified by its index
+   */
+  MultiLiteralMatcher(List<List<byte[]>> groups) {
+    if (groups.size() > MAX_GROUPS) {
+      throw new IllegalArgumentException("At most " + MAX_GROUPS + " groups are supported, got " + groups.size());
+    }
+
+    // the bytes not used by any literal all share class 0
+    int classes = 1;
+    for (List<byte[]> literals : groups) {
+      for (byte[] literal : literals) {
+        for (byte b : literal) {
+          if (byteClasses[b & 0xFF] == 0) {
+            byteClasses[b & 0xFF] = classes++;
+          }
+        }
+      }
+    }
+    this.classCount = classes;
+
+    // build the trie, -1 meaning no transition yet
+    List<int[]> trie = new ArrayList<>();
+    List<Long> trieOutputs = new ArrayList<>();
+    trie.add(newState(classes));
+    trieOutputs.add(0L);
+    for (int group = 0; group < groups.size(); group++) {
+      for (byte[] literal : groups.get(group)) {
+        int state = 0;
+        for (byte b : literal) {
+          int cls = byteClasses[b & 0xFF];
+          if (trie.get(state)[cls] == -1) {
+            trie.get(state)[cls] = trie.size();
+            trie.add(newState(classes));
+            trieOutputs.add(0L);
+          }
+          state = trie.get(state)[cls];
+        }
+        trieOutputs.set(state, trieOutputs.get(state) | (1L << group));
+      }
+    }
+
+    // turn it into a DFA, breadth first so that the failure state of a state is complete before the state itself
+    int stateCount = trie.size();
+    this.transitions = new int[stateCount * classes];
+    this.outputs = new long[stateCount];
+    int[] failures = new int[stateCount];
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int cls = 0; cls < classes; cls++) {
+      int next = trie.get(0)[cls];
+      if (next == -1) {
+        transitions[cls] = 0;
+      } else {
+        transitions[cls] = next;
+        failures[next] = 0;
+        queue.add(next);
+      }
+    }
+    outputs[0] = trieOutputs.get(0);
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      outputs[state] = trieOutputs.get(state) | outputs[failures[state]];
+      for (int cls = 0; cls < classes; cls++) {
+        int next = trie.get(state)[cls];
+        int fallback = transitions[failures[state] * classes + cls];
+        if (next == -1) {
+          transitions[state * classes + cls] = fallback;
+        } else {
+          transitions[state * classes + cls] = next;
+          failures[next] = fallback;
+          queue.add(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return a mask of the groups having at least one literal contained in the bytes, bit N being set for group N
+   */
+  long find(byte[] bytes, int offset, int length) {
+    long found = 0L;
+    int state = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      state = transitions[state * classCount + byteClasses[bytes[i] & 0xFF]];
+      found |= outputs[state];
+    }
+    return found;
+  }
+
+  private static int[] newState(int classes) {
+    int[] state = new int[classes];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  /**
+   * Whether literals can be matched against the bytes of lines decoded with the given charset, i.e.: a string
+   * contains a literal if and only if its encoded bytes contain the encoded literal.
+   */
+  static boolean supports(Charset charset) {
+    return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Find literals that any string matched by the pattern must contain, so that strings containing none of them can
+   * be rejected without running the pattern.
+   *
+   * @return the literals, at least one of which is contained in any match, or an empty list if none could be found
+   */
+  static List<String> requiredLiterals(Pattern pattern) {
+    try {
+      return requiredLiterals(pattern.pattern(), pattern.flags());
+    } catch (IllegalArgumentException iae) {
+      // an escape this parser does not know
+      return Collections.emptyList();
+    }
+  }
+
+  private static List<String> requiredLiterals(String pattern, int flags) {
+    // flags, like case insensitivity, change what a literal matches
+    if (flags != 0 || hasInlineFlags(pattern)) {
+      return Collections.emptyList();
+    }
+    String regex = stripUnanchoredEnds(pattern);
+
+    List<String> topLevel = splitTopLevelAlternatives(regex);
+    if (topLevel.size() > 1) {
+      return literalsOfAlternatives(topLevel);
+    }
+    if (regex.startsWith("(") && closingParenthesis(regex, 0) == regex.length() - 1) {
+      String group = regex.substring(regex.startsWith("(?:") ? 3 : 1, regex.length() - 1);
+      if (!group.startsWith("?")) {
+        List<String> alternatives = splitTopLevelAlternatives(group);
+        if (alternatives.size() > 1) {
+          return literalsOfAlternatives(alternatives);
+        }
+        regex = group;
+      }
+    }
+
+    Literals literals = scan(regex);
+    return literals.longest.isEmpty() ? Collections.emptyList() : Collections.singletonList(literals.longest);
+  }
+
+  private static List<String> literalsOfAlternatives(List<String> alternatives) {
+    List<String> result = new ArrayList<>();
+    for (String alternative : alternatives) {
+      Literals literals = scan(alternative);
+      if (literals.longest.isEmpty()) {
+        // this alternative can match without any literal
+        return Collections.emptyList();
+      }
+      result.add(literals.longest);
+    }
+    return result;
+  }
+
+  /**
+   * Whether the regex contains a flag group, like {@code (?i)} or {@code (?i:...)}, anywhere.
+   */
+  private static boolean hasInlineFlags(String regex) {
+    int i = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i = skipEscape(regex, i);
+      } else if (c == '[') {
+        i = closingBracket(regex, i) + 1;
+      } else if (c == '(' && INLINE_FLAGS.matcher(regex).region(i, regex.length()).lookingAt()) {
+        return true;
+      } else {
+        i++;
+      }
+    }
+    return false;
+  }
+
+  private static String stripUnanchoredEnds(String regex) {
+    if (regex.startsWith("^")) {
+      regex = regex.substring(1);
+    }
+    if (regex.startsWith(".*")) {
+      regex = regex.substring(2);
+    }
+    if (regex.endsWith("$") && !isEscaped(regex, regex.length() - 1)) {
+      regex = regex.substring(0, regex.length() - 1);
+    }
+    if (regex.endsWith(".*") && !isEscaped(regex, regex.length() - 2)) {
+      regex = regex.substring(0, regex.length() - 2);
+    }
+    return regex;
+  }
+
+  private static boolean isEscaped(String regex, int index) {
+    int backslashes = 0;
+    for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+      backslashes++;
+    }
+    return backslashes % 2 == 1 || regex.lastIndexOf("\\Q", index) > regex.lastIndexOf("\\E", index);
+  }
+
+  private static List<String> splitTopLevelAlternatives(String regex) {
+    List<String> alternatives = new ArrayList<>();
+    int start = 0;
+    int i = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i = skipEscape(regex, i);
+      } else if (c == '[') {
+        i = closingBracket(regex, i) + 1;
+      } else if (c == '(') {
+        i = closingParenthesis(regex, i) + 1;
+      } else if (c == '|') {
+        alternatives.add(regex.substring(start, i));
+        start = ++i;
+      } else {
+        i++;
+      }
+    }
+    alternatives.add(regex.substring(start));
+    return alternatives;
+  }
+
+  /**
+   * Collect the runs of literal characters of a sequence; a run ends at anything that is not a literal character.
+   */
+  private static Literals scan(String regex) {
+    Literals literals = new Literals();
+    StringBuilder run = new StringBuilder();
+    int i = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\' && regex.startsWith("\\Q", i)) {
+        int end = regex.indexOf("\\E", i + 2);
+        end = end == -1 ? regex.length() : end;
+        run.append(regex, i + 2, end);
+        i = Math.min(regex.length(), end + 2);
+      } else if (c == '\\') {
+        char escaped = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+        if (escaped != 0 && !Character.isLetterOrDigit(escaped)) {
+          run.append(escaped);
+        } else {
+          literals.endRun(run);
+        }
+        i = skipEscape(regex, i);
+      } else if (c == '[') {
+        literals.endRun(run);
+        i = closingBracket(regex, i) + 1;
+      } else if (c == '(') {
+        literals.endRun(run);
+        i = closingParenthesis(regex, i) + 1;
+      } else if (c == '?' || c == '*' || c == '{') {
+        // the previous character is optional
+        if (run.length() > 0) {
+          run.setLength(run.length() - 1);
+        }
+        literals.endRun(run);
+        i = c == '{' ? regex.indexOf('}', i) + 1 : i + 1;
+        if (i == 0) {
+          i = regex.length();
+        }
+      } else if (c == '+') {
+        // the previous character is required at least once
+        literals.endRun(run);
+        i++;
+      } else if (c == '.' || c == '^' || c == '$' || c == '|' || c == ')') {
+        literals.endRun(run);
+        i++;
+      } else {
+        run.append(c);
+        i++;
+      }
+    }
+    literals.endRun(run);
+    return literals;
+  }
+
+  /**
+   * @return the index following the escape starting at the given index, arguments included
+   * @throws IllegalArgumentException if the escape cannot be parsed
+   */
+  private static int skipEscape(String regex, int i) {
+    if (regex.startsWith("\\Q", i)) {
+      int end = regex.indexOf("\\E", i + 2);
+      return end == -1 ? regex.length() : end + 2;
+    }
+    if (i + 1 >= regex.length()) {
+      throw new IllegalArgumentException("Unterminated escape at index " + i + " of " + regex);
+    }
+    char c = regex.charAt(i + 1);
+    switch (c) {
+      case 'x':
+        // \xhh or \x{h...h}
+        return regex.startsWith("{", i + 2) ? closingBrace(regex, i + 2) + 1 : escapeEnd(regex, i, 4);
+      case 'u':
+        // 4 hex digits
+        return escapeEnd(regex, i, 6);
+      case 'c':
+        // \cX
+        return escapeEnd(regex, i, 3);
+      case '0': {
+        // \0n, \0nn or \0mnn with m <= 3
+        int end = i + 2;
+        int maxDigits = end < regex.length() && regex.charAt(end) <= '3' ? 3 : 2;
+        while (end < regex.length() && end - i - 2 < maxDigits && regex.charAt(end) >= '0' && regex.charAt(end) <= '7') {
+          end++;
+        }
+        if (end == i + 2) {
+          throw new IllegalArgumentException("Invalid octal escape at index " + i + " of " + regex);
+        }
+        return end;
+      }
+      case 'k': {
+        // \k<name>
+        int end = regex.indexOf('>', i + 2);
+        if (!regex.startsWith("<", i + 2) || end == -1) {
+          throw new IllegalArgumentException("Invalid named back reference at index " + i + " of " + regex);
+        }
+        return end + 1;
+      }
+      case 'p':
+      case 'P':
+        // \p{Name} or \pL
+        return regex.startsWith("{", i + 2) ? closingBrace(regex, i + 2) + 1 : escapeEnd(regex, i, 3);
+      case 'N':
+        // \N{name}
+        if (!regex.startsWith("{", i + 2)) {
+          throw new IllegalArgumentException("Invalid character name escape at index " + i + " of " + regex);
+        }
+        return closingBrace(regex, i + 2) + 1;
+      default:
+        if (c >= '1' && c <= '9') {
+          // a back reference; skipping all the digits may skip literal ones, which only loses a literal
+          int end = i + 2;
+          while (end < regex.length() && Character.isDigit(regex.charAt(end))) {
+            end++;
+          }
+          return end;
+        }
+        return i + 2;
+    }
+  }
+
+  private static int escapeEnd(String regex, int i, int length) {
+    if (i + length > regex.length()) {
+      throw new IllegalArgumentException("Truncated escape at index " + i + " of " + regex);
+    }
+    return i + length;
+  }
+
+  private static int closingBrace(String regex, int start) {
+    int end = regex.indexOf('}', start);
+    if (end == -1) {
+      throw new IllegalArgumentException("Unterminated escape at index " + start + " of " + regex);
+    }
+    return end;
+  }
+
+  private static int closingBracket(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    // a ']' right after the opening bracket is a literal
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      i++;
+    }
+    int depth = 1;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i = skipEscape(regex, i);
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+      } else if (c == ']' && --depth == 0) {
+        return i;
+      }
+      i++;
+    }
+    return regex.length() - 1;
+  }
+
+  private static int closingParenthesis(String regex, int start) {
+    int depth = 0;
+    int i = start;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i = skipEscape(regex, i);
+        continue;
+      }
+      if (c == '[') {
+        i = closingBracket(regex, i) + 1;
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i;
+      }
+      i++;
+    }
+    return regex.length() - 1;
+  }
+
+  private static class Literals {
+    private String longest = "";
+
+    void endRun(StringBuilder run) {
+      if (run.length() > longest.length()) {
+        longest = run.toString();
+      }
+      run.setLength(0);
+    }
+  }
+}
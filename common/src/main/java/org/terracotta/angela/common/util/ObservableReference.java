@@ -0,0 +1,69 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * An {@link AtomicReference} which tells its listeners about every value it is set to, on the thread setting it.
+ * A value is reported even if it is equal to the previous one, since setting it again is meaningful to the code
+ * tracking a process state, e.g.: the process died while it was still reported as stopped.
+ */
+public class ObservableReference<T> {
+  private final AtomicReference<T> ref;
+  private final List<Consumer<T>> listeners = new CopyOnWriteArrayList<>();
+
+  public ObservableReference(T initialValue) {
+    this.ref = new AtomicReference<>(initialValue);
+  }
+
+  public T get() {
+    return ref.get();
+  }
+
+  public void set(T newValue) {
+    ref.set(newValue);
+    fire(newValue);
+  }
+
+  public boolean compareAndSet(T expectedValue, T newValue) {
+    if (ref.compareAndSet(expectedValue, newValue)) {
+      fire(newValue);
+      return true;
+    }
+    return false;
+  }
+
+  public void addListener(Consumer<T> listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Consumer<T> listener) {
+    listeners.remove(listener);
+  }
+
+  private void fire(T value) {
+    for (Consumer<T> listener : listeners) {
+      listener.accept(value);
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeroturnaround.process.Processes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inspects processes without forking anything, e.g. to find a process among the descendants of another one: by
+ * reading {@code /proc} on Linux, or with {@code java.lang.ProcessHandle} when running on Java 9+ elsewhere.
+ * {@code ProcessHandle} is looked up reflectively, as Angela is built for Java 8.
+ */
+public class PidResolver {
+  private final static Logger logger = LoggerFactory.getLogger(PidResolver.class);
+
+  private static final Path PROC = Paths.get("/proc");
+  private static final boolean USE_PROC = !OS.INSTANCE.isWindows() && Files.isRegularFile(PROC.resolve("self").resolve("stat"));
+  private static final Method PROCESS_HANDLE_OF;
+  private static final Method PROCESS_HANDLE_PID;
+  private static final Method PROCESS_HANDLE_DESCENDANTS;
+  private static final Method PROCESS_HANDLE_INFO;
+  private static final Method PROCESS_HANDLE_IS_ALIVE;
+  private static final Method INFO_ARGUMENTS;
+  private static final Method INFO_COMMAND_LINE;
+
+  static {
+    Method of = null, pid = null, descendants = null, info = null, isAlive = null, arguments = null, commandLine = null;
+    try {
+      Class<?> processHandleClass = Class.forName("java.lang.ProcessHandle");
+      Class<?> infoClass = Class.forName("java.lang.ProcessHandle$Info");
+      of = processHandleClass.getMethod("of", long.class);
+      pid = processHandleClass.getMethod("pid");
+      descendants = processHandleClass.getMethod("descendants");
+      info = processHandleClass.getMethod("info");
+      isAlive = processHandleClass.getMethod("isAlive");
+      arguments = infoClass.getMethod("arguments");
+      commandLine = infoClass.getMethod("commandLine");
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+      of = null;
+    }
+    PROCESS_HANDLE_OF = of;
+    PROCESS_HANDLE_PID = pid;
+    PROCESS_HANDLE_DESCENDANTS = descendants;
+    PROCESS_HANDLE_INFO = info;
+    PROCESS_HANDLE_IS_ALIVE = isAlive;
+    INFO_ARGUMENTS = arguments;
+    INFO_COMMAND_LINE = commandLine;
+  }
+
+  public static boolean isSupported() {
+    return useProc() || PROCESS_HANDLE_OF != null;
+  }
+
+  /**
+   * @return the pids of all the descendants of a process, children before grand-children, or an empty list if they
+   * cannot be resolved on this platform
+   */
+  public static List<Integer> descendants(int pid) {
+    if (useProc()) {
+      Map<Integer, List<Integer>> children = procChildren();
+      List<Integer> result = new ArrayList<>();
+      Deque<Integer> toVisit = new ArrayDeque<>(children.getOrDefault(pid, Collections.emptyList()));
+      while (!toVisit.isEmpty()) {
+        Integer descendant = toVisit.poll();
+        result.add(descendant);
+        toVisit.addAll(children.getOrDefault(descendant, Collections.emptyList()));
+      }
+      return result;
+    }
+    if (PROCESS_HANDLE_OF != null) {
+      return processHandleDescendants(pid).stream().map(PidResolver::processHandlePid).collect(Collectors.toList());
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Find the process which has {@code argument} on its command line, among a process and its descendants.
+   *
+   * @return the pid of the process, or null if there is none or processes cannot be inspected on this platform
+   */
+  public static Integer findInTree(int rootPid, String argument) {
+    if (useProc()) {
+      List<Integer> candidates = new ArrayList<>();
+      candidates.add(rootPid);
+      candidates.addAll(descendants(rootPid));
+      for (Integer candidate : candidates) {
+        if (procArguments(candidate).contains(argument)) {
+          return candidate;
+        }
+      }
+      return null;
+    }
+    if (PROCESS_HANDLE_OF != null) {
+      List<Object> candidates = new ArrayList<>();
+      processHandle(rootPid).ifPresent(candidates::add);
+      candidates.addAll(processHandleDescendants(rootPid));
+      for (Object candidate : candidates) {
+        if (processHandleHasArgument(candidate, argument)) {
+          return processHandlePid(candidate);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check whether a process is alive without forking: a zombie counts as dead. Only falls back to the
+   * {@code kill -0}/{@code tasklist} probe of zt-process when neither /proc nor {@code ProcessHandle} is available.
+   */
+  public static boolean isAlive(int pid) {
+    if (useProc()) {
+      try {
+        String stat = new String(Files.readAllBytes(PROC.resolve(Integer.toString(pid)).resolve("stat")), Charset.defaultCharset());
+        char state = stat.charAt(stat.lastIndexOf(')') + 2);
+        return state != 'Z' && state != 'X';
+      } catch (IOException | RuntimeException e) {
+        return false;
+      }
+    }
+    if (PROCESS_HANDLE_OF != null) {
+      return processHandle(pid).map(handle -> (Boolean) invoke(PROCESS_HANDLE_IS_ALIVE, handle)).orElse(false);
+    }
+    try {
+      return Processes.newPidProcess(pid).isAlive();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error checking liveness of process with PID " + pid, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static boolean useProc() {
+    return USE_PROC;
+  }
+
+  private static Map<Integer, List<Integer>> procChildren() {
+    Map<Integer, List<Integer>> children = new HashMap<>();
+    try (DirectoryStream<Path> processes = Files.newDirectoryStream(PROC)) {
+      for (Path process : processes) {
+        int pid = parsePid(process.getFileName().toString());
+        if (pid < 0) {
+          continue;
+        }
+        int parentPid = procParentPid(process);
+        if (parentPid >= 0) {
+          children.computeIfAbsent(parentPid, k -> new ArrayList<>()).add(pid);
+        }
+      }
+    } catch (IOException ioe) {
+      logger.debug("Cannot list processes in {}", PROC, ioe);
+    }
+    return children;
+  }
+
+  /**
+   * @return the parent pid from /proc/[pid]/stat, which reads "pid (comm) state ppid ...". comm can contain spaces
+   * and parentheses, hence the search for the last ')'.
+   */
+  private static int procParentPid(Path process) {
+    try {
+      String stat = new String(Files.readAllBytes(process.resolve("stat")), Charset.defaultCharset());
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      return Integer.parseInt(fields[1]);
+    } catch (IOException | RuntimeException e) {
+      // the process exited
+      return -1;
+    }
+  }
+
+  private static List<String> procArguments(int pid) {
+    try {
+      byte[] cmdline = Files.readAllBytes(PROC.resolve(Integer.toString(pid)).resolve("cmdline"));
+      return Arrays.asList(new String(cmdline, Charset.defaultCharset()).split("\0"));
+    } catch (IOException e) {
+      // the process exited
+      return Collections.emptyList();
+    }
+  }
+
+  private static int parsePid(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return -1;
+      }
+    }
+    try {
+      return Integer.parseInt(name);
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  private static Optional<?> processHandle(int pid) {
+    return (Optional<?>) invoke(PROCESS_HANDLE_OF, null, (long) pid);
+  }
+
+  private static List<Object> processHandleDescendants(int pid) {
+    return processHandle(pid)
+        .map(handle -> ((Stream<?>) invoke(PROCESS_HANDLE_DESCENDANTS, handle)).collect(Collectors.<Object>toList()))
+        .orElse(Collections.emptyList());
+  }
+
+  private static int processHandlePid(Object handle) {
+    return ((Long) invoke(PROCESS_HANDLE_PID, handle)).intValue();
+  }
+
+  private static boolean processHandleHasArgument(Object handle, String argument) {
+    Object info = invoke(PROCESS_HANDLE_INFO, handle);
+    Optional<?> arguments = (Optional<?>) invoke(INFO_ARGUMENTS, info);
+    if (arguments.isPresent()) {
+      return Arrays.asList((String[]) arguments.get()).contains(argument);
+    }
+    // some platforms only expose the whole command line
+    Optional<?> commandLine = (Optional<?>) invoke(INFO_COMMAND_LINE, info);
+    return commandLine.isPresent() && ((String) commandLine.get()).contains(argument);
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("Cannot invoke " + method, e);
+    }
+  }
+}
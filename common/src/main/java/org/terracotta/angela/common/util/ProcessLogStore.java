@@ -0,0 +1,419 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.terracotta.angela.common.AngelaProperties.PROCESS_LOG_MAX_SEGMENTS;
+import static org.terracotta.angela.common.AngelaProperties.PROCESS_LOG_SEGMENT_SIZE;
+
+/**
+ * Keeps the output of a process in rotating segment files, so that it can be searched on the host of the process
+ * instead of being forwarded or downloaded.
+ * <p>
+ * Each line is stored prefixed by the time it was received at, in milliseconds. Next to each segment, a sparse index
+ * records the time and offset of a line every {@link #INDEX_INTERVAL} bytes, so that a query for a time range only
+ * reads the segments covering that range, from the closest indexed line. The oldest segments are deleted when there
+ * are more than {@link org.terracotta.angela.common.AngelaProperties#PROCESS_LOG_MAX_SEGMENTS} of them.
+ * <p>
+ * Opening a store on a folder that already contains segments keeps them, so the output of all the runs of a process
+ * can be queried.
+ * <p>
+ * Queries read the segments without holding the lock of the store, so that they never block the thread pumping the
+ * output of the process. A store that fails to write is disabled rather than failing that thread.
+ */
+public class ProcessLogStore extends LogOutputStream {
+  private final static Logger logger = LoggerFactory.getLogger(ProcessLogStore.class);
+
+  static final int INDEX_INTERVAL = 64 * 1024;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String INDEX_SUFFIX = ".idx";
+  private static final Charset CHARSET = Charset.defaultCharset();
+
+  private final Path directory;
+  private final long segmentSize;
+  private final int maxSegments;
+  // guarded by this
+  private final List<Segment> segments = new ArrayList<>();
+  private OutputStream segmentOutput;
+  private DataOutputStream indexOutput;
+  private long segmentLength;
+  private long nextIndexedOffset;
+  private long lastTimestamp;
+  private boolean closed;
+  private boolean failed;
+
+  public ProcessLogStore(Path directory) {
+    this(directory, Long.parseLong(PROCESS_LOG_SEGMENT_SIZE.getValue()), Integer.parseInt(PROCESS_LOG_MAX_SEGMENTS.getValue()));
+  }
+
+  public ProcessLogStore(Path directory, long segmentSize, int maxSegments) {
+    if (segmentSize < 1 || maxSegments < 1) {
+      throw new IllegalArgumentException("Invalid segment size or count: " + segmentSize + ", " + maxSegments);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    try {
+      Files.createDirectories(directory);
+      loadSegments();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot open process log store in " + directory, ioe);
+    }
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Find the lines received between two instants, in the order they were received.
+   *
+   * @param fromMillis the earliest time of the lines to return, inclusive
+   * @param toMillis the latest time of the lines to return, inclusive
+   * @param regex a regular expression that must be found in the lines to return, or null to return all of them
+   * @param maxLines the maximum number of lines to return, the first ones are returned when there are more
+   * @return the matching lines, without their timestamp
+   */
+  public List<String> query(long fromMillis, long toMillis, String regex, int maxLines) {
+    if (maxLines < 0) {
+      throw new IllegalArgumentException("Invalid line count: " + maxLines);
+    }
+    Pattern pattern = regex == null ? null : Pattern.compile(regex);
+    List<SegmentSnapshot> snapshots = snapshot();
+    List<String> result = new ArrayList<>();
+    try {
+      for (int i = 0; i < snapshots.size() && result.size() < maxLines; i++) {
+        SegmentSnapshot segment = snapshots.get(i);
+        if (segment.index.isEmpty()) {
+          continue;
+        }
+        if (i + 1 < snapshots.size() && !snapshots.get(i + 1).index.isEmpty() && snapshots.get(i + 1).index.get(0).timestamp < fromMillis) {
+          // all the lines of this segment were received before the first one of the next segment
+          continue;
+        }
+        if (segment.index.get(0).timestamp > toMillis) {
+          break;
+        }
+        try {
+          if (!scan(segment, fromMillis, toMillis, pattern, maxLines, result)) {
+            break;
+          }
+        } catch (NoSuchFileException nsfe) {
+          // the segment was rotated out since the snapshot
+        }
+      }
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot query process log store in " + directory, ioe);
+    }
+    return result;
+  }
+
+  /**
+   * @return the segments and the length of their complete lines at this instant
+   */
+  private synchronized List<SegmentSnapshot> snapshot() {
+    if (segmentOutput != null) {
+      try {
+        segmentOutput.flush();
+      } catch (IOException ioe) {
+        disable(ioe);
+      }
+    }
+    List<SegmentSnapshot> snapshots = new ArrayList<>(segments.size());
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      boolean current = segmentOutput != null && i == segments.size() - 1;
+      snapshots.add(new SegmentSnapshot(segment.logFile, new ArrayList<>(segment.index), current ? segmentLength : Long.MAX_VALUE));
+    }
+    return snapshots;
+  }
+
+  /**
+   * @return false if a line received after {@code toMillis} was found, meaning that no further segment needs to be read
+   */
+  private boolean scan(SegmentSnapshot segment, long fromMillis, long toMillis, Pattern pattern, int maxLines, List<String> result) throws IOException {
+    long startOffset = 0L;
+    for (IndexEntry entry : segment.index) {
+      // strictly before, as the lines received during the same millisecond may span several index entries
+      if (entry.timestamp >= fromMillis) {
+        break;
+      }
+      startOffset = entry.offset;
+    }
+
+    try (FileChannel fileChannel = FileChannel.open(segment.logFile, StandardOpenOption.READ)) {
+      fileChannel.position(startOffset);
+      InputStream in = new BufferedInputStream(Channels.newInputStream(fileChannel), INDEX_INTERVAL);
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      long position = startOffset;
+      // the lines written after the snapshot are left to the next query
+      while (result.size() < maxLines && position < segment.length && readLine(in, line)) {
+        position += line.size() + 1;
+        byte[] bytes = line.toByteArray();
+        int separator = indexOf(bytes, (byte) ' ');
+        if (separator < 0) {
+          continue;
+        }
+        long timestamp = Long.parseLong(new String(bytes, 0, separator, StandardCharsets.US_ASCII));
+        if (timestamp < fromMillis) {
+          continue;
+        }
+        if (timestamp > toMillis) {
+          return false;
+        }
+        String text = new String(bytes, separator + 1, bytes.length - separator - 1, CHARSET);
+        if (pattern == null || pattern.matcher(text).find()) {
+          result.add(text);
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    synchronized (this) {
+      if (segmentOutput != null) {
+        try {
+          segmentOutput.flush();
+        } catch (IOException ioe) {
+          disable(ioe);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void processLine(byte[] bytes, int offset, int length) {
+    synchronized (this) {
+      if (closed || failed) {
+        return;
+      }
+      try {
+        append(bytes, offset, length);
+      } catch (IOException ioe) {
+        disable(ioe);
+      }
+    }
+  }
+
+  @Override
+  protected void processLine(String line) {
+    byte[] bytes = line.getBytes(CHARSET);
+    processLine(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    synchronized (this) {
+      closed = true;
+      closeSegment();
+    }
+  }
+
+  /**
+   * Stop storing lines after a write error, the lines received so far can still be queried.
+   */
+  private void disable(IOException ioe) {
+    if (failed) {
+      return;
+    }
+    failed = true;
+    logger.warn("Cannot write to process log store in {}, the output of the process is no longer stored", directory, ioe);
+    try {
+      closeSegment();
+    } catch (IOException e) {
+      logger.debug("Cannot close process log store in {}", directory, e);
+    }
+  }
+
+  private void append(byte[] bytes, int offset, int length) throws IOException {
+    // a clock going backwards must not break the ordering the queries rely on
+    long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+    lastTimestamp = timestamp;
+
+    if (segmentOutput == null || segmentLength >= segmentSize) {
+      openNextSegment();
+    }
+    if (segmentLength >= nextIndexedOffset) {
+      indexOutput.writeLong(timestamp);
+      indexOutput.writeLong(segmentLength);
+      indexOutput.flush();
+      segments.get(segments.size() - 1).index.add(new IndexEntry(timestamp, segmentLength));
+      nextIndexedOffset = segmentLength + INDEX_INTERVAL;
+    }
+
+    byte[] prefix = (timestamp + " ").getBytes(StandardCharsets.US_ASCII);
+    segmentOutput.write(prefix);
+    segmentOutput.write(bytes, offset, length);
+    segmentOutput.write('\n');
+    segmentLength += prefix.length + length + 1;
+  }
+
+  private void openNextSegment() throws IOException {
+    closeSegment();
+    int number = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).number + 1;
+    Segment segment = new Segment(number, directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX), directory.resolve(SEGMENT_PREFIX + number + INDEX_SUFFIX));
+    segmentOutput = new BufferedOutputStream(Files.newOutputStream(segment.logFile));
+    indexOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment.indexFile)));
+    segmentLength = 0L;
+    nextIndexedOffset = 0L;
+    segments.add(segment);
+
+    while (segments.size() > maxSegments) {
+      Segment oldest = segments.remove(0);
+      Files.deleteIfExists(oldest.logFile);
+      Files.deleteIfExists(oldest.indexFile);
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    try {
+      if (segmentOutput != null) {
+        segmentOutput.close();
+      }
+    } finally {
+      segmentOutput = null;
+      if (indexOutput != null) {
+        indexOutput.close();
+      }
+      indexOutput = null;
+    }
+  }
+
+  private void loadSegments() throws IOException {
+    List<Segment> found = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(file -> {
+        String name = file.getFileName().toString();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            found.add(new Segment(number, file, directory.resolve(SEGMENT_PREFIX + number + INDEX_SUFFIX)));
+          } catch (NumberFormatException nfe) {
+            logger.debug("Ignoring {} in process log store", file);
+          }
+        }
+      });
+    }
+    found.sort((s1, s2) -> Integer.compare(s1.number, s2.number));
+
+    for (Segment segment : found) {
+      if (Files.isRegularFile(segment.indexFile)) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.indexFile)))) {
+          while (true) {
+            segment.index.add(new IndexEntry(in.readLong(), in.readLong()));
+          }
+        } catch (EOFException eof) {
+          // end of the index, or an entry partially written by a process that got killed
+        }
+      }
+      if (!segment.index.isEmpty()) {
+        lastTimestamp = Math.max(lastTimestamp, segment.index.get(segment.index.size() - 1).timestamp);
+      }
+    }
+    segments.addAll(found);
+  }
+
+  private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+    line.reset();
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n') {
+        return true;
+      }
+      line.write(b);
+    }
+    // a line without terminator is being written
+    return false;
+  }
+
+  private static int indexOf(byte[] bytes, byte b) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static class Segment {
+    private final int number;
+    private final Path logFile;
+    private final Path indexFile;
+    private final List<IndexEntry> index = new ArrayList<>();
+
+    Segment(int number, Path logFile, Path indexFile) {
+      this.number = number;
+      this.logFile = logFile;
+      this.indexFile = indexFile;
+    }
+  }
+
+  private static class SegmentSnapshot {
+    private final Path logFile;
+    private final List<IndexEntry> index;
+    private final long length;
+
+    SegmentSnapshot(Path logFile, List<IndexEntry> index, long length) {
+      this.logFile = logFile;
+      this.index = index;
+      this.length = length;
+    }
+  }
+
+  private static class IndexEntry {
+    private final long timestamp;
+    private final long offset;
+
+    IndexEntry(long timestamp, long offset) {
+      this.timestamp = timestamp;
+      this.offset = offset;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tracks the processes managed by this JVM with a single thread, instead of one thread blocked on each process.
+ * <p>
+ * Every {@link #SWEEP_INTERVAL_MILLIS}, the liveness of each watched process is checked without forking anything:
+ * from the completion of its zt-exec future when it is a child of this JVM, else with {@link PidResolver#isAlive(int)}.
+ * When the platform offers neither /proc nor {@code ProcessHandle}, checking a process that is not a child forks a
+ * probe, so the sweeps are then {@link #FORKING_SWEEP_INTERVAL_MILLIS} apart.
+ * The callbacks registered for a process run concurrently once it exited, on a separate executor so that a slow
+ * callback delays neither the detection of the other exits nor the other callbacks, and {@link #isAlive(int)} answers
+ * from the outcome of the last check.
+ */
+public class ProcessReaper {
+  private final static Logger logger = LoggerFactory.getLogger(ProcessReaper.class);
+
+  public static final ProcessReaper INSTANCE = new ProcessReaper();
+
+  static final long SWEEP_INTERVAL_MILLIS = 50;
+  static final long FORKING_SWEEP_INTERVAL_MILLIS = 2000;
+
+  // guarded by this
+  private final Map<Integer, Watched> watched = new HashMap<>();
+  private Thread reaperThread;
+  private final ExecutorService callbackExecutor = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "angela-process-exit");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  ProcessReaper() {
+  }
+
+  /**
+   * Watch a process started by this JVM.
+   *
+   * @param termination the future of the process, completing once it exited and its output got pumped
+   * @param onExit run once the process exited, may be null
+   */
+  public void watch(int pid, Future<?> termination, Runnable onExit) {
+    synchronized (this) {
+      Watched w = watched.computeIfAbsent(pid, Watched::new);
+      w.termination = termination;
+      if (onExit != null) {
+        w.callbacks.add(onExit);
+      }
+      startReaperThread();
+    }
+  }
+
+  /**
+   * Watch any process.
+   *
+   * @param onExit run once the process exited, may be null
+   */
+  public void watch(int pid, Runnable onExit) {
+    synchronized (this) {
+      Watched w = watched.computeIfAbsent(pid, Watched::new);
+      if (onExit != null) {
+        w.callbacks.add(onExit);
+      }
+      startReaperThread();
+    }
+  }
+
+  /**
+   * @return whether the process was alive when last checked if it is watched, else whether it is alive now
+   */
+  public boolean isAlive(int pid) {
+    synchronized (this) {
+      if (watched.containsKey(pid)) {
+        return true;
+      }
+    }
+    return PidResolver.isAlive(pid);
+  }
+
+  synchronized int watchedCount() {
+    return watched.size();
+  }
+
+  private void startReaperThread() {
+    if (reaperThread == null) {
+      reaperThread = new Thread(this::reapForever, "angela-process-reaper");
+      reaperThread.setDaemon(true);
+      reaperThread.start();
+    } else {
+      notifyAll();
+    }
+  }
+
+  private void reapForever() {
+    while (true) {
+      try {
+        List<Watched> toCheck;
+        synchronized (this) {
+          while (watched.isEmpty()) {
+            wait();
+          }
+          toCheck = new ArrayList<>(watched.values());
+        }
+
+        boolean forking = false;
+        for (Watched w : toCheck) {
+          forking |= w.termination == null && !PidResolver.isSupported();
+          if (w.isAlive()) {
+            continue;
+          }
+          List<Runnable> callbacks;
+          synchronized (this) {
+            watched.remove(w.pid, w);
+            callbacks = new ArrayList<>(w.callbacks);
+          }
+          logger.debug("Process with PID {} exited", w.pid);
+          for (Runnable callback : callbacks) {
+            callbackExecutor.execute(() -> runCallback(w.pid, callback));
+          }
+        }
+
+        Thread.sleep(forking ? FORKING_SWEEP_INTERVAL_MILLIS : SWEEP_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        logger.error("Error reaping processes", e);
+      }
+    }
+  }
+
+  private static void runCallback(int pid, Runnable callback) {
+    try {
+      callback.run();
+    } catch (Exception e) {
+      logger.error("Error running exit callback of process with PID {}", pid, e);
+    }
+  }
+
+  private static class Watched {
+    private final int pid;
+    // guarded by the reaper
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile Future<?> termination;
+
+    Watched(int pid) {
+      this.pid = pid;
+    }
+
+    boolean isAlive() {
+      Future<?> termination = this.termination;
+      return termination == null ? PidResolver.isAlive(pid) : !termination.isDone();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.process.PidProcess;
+import org.zeroturnaround.process.Processes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.terracotta.angela.common.AngelaProperties.PROCESS_TERMINATION_GRACE_PERIOD;
+
+/**
+ * Terminates processes along with all their descendants, e.g. a server start script and the JVM it started.
+ * <p>
+ * The process trees are snapshotted before anything gets signalled, so that the processes which get re-parented when
+ * their parent exits are not missed. All the processes are signalled at once, then their exit is awaited through the
+ * {@link ProcessReaper}, so terminating several processes takes a single grace period.
+ */
+public class ProcessTerminator {
+  private final static Logger logger = LoggerFactory.getLogger(ProcessTerminator.class);
+
+  private static final long KILL_TIMEOUT_MILLIS = 10_000;
+
+  /**
+   * Terminate processes and their descendants, waiting for them to exit within the grace period configured by
+   * {@link org.terracotta.angela.common.AngelaProperties#PROCESS_TERMINATION_GRACE_PERIOD}.
+   *
+   * @see #terminate(Collection, long)
+   */
+  public static void terminate(Collection<? extends Number> pids) throws InterruptedException, TimeoutException {
+    terminate(pids, Long.parseLong(PROCESS_TERMINATION_GRACE_PERIOD.getValue()));
+  }
+
+  /**
+   * Ask processes and their descendants to terminate (SIGTERM), then kill (SIGKILL) the ones still alive after
+   * the grace period.
+   *
+   * @throws TimeoutException if some processes are still alive after being killed
+   */
+  public static void terminate(Collection<? extends Number> pids, long gracePeriodMillis) throws InterruptedException, TimeoutException {
+    Set<Integer> tree = aliveTreeOf(pids);
+    if (tree.isEmpty()) {
+      return;
+    }
+    logger.debug("Terminating processes {}", tree);
+    signal(tree, false);
+    Set<Integer> remaining = awaitExit(tree, gracePeriodMillis);
+    if (remaining.isEmpty()) {
+      return;
+    }
+
+    logger.warn("Processes {} did not terminate within {}ms, killing them", remaining, gracePeriodMillis);
+    signal(remaining, true);
+    remaining = awaitExit(remaining, KILL_TIMEOUT_MILLIS);
+    if (!remaining.isEmpty()) {
+      throw new TimeoutException("Processes " + remaining + " are still alive " + KILL_TIMEOUT_MILLIS + "ms after being killed");
+    }
+  }
+
+  /**
+   * Kill (SIGKILL) processes and their descendants straight away, to simulate a crash.
+   *
+   * @throws TimeoutException if some processes are still alive after being killed
+   */
+  public static void kill(Collection<? extends Number> pids) throws InterruptedException, TimeoutException {
+    Set<Integer> tree = aliveTreeOf(pids);
+    if (tree.isEmpty()) {
+      return;
+    }
+    logger.debug("Killing processes {}", tree);
+    signal(tree, true);
+    Set<Integer> remaining = awaitExit(tree, KILL_TIMEOUT_MILLIS);
+    if (!remaining.isEmpty()) {
+      throw new TimeoutException("Processes " + remaining + " are still alive " + KILL_TIMEOUT_MILLIS + "ms after being killed");
+    }
+  }
+
+  private static Set<Integer> aliveTreeOf(Collection<? extends Number> pids) {
+    Set<Integer> tree = new LinkedHashSet<>();
+    for (Number pid : pids) {
+      if (pid != null && tree.add(pid.intValue())) {
+        tree.addAll(PidResolver.descendants(pid.intValue()));
+      }
+    }
+    return tree.stream().filter(PidResolver::isAlive).collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  /**
+   * Signal all the processes at once: with a single {@code kill} command on Unix, else concurrently.
+   */
+  private static void signal(Set<Integer> pids, boolean forcefully) throws InterruptedException {
+    if (!OS.INSTANCE.isWindows()) {
+      List<String> command = new ArrayList<>();
+      command.add("kill");
+      command.add(forcefully ? "-KILL" : "-TERM");
+      pids.forEach(pid -> command.add(pid.toString()));
+      try {
+        ProcessResult result = new ProcessExecutor(command).redirectErrorStream(true).readOutput(true).execute();
+        if (result.getExitValue() != 0) {
+          // some of the processes may have exited in the meantime
+          logger.debug("{} returned {}: {}", command, result.getExitValue(), result.outputString());
+        }
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("Error signalling processes " + pids, e);
+      }
+      return;
+    }
+
+    CompletableFuture<?>[] futures = pids.stream().map(pid -> CompletableFuture.runAsync(() -> {
+      PidProcess process = Processes.newPidProcess(pid);
+      try {
+        if (forcefully) {
+          process.destroyForcefully();
+        } else {
+          process.destroyGracefully();
+        }
+      } catch (Exception e) {
+        logger.debug("Error destroying process {}", pid, e);
+      }
+    })).toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(futures).join();
+  }
+
+  /**
+   * @return the processes that did not exit within the timeout
+   */
+  private static Set<Integer> awaitExit(Set<Integer> pids, long timeoutMillis) throws InterruptedException {
+    CountDownLatch exited = new CountDownLatch(pids.size());
+    for (Integer pid : pids) {
+      ProcessReaper.INSTANCE.watch(pid, exited::countDown);
+    }
+    if (exited.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      return new LinkedHashSet<>();
+    }
+    return pids.stream().filter(ProcessReaper.INSTANCE::isAlive).collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+}
@@ -17,16 +17,19 @@
 
 package org.terracotta.angela.common.util;
 
-import org.zeroturnaround.process.Processes;
-
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.Collections;
 import java.util.concurrent.TimeoutException;
 
 public class ProcessUtil {
 
+  /**
+   * Terminate a process and its descendants, killing them if they are still alive after the grace period.
+   *
+   * @see ProcessTerminator#terminate(java.util.Collection)
+   */
   public static void destroyGracefullyOrForcefullyAndWait(int pid) throws IOException, InterruptedException, TimeoutException {
-    org.zeroturnaround.process.ProcessUtil.destroyGracefullyOrForcefullyAndWait(Processes.newPidProcess(pid), 30, TimeUnit.SECONDS, 10, TimeUnit.SECONDS);
+    ProcessTerminator.terminate(Collections.singleton(pid));
   }
 
 }
@@ -0,0 +1,209 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeroturnaround.exec.ProcessExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.terracotta.angela.common.AngelaProperties.CLASS_DATA_SHARING;
+
+/**
+ * A class-data-sharing archive, which lets a JVM map the classes it loads from an archive dumped by a previous
+ * run with the same classpath instead of parsing and verifying them again, cutting its startup time.
+ * <ul>
+ *   <li>JDK 19+ creates and validates the archive on its own, see {@link Support#AUTO}.</li>
+ *   <li>JDK 13 to 18 can dump the archive when exiting, see {@link Support#DYNAMIC}. The archive is dumped to a
+ *   temporary file which {@link #processExited()} moves into place once the process is gone, so that no JVM ever
+ *   maps a partially written archive.</li>
+ *   <li>Older JDKs are started without archive.</li>
+ * </ul>
+ * A JVM started with an archive it cannot use, because it is stale or was dumped with other options, ignores it.
+ * The JVM cannot dump an archive of classes loaded from a directory, so callers must use {@link Support#NONE} when the
+ * classpath contains directories.
+ * <p>
+ * The modification time of an archive is refreshed each time a JVM is started with it, so that the archives of
+ * classpaths that are not used anymore can be evicted with {@link DirectoryUtils#deleteFilesUnusedSince(Path, long)}.
+ */
+public class SharedArchive {
+  private final static Logger logger = LoggerFactory.getLogger(SharedArchive.class);
+
+  private static final Map<String, Support> SUPPORT_BY_JAVA_HOME = new ConcurrentHashMap<>();
+
+  public enum Support {
+    NONE,
+    /**
+     * {@code -XX:ArchiveClassesAtExit}, JDK 13+
+     */
+    DYNAMIC,
+    /**
+     * {@code -XX:+AutoCreateSharedArchive}, JDK 19+
+     */
+    AUTO
+  }
+
+  private final Path archive;
+  private final Path dumpFile;
+  private final List<String> jvmOptions;
+
+  private SharedArchive(Path archive, Path dumpFile, List<String> jvmOptions) {
+    this.archive = archive;
+    this.dumpFile = dumpFile;
+    this.jvmOptions = jvmOptions;
+  }
+
+  /**
+   * @param archiveDir the directory where the archives are stored
+   * @param keys       what the archive depends on, like the java home, the classpath and the JVM options
+   */
+  public static SharedArchive create(Support support, Path archiveDir, String... keys) {
+    if (!Boolean.parseBoolean(CLASS_DATA_SHARING.getValue())) {
+      support = Support.NONE;
+    }
+    Path archive = archiveDir.resolve(hash(keys) + ".jsa");
+    switch (support) {
+      case AUTO:
+        return new SharedArchive(archive, null, Arrays.asList("-XX:+AutoCreateSharedArchive", "-XX:SharedArchiveFile=" + archive));
+      case DYNAMIC:
+        if (Files.isRegularFile(archive)) {
+          DirectoryUtils.touch(archive);
+          return new SharedArchive(archive, null, Collections.singletonList("-XX:SharedArchiveFile=" + archive));
+        }
+        try {
+          Files.createDirectories(archiveDir);
+        } catch (IOException ioe) {
+          logger.warn("Cannot create class-data-sharing archive directory {}", archiveDir, ioe);
+          return new SharedArchive(archive, null, Collections.emptyList());
+        }
+        Path dumpFile = archiveDir.resolve(archive.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        return new SharedArchive(archive, dumpFile, Collections.singletonList("-XX:ArchiveClassesAtExit=" + dumpFile));
+      default:
+        return new SharedArchive(archive, null, Collections.emptyList());
+    }
+  }
+
+  /**
+   * Find out which kind of archive the JVM of the given java home supports, once per java home.
+   *
+   * @return {@link Support#NONE} if class-data-sharing is disabled
+   */
+  public static Support support(String javaHome) {
+    if (!Boolean.parseBoolean(CLASS_DATA_SHARING.getValue())) {
+      return Support.NONE;
+    }
+    return SUPPORT_BY_JAVA_HOME.computeIfAbsent(javaHome, SharedArchive::detectSupport);
+  }
+
+  /**
+   * @return the command line to run on a host to find out whether its JVM supports {@link Support#AUTO}, which
+   * succeeds only if it does
+   */
+  public static String autoSupportProbeCommand(String javaHome) {
+    return javaHome + "/bin/java -XX:+PrintFlagsFinal -version 2>/dev/null | grep -q -w AutoCreateSharedArchive";
+  }
+
+  public List<String> getJvmOptions() {
+    return jvmOptions;
+  }
+
+  /**
+   * Must be called once the JVM started with {@link #getJvmOptions()} exited, to publish the archive it dumped if any.
+   */
+  public void processExited() {
+    if (dumpFile == null) {
+      return;
+    }
+    try {
+      if (Files.isRegularFile(dumpFile) && Files.size(dumpFile) > 0) {
+        Files.move(dumpFile, archive, ATOMIC_MOVE);
+        logger.info("Created class-data-sharing archive {}", archive);
+      }
+    } catch (IOException ioe) {
+      logger.warn("Cannot publish class-data-sharing archive {}", dumpFile, ioe);
+    } finally {
+      try {
+        Files.deleteIfExists(dumpFile);
+      } catch (IOException ioe) {
+        logger.debug("Cannot delete {}", dumpFile, ioe);
+      }
+    }
+  }
+
+  private static Support detectSupport(String javaHome) {
+    try {
+      List<String> flags = new ProcessExecutor()
+          .command(javaHome + (OS.INSTANCE.isWindows() ? "\\bin\\java.exe" : "/bin/java"), "-XX:+PrintFlagsFinal", "-version")
+          .readOutput(true)
+          .redirectErrorStream(true)
+          .execute()
+          .getOutput()
+          .getLines();
+      Support support = parseSupport(flags);
+      logger.info("JVM of {} supports class-data-sharing archives: {}", javaHome, support);
+      return support;
+    } catch (Exception e) {
+      logger.warn("Cannot find out whether JVM of {} supports class-data-sharing archives", javaHome, e);
+      return Support.NONE;
+    }
+  }
+
+  static Support parseSupport(List<String> printFlagsFinalOutput) {
+    boolean dynamic = false;
+    for (String line : printFlagsFinalOutput) {
+      List<String> tokens = Arrays.asList(line.trim().split("\\s+"));
+      if (tokens.contains("AutoCreateSharedArchive")) {
+        return Support.AUTO;
+      }
+      if (tokens.contains("ArchiveClassesAtExit")) {
+        dynamic = true;
+      }
+    }
+    return dynamic ? Support.DYNAMIC : Support.NONE;
+  }
+
+  private static String hash(String... keys) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (String key : keys) {
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -17,55 +17,136 @@
 
 package org.terracotta.angela.common.util;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Runs actions on the lines matching patterns, and forwards lines to consumers, in the order they were chained.
+ * <p>
+ * Matching every pattern against every line is costly when a process logs a lot, so the literals that a pattern
+ * requires (e.g.: {@code Moved to State} in {@code ^.*\QMoved to State\E.*$}) are searched for all at once with a
+ * {@link MultiLiteralMatcher} over the bytes of the line. A pattern only runs on the lines containing one of its
+ * literals, and a line is not even decoded when no pattern needs to run and nothing is forwarded.
+ */
 public class TriggeringOutputStream extends LogOutputStream {
 
-  private final Consumer<String> consumer;
+  private static final Charset CHARSET = Charset.defaultCharset();
+
+  private final List<Step> steps;
+  // compiled on the first line, as the intermediate streams of a chain are never written to
+  private MultiLiteralMatcher prefilter;
+  // for each step, the bit of the literals of its pattern in the prefilter, 0 if the pattern must run on every line
+  private long[] masks;
+  private boolean decodeEveryLine;
 
   public static final TriggeringOutputStream triggerOn(Pattern pattern, Consumer<MatchResult> action) {
-    return new TriggeringOutputStream(line -> {
-      Matcher matcher = pattern.matcher(line);
-      if (matcher.matches()) {
-        action.accept(matcher.toMatchResult());
-      }
-    });
+    return new TriggeringOutputStream(Collections.singletonList(new Step(pattern, action, null)));
   }
 
   public final TriggeringOutputStream andTriggerOn(Pattern pattern, Consumer<MatchResult> action) {
-    return new TriggeringOutputStream(
-        line -> {
-          try {
-            consumer.accept(line);
-          } finally {
-            Matcher matcher = pattern.matcher(line);
-            if (matcher.matches()) {
-              action.accept(matcher.toMatchResult());
-            }
-          }
-        });
+    return new TriggeringOutputStream(append(new Step(pattern, action, null)));
   }
 
   public final TriggeringOutputStream andForward(Consumer<String> action) {
-    return new TriggeringOutputStream(
-        line -> {
-          try {
-            consumer.accept(line);
-          } finally {
-            action.accept(line);
-          }
-        });
+    return new TriggeringOutputStream(append(new Step(null, null, action)));
   }
 
-  private TriggeringOutputStream(Consumer<String> consumer) {
-    this.consumer = consumer;
+  private TriggeringOutputStream(List<Step> steps) {
+    this.steps = steps;
+  }
+
+  private List<Step> append(Step step) {
+    List<Step> result = new ArrayList<>(steps);
+    result.add(step);
+    return result;
+  }
+
+  @Override
+  protected void processLine(byte[] bytes, int offset, int length) {
+    if (prefilter == null) {
+      compilePrefilter();
+    }
+    long candidates = prefilter.find(bytes, offset, length);
+    if (candidates == 0L && !decodeEveryLine) {
+      return;
+    }
+    run(new String(bytes, offset, length, CHARSET), candidates);
   }
 
   @Override
   protected void processLine(final String line) {
-    consumer.accept(line);
+    run(line, -1L);
+  }
+
+  private void run(String line, long candidates) {
+    RuntimeException failure = null;
+    for (int i = 0; i < steps.size(); i++) {
+      Step step = steps.get(i);
+      long mask = masks == null ? 0L : masks[i];
+      try {
+        if (step.forward != null) {
+          step.forward.accept(line);
+        } else if (mask == 0L || (candidates & mask) != 0L) {
+          Matcher matcher = step.pattern.matcher(line);
+          if (matcher.matches()) {
+            step.action.accept(matcher.toMatchResult());
+          }
+        }
+      } catch (RuntimeException e) {
+        // like when the steps were nested try/finally blocks, the last failure wins
+        if (failure != null) {
+          e.addSuppressed(failure);
+        }
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void compilePrefilter() {
+    List<List<byte[]>> groups = new ArrayList<>();
+    long[] masks = new long[steps.size()];
+    boolean decodeEveryLine = false;
+    for (int i = 0; i < steps.size(); i++) {
+      Step step = steps.get(i);
+      if (step.forward != null) {
+        decodeEveryLine = true;
+        continue;
+      }
+      List<String> literals = MultiLiteralMatcher.supports(CHARSET) ? MultiLiteralMatcher.requiredLiterals(step.pattern) : Collections.emptyList();
+      if (literals.isEmpty() || groups.size() == MultiLiteralMatcher.MAX_GROUPS) {
+        decodeEveryLine = true;
+        continue;
+      }
+      List<byte[]> group = new ArrayList<>();
+      for (String literal : literals) {
+        group.add(literal.getBytes(CHARSET));
+      }
+      masks[i] = 1L << groups.size();
+      groups.add(group);
+    }
+    this.masks = masks;
+    this.decodeEveryLine = decodeEveryLine;
+    this.prefilter = new MultiLiteralMatcher(groups);
+  }
+
+  private static class Step {
+    private final Pattern pattern;
+    private final Consumer<MatchResult> action;
+    private final Consumer<String> forward;
+
+    Step(Pattern pattern, Consumer<MatchResult> action, Consumer<String> forward) {
+      this.pattern = pattern;
+      this.action = action;
+      this.forward = forward;
+    }
   }
 }
@@ -0,0 +1,79 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class DirectoryUtilsTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testLinkDirectory() throws Exception {
+    Path kit = temporaryFolder.newFolder("kit").toPath();
+    Files.createDirectories(kit.resolve("server/lib"));
+    Files.createDirectories(kit.resolve("server/conf"));
+    Files.createDirectories(kit.resolve("empty"));
+    Files.write(kit.resolve("server/lib/server.jar"), "jar".getBytes());
+    Files.write(kit.resolve("server/conf/tc-config.xml"), "<tc-config/>".getBytes());
+
+    Path install = temporaryFolder.getRoot().toPath().resolve("install");
+    DirectoryUtils.linkDirectory(kit, install, path -> path.getFileName().toString().endsWith(".xml"));
+
+    assertThat(Files.isDirectory(install.resolve("empty")), is(true));
+    assertThat(new String(Files.readAllBytes(install.resolve("server/lib/server.jar"))), is("jar"));
+    assertThat(new String(Files.readAllBytes(install.resolve("server/conf/tc-config.xml"))), is("<tc-config/>"));
+    if (Files.getFileStore(kit).supportsFileAttributeView("unix")) {
+      assertThat(Files.getAttribute(install.resolve("server/lib/server.jar"), "unix:nlink"), is(2));
+      assertThat(Files.getAttribute(install.resolve("server/conf/tc-config.xml"), "unix:nlink"), is(1));
+    }
+
+    // modifying the copied file must not affect the kit
+    Files.write(install.resolve("server/conf/tc-config.xml"), "changed".getBytes());
+    assertThat(new String(Files.readAllBytes(kit.resolve("server/conf/tc-config.xml"))), is("<tc-config/>"));
+  }
+
+  @Test
+  public void testDeleteEntriesUnusedSince() throws Exception {
+    Path cache = temporaryFolder.newFolder("cache").toPath();
+    Path used = Files.createDirectories(cache.resolve("used"));
+    Files.write(used.resolve("a.jar"), "a".getBytes());
+    Path unused = Files.createDirectories(cache.resolve("unused"));
+    Files.write(unused.resolve("b.jar"), "b".getBytes());
+    long past = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+    Files.setLastModifiedTime(used, FileTime.fromMillis(past));
+    Files.setLastModifiedTime(unused, FileTime.fromMillis(past));
+
+    DirectoryUtils.touch(used);
+
+    assertThat(DirectoryUtils.deleteEntriesUnusedSince(cache, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)), is(1));
+    assertThat(Files.exists(used.resolve("a.jar")), is(true));
+    assertThat(Files.exists(unused), is(false));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FileRangeReaderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRangesAndTail() throws Exception {
+    Path file = temporaryFolder.newFile().toPath();
+    Files.write(file, "0123456789".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(new String(FileRangeReader.read(file, 2, 3), StandardCharsets.UTF_8), is("234"));
+    assertThat(new String(FileRangeReader.read(file, 8, 100), StandardCharsets.UTF_8), is("89"));
+    assertThat(FileRangeReader.read(file, 100, 10).length, is(0));
+    assertThat(new String(FileRangeReader.tail(file, 4), StandardCharsets.UTF_8), is("6789"));
+    assertThat(new String(FileRangeReader.tail(file, 100), StandardCharsets.UTF_8), is("0123456789"));
+  }
+
+  @Test
+  public void testTailLines() throws Exception {
+    Path file = temporaryFolder.newFile().toPath();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20_000; i++) {
+      sb.append("line ").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+
+    assertThat(FileRangeReader.tailLines(file, 3, StandardCharsets.UTF_8), is(Arrays.asList("line 19997", "line 19998", "line 19999")));
+    assertThat(FileRangeReader.tailLines(file, 0, StandardCharsets.UTF_8), is(Collections.emptyList()));
+    assertThat(FileRangeReader.tailLines(file, 50_000, StandardCharsets.UTF_8).size(), is(20_000));
+
+    Files.write(file, "first\nlast without break".getBytes(StandardCharsets.UTF_8));
+    assertThat(FileRangeReader.tailLines(file, 1, StandardCharsets.UTF_8), is(Collections.singletonList("last without break")));
+    assertThat(FileRangeReader.tailLines(file, 5, StandardCharsets.UTF_8), is(Arrays.asList("first", "last without break")));
+
+    Files.write(file, new byte[0]);
+    assertThat(FileRangeReader.tailLines(file, 5, StandardCharsets.UTF_8), is(Collections.emptyList()));
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class FileTransferTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testSendFilesAndFolders() throws Exception {
+    File source = temporaryFolder.newFolder("kit");
+    byte[] big = new byte[3 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(big);
+    Files.write(source.toPath().resolve("big.bin"), big);
+    Files.createDirectories(source.toPath().resolve("server/bin"));
+    Files.write(source.toPath().resolve("server/bin/start.sh"), "echo hello".getBytes());
+    Files.createDirectories(source.toPath().resolve("empty"));
+    File single = temporaryFolder.newFile("single.jar");
+    Files.write(single.toPath(), new byte[0]);
+
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    transfer(dest, source, single);
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest.resolve("kit/big.bin")), big), is(true));
+    assertThat(new String(Files.readAllBytes(dest.resolve("kit/server/bin/start.sh"))), is("echo hello"));
+    assertThat(Files.isDirectory(dest.resolve("kit/empty")), is(true));
+    assertThat(Files.size(dest.resolve("single.jar")), is(0L));
+  }
+
+  @Test
+  public void testSendCompressed() throws Exception {
+    File source = temporaryFolder.newFolder("logs");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      sb.append("2020-01-01 00:00:00,000 INFO - line ").append(i).append('\n');
+    }
+    Files.write(source.toPath().resolve("server.log"), sb.toString().getBytes());
+    byte[] random = new byte[1024 * 1024];
+    new Random(0).nextBytes(random);
+    Files.write(source.toPath().resolve("random.bin"), random);
+
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    transfer(dest, 6, source);
+
+    assertThat(new String(Files.readAllBytes(dest.resolve("logs/server.log"))), is(sb.toString()));
+    assertThat(Arrays.equals(Files.readAllBytes(dest.resolve("logs/random.bin")), random), is(true));
+  }
+
+  @Test
+  public void testSendStream() throws Exception {
+    byte[] data = new byte[1024 * 1024 + 3];
+    new Random(0).nextBytes(data);
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    for (int compressionLevel : new int[]{0, 1}) {
+      exchange(dest, channel -> FileTransfer.send(channel, "data/store.bin", new ByteArrayInputStream(data), compressionLevel));
+      assertThat(Arrays.equals(Files.readAllBytes(dest.resolve("data/store.bin")), data), is(true));
+    }
+  }
+
+  @Test
+  public void testPartitionedEntries() throws Exception {
+    File source = temporaryFolder.newFolder("data");
+    Map<String, File> entries = new LinkedHashMap<>();
+    entries.put("data", source);
+    Files.createDirectories(source.toPath().resolve("empty"));
+    entries.put("data/empty", source.toPath().resolve("empty").toFile());
+    for (int i = 0; i < 5; i++) {
+      Path file = source.toPath().resolve("file" + i);
+      Files.write(file, new byte[(i + 1) * 1000]);
+      entries.put("data/file" + i, file.toFile());
+    }
+
+    assertThat(FileTransfer.partition(entries, 3, Long.MAX_VALUE).size(), is(1));
+    List<Map<String, File>> partitions = FileTransfer.partition(entries, 3, 0);
+    assertThat(partitions.size(), is(3));
+    assertThat(partitions.stream().mapToInt(Map::size).sum(), is(entries.size()));
+
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    for (Map<String, File> partition : partitions) {
+      exchange(dest, channel -> FileTransfer.send(channel, partition, 0));
+    }
+    assertThat(Files.isDirectory(dest.resolve("data/empty")), is(true));
+    for (int i = 0; i < 5; i++) {
+      assertThat(Files.size(dest.resolve("data/file" + i)), is((i + 1) * 1000L));
+    }
+  }
+
+  @Test
+  public void testSendSelectedFiles() throws Exception {
+    File source = temporaryFolder.newFolder("kit");
+    Files.createDirectories(source.toPath().resolve("server/lib"));
+    Files.write(source.toPath().resolve("server/lib/changed.jar"), "changed".getBytes());
+    Files.write(source.toPath().resolve("server/lib/unchanged.jar"), "unchanged".getBytes());
+    Files.write(source.toPath().resolve("top.txt"), "top".getBytes());
+
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    List<String> received = new ArrayList<>();
+    exchange(channel -> FileTransfer.send(channel, source, Arrays.asList("server/lib/changed.jar", "top.txt")),
+        channel -> FileTransfer.receive(channel, dest, (destDir, relativePaths) -> received.addAll(relativePaths)));
+
+    assertThat(received, is(Arrays.asList("kit/server/lib/changed.jar", "kit/top.txt")));
+    assertThat(new String(Files.readAllBytes(dest.resolve("kit/server/lib/changed.jar"))), is("changed"));
+    assertThat(Files.exists(dest.resolve("kit/server/lib/unchanged.jar")), is(false));
+  }
+
+  @Test
+  public void testPermissionsOnlySetOnReceivedFiles() throws Exception {
+    assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    File source = temporaryFolder.newFolder("scripts");
+    Files.write(source.toPath().resolve("start.sh"), "echo start".getBytes());
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    Files.createDirectories(dest);
+    Files.write(dest.resolve("user.sh"), "echo user".getBytes());
+
+    transfer(dest, source);
+
+    assertThat(Files.getPosixFilePermissions(dest.resolve("scripts/start.sh")).contains(PosixFilePermission.OWNER_EXECUTE), is(true));
+    assertThat(Files.getPosixFilePermissions(dest.resolve("user.sh")).contains(PosixFilePermission.OWNER_EXECUTE), is(false));
+  }
+
+  @Test
+  public void testRefuseEntriesOutsideOfDestination() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("dest");
+    Path outside = temporaryFolder.getRoot().toPath().resolve("outside.bin");
+    for (String relativePath : Arrays.asList("../outside.bin", "data/../../outside.bin", outside.toString())) {
+      try {
+        exchange(dest, channel -> FileTransfer.send(channel, relativePath, new ByteArrayInputStream(new byte[]{1}), 0));
+        fail("Expected " + relativePath + " to be refused");
+      } catch (IOException ioe) {
+        // expected
+      }
+      assertThat(Files.exists(outside), is(false));
+    }
+  }
+
+  private static void transfer(Path dest, File... files) throws IOException {
+    transfer(dest, 0, files);
+  }
+
+  private static void transfer(Path dest, int compressionLevel, File... files) throws IOException {
+    exchange(dest, channel -> FileTransfer.send(channel, Arrays.asList(files), compressionLevel));
+  }
+
+  private static void exchange(Path dest, ChannelAction sender) throws IOException {
+    exchange(sender, channel -> FileTransfer.receive(channel, dest));
+  }
+
+  private static void exchange(ChannelAction sender, ChannelAction receiver) throws IOException {
+    try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+      serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      CompletableFuture<Void> received = CompletableFuture.runAsync(() -> {
+        try (SocketChannel channel = serverSocketChannel.accept()) {
+          receiver.run(channel);
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      });
+      try (SocketChannel channel = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+        sender.run(channel);
+      }
+      received.join();
+    }
+  }
+
+  @FunctionalInterface
+  private interface ChannelAction {
+    void run(SocketChannel channel) throws IOException;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class HttpDownloaderTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final byte[] content = new byte[10 * SEGMENT_SIZE + 123];
+  private final AtomicLong bytesServed = new AtomicLong();
+  private final AtomicInteger requests = new AtomicInteger();
+  // number of upcoming ranged requests to fail
+  private final AtomicInteger failures = new AtomicInteger();
+  private volatile boolean rangesSupported = true;
+  private HttpServer server;
+  private URL url;
+
+  @Before
+  public void setUp() throws Exception {
+    new Random(0).nextBytes(content);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/kit.zip", this::serve);
+    server.start();
+    url = new URL("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/kit.zip");
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testSegmentedDownload() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+
+    new HttpDownloader(4, SEGMENT_SIZE, 1).download(url, dest, md5(content));
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest), content), is(true));
+    assertThat(Files.exists(Paths.get(dest + ".part")), is(false));
+    assertThat(Files.exists(Paths.get(dest + ".part.state")), is(false));
+  }
+
+  @Test
+  public void testDownloadWithoutRangeSupport() throws Exception {
+    rangesSupported = false;
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+
+    new HttpDownloader(4, SEGMENT_SIZE, 1).download(url, dest, md5(content));
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest), content), is(true));
+    assertThat(bytesServed.get(), is((long) content.length));
+  }
+
+  @Test
+  public void testFailedDownloadIsResumed() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    failures.set(1);
+    try {
+      new HttpDownloader(1, SEGMENT_SIZE, 1).download(url, dest, md5(content));
+      fail("expected IOException");
+    } catch (IOException ioe) {
+      // expected
+    }
+    assertThat(Files.exists(dest), is(false));
+    assertThat(Files.exists(Paths.get(dest + ".part")), is(true));
+
+    // the probe served 1 byte, then 3 of the 11 segments got served before the failure
+    bytesServed.set(0);
+    new HttpDownloader(2, SEGMENT_SIZE, 1).download(url, dest, md5(content));
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest), content), is(true));
+    assertThat(bytesServed.get(), is(1L + content.length - 3 * SEGMENT_SIZE));
+  }
+
+  @Test
+  public void testSegmentIsRetried() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    failures.set(2);
+
+    new HttpDownloader(1, SEGMENT_SIZE, 3).download(url, dest, md5(content));
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest), content), is(true));
+  }
+
+  @Test
+  public void testMd5Mismatch() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    try {
+      new HttpDownloader(4, SEGMENT_SIZE, 1).download(url, dest, md5(new byte[1]));
+      fail("expected IOException");
+    } catch (IOException ioe) {
+      // expected
+    }
+    assertThat(Files.exists(dest), is(false));
+    assertThat(Files.exists(Paths.get(dest + ".part")), is(false));
+    assertThat(Files.exists(Paths.get(dest + ".part.state")), is(false));
+  }
+
+  @Test
+  public void testSmallFileIsDownloadedInOneRequest() throws Exception {
+    Path dest = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+
+    HttpDownloader.downloadSmallFile(url, dest);
+
+    assertThat(Arrays.equals(Files.readAllBytes(dest), content), is(true));
+    assertThat(requests.get(), is(1));
+    assertThat(Files.exists(Paths.get(dest + ".part")), is(false));
+  }
+
+  @Test
+  public void testReadMd5() throws Exception {
+    Path md5File = temporaryFolder.newFile("kit.zip.md5").toPath();
+
+    Files.write(md5File, "D41D8CD98F00B204E9800998ECF8427E\n".getBytes(StandardCharsets.US_ASCII));
+    assertThat(HttpDownloader.readMd5(md5File), is("D41D8CD98F00B204E9800998ECF8427E"));
+
+    Files.write(md5File, "d41d8cd98f00b204e9800998ecf8427e  kit.zip\n".getBytes(StandardCharsets.US_ASCII));
+    assertThat(HttpDownloader.readMd5(md5File), is("d41d8cd98f00b204e9800998ecf8427e"));
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    int start = 0;
+    int end = content.length - 1;
+    if (rangesSupported && range != null) {
+      String[] bounds = range.substring("bytes=".length()).split("-");
+      start = Integer.parseInt(bounds[0]);
+      end = Integer.parseInt(bounds[1]);
+      // the probe is never failed
+      if (start != 0 || end != 0) {
+        // let the first segments go through, then fail the next ones
+        if (start >= 3 * SEGMENT_SIZE && failures.getAndUpdate(f -> Math.max(0, f - 1)) > 0) {
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+          return;
+        }
+      }
+      exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+      exchange.getResponseHeaders().add("ETag", "\"kit\"");
+      exchange.sendResponseHeaders(206, end - start + 1);
+    } else {
+      exchange.sendResponseHeaders(200, content.length);
+    }
+    // counted before the client can see the end of the response
+    bytesServed.addAndGet(end - start + 1);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(content, start, end - start + 1);
+    }
+  }
+
+  private static String md5(byte[] bytes) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
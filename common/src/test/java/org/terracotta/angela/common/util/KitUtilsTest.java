@@ -0,0 +1,124 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class KitUtilsTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testExtractZip() throws Exception {
+    Map<String, byte[]> content = kitContent();
+    Path zip = temporaryFolder.getRoot().toPath().resolve("kit.zip");
+    try (ZipArchiveOutputStream os = new ZipArchiveOutputStream(zip.toFile())) {
+      writeArchive(os, content, (name, size) -> {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setUnixMode(name.endsWith("/start") ? 0755 : 0644);
+        return entry;
+      });
+    }
+
+    Path dest = temporaryFolder.newFolder("zip").toPath();
+    KitUtils.extractZip(zip, dest);
+
+    assertExtracted(dest, content);
+  }
+
+  @Test
+  public void testExtractTarGz() throws Exception {
+    Map<String, byte[]> content = kitContent();
+    Path tarGz = temporaryFolder.getRoot().toPath().resolve("kit.tar.gz");
+    try (TarArchiveOutputStream os = new TarArchiveOutputStream(new GzipCompressorOutputStream(Files.newOutputStream(tarGz)))) {
+      writeArchive(os, content, (name, size) -> {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setMode(name.endsWith("/start") ? 0100755 : 0100644);
+        entry.setSize(size);
+        return entry;
+      });
+    }
+
+    Path dest = temporaryFolder.newFolder("tar").toPath();
+    KitUtils.extractTarGz(tarGz, dest);
+
+    assertExtracted(dest, content);
+  }
+
+  private static Map<String, byte[]> kitContent() {
+    Map<String, byte[]> content = new LinkedHashMap<>();
+    content.put("kit/bin/start", "#!/bin/sh".getBytes());
+    content.put("kit/server/bin/start-tc-server.sh", "#!/bin/sh".getBytes());
+    content.put("kit/server/conf/tc-config.xml", "<tc-config/>".getBytes());
+    for (int i = 0; i < 50; i++) {
+      content.put("kit/server/lib/lib-" + i + ".jar", ("jar " + i).getBytes());
+    }
+    // larger than what is buffered in memory when extracting a tar.gz
+    byte[] big = new byte[10 * 1024 * 1024];
+    new Random(0).nextBytes(big);
+    content.put("kit/server/lib/big.jar", big);
+    return content;
+  }
+
+  private static <E extends ArchiveEntry> void writeArchive(ArchiveOutputStream os, Map<String, byte[]> content, BiFunction<String, Long, E> entryFactory) throws IOException {
+    os.putArchiveEntry(entryFactory.apply("kit/", 0L));
+    os.closeArchiveEntry();
+    os.putArchiveEntry(entryFactory.apply("kit/empty/", 0L));
+    os.closeArchiveEntry();
+    for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+      os.putArchiveEntry(entryFactory.apply(entry.getKey(), (long) entry.getValue().length));
+      os.write(entry.getValue());
+      os.closeArchiveEntry();
+    }
+  }
+
+  private static void assertExtracted(Path dest, Map<String, byte[]> content) throws IOException {
+    assertThat(Files.isDirectory(dest.resolve("kit/empty")), is(true));
+    for (Map.Entry<String, byte[]> entry : content.entrySet()) {
+      assertThat(entry.getKey(), Arrays.equals(Files.readAllBytes(dest.resolve(entry.getKey())), entry.getValue()), is(true));
+    }
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      assertThat(Files.isExecutable(dest.resolve("kit/bin/start")), is(true));
+      assertThat(Files.isExecutable(dest.resolve("kit/server/bin/start-tc-server.sh")), is(true));
+      assertThat(Files.isExecutable(dest.resolve("kit/server/conf/tc-config.xml")), is(false));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LogForwarderTest {
+
+  @Test
+  public void testBlockingForwarderDoesNotLoseLines() throws Exception {
+    LogForwarder forwarder = new LogForwarder(LoggerFactory.getLogger(LogForwarderTest.class), "test", 2, LogForwarder.Policy.BLOCK);
+    for (int i = 0; i < 1000; i++) {
+      forwarder.accept("line " + i);
+    }
+
+    awaitForwarded(forwarder, 1000);
+    assertThat(forwarder.getDroppedLines(), is(0L));
+  }
+
+  @Test
+  public void testDroppingForwarderAccountsForEveryLine() throws Exception {
+    LogForwarder forwarder = new LogForwarder(LoggerFactory.getLogger(LogForwarderTest.class), null, 1, LogForwarder.Policy.DROP);
+    for (int i = 0; i < 1000; i++) {
+      forwarder.forward("label", "line " + i);
+    }
+
+    awaitForwarded(forwarder, 1000 - forwarder.getDroppedLines());
+    assertThat(forwarder.getForwardedLines() + forwarder.getDroppedLines(), is(1000L));
+  }
+
+  @Test(timeout = 30_000)
+  public void testFailingLoggerDoesNotStallTheForwarder() throws Exception {
+    Logger failingLogger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class}, (proxy, method, args) -> {
+      throw new IllegalStateException("logger failure");
+    });
+    LogForwarder forwarder = new LogForwarder(failingLogger, "test", 2, LogForwarder.Policy.BLOCK);
+    for (int i = 0; i < 1000; i++) {
+      forwarder.accept("line " + i);
+    }
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (forwarder.getDroppedLines() < 1000 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // the lines the logger failed on are not forwarded
+    assertThat(forwarder.getDroppedLines(), is(1000L));
+    assertThat(forwarder.getForwardedLines(), is(0L));
+  }
+
+  @Test
+  public void testLinesAreCountedOnceLogged() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Logger target = LoggerFactory.getLogger(LogForwarderTest.class);
+    Logger flakyLogger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class}, (proxy, method, args) -> {
+      // fail on every third line, in the middle of the batches
+      if (method.getName().equals("info") && calls.incrementAndGet() % 3 == 0) {
+        throw new IllegalStateException("logger failure");
+      }
+      return method.invoke(target, args);
+    });
+    LogForwarder forwarder = new LogForwarder(flakyLogger, "test", 100, LogForwarder.Policy.BLOCK);
+    for (int i = 0; i < 1000; i++) {
+      forwarder.accept("line " + i);
+    }
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (forwarder.getForwardedLines() + forwarder.getDroppedLines() < 1000 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(forwarder.getForwardedLines() + forwarder.getDroppedLines(), is(1000L));
+    assertThat(forwarder.getForwardedLines(), is((long) calls.get() - calls.get() / 3));
+  }
+
+  private static void awaitForwarded(LogForwarder forwarder, long expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (forwarder.getForwardedLines() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(forwarder.getForwardedLines(), is(expected));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class MultiLiteralMatcherTest {
+
+  @Test
+  public void testRequiredLiterals() {
+    assertThat(literals("^.*\\QMoved to State[ PASSIVE-STANDBY ]\\E.*$"), is(Collections.singletonList("Moved to State[ PASSIVE-STANDBY ]")));
+    assertThat(literals("^.*PID is (\\d+).*$"), is(Collections.singletonList("PID is ")));
+    assertThat(literals("^.*(WARN|ERROR).*$"), is(Arrays.asList("WARN", "ERROR")));
+    assertThat(literals("started|stopped"), is(Arrays.asList("started", "stopped")));
+    assertThat(literals("ab?cdef"), is(Collections.singletonList("cdef")));
+    assertThat(literals("abc\\.def+"), is(Collections.singletonList("abc.def")));
+    assertThat(literals("x[abc]yz"), is(Collections.singletonList("yz")));
+    // the arguments of escapes are not literals
+    assertThat(literals("^.*\\x41BC.*$"), is(Collections.singletonList("BC")));
+    assertThat(literals("\\x{41}BC"), is(Collections.singletonList("BC")));
+    assertThat(literals("caf\\u00e9"), is(Collections.singletonList("caf")));
+    assertThat(literals("\\cAfoo"), is(Collections.singletonList("foo")));
+    assertThat(literals("a\\0101"), is(Collections.singletonList("a")));
+    assertThat(literals("ab\\0477"), is(Collections.singletonList("ab")));
+    assertThat(literals("\\p{Lu}abc\\pLd"), is(Collections.singletonList("abc")));
+    assertThat(literals("(a)bc\\12345"), is(Collections.singletonList("bc")));
+    // not flag groups
+    assertThat(literals("\\(?i\\)abc"), is(Collections.singletonList("i)abc")));
+    assertThat(literals("[(?i)]abc"), is(Collections.singletonList("abc")));
+    assertThat(literals("\\Q(?i)\\Eabc"), is(Collections.singletonList("(?i)abc")));
+  }
+
+  @Test
+  public void testPatternsWithoutRequiredLiterals() {
+    assertThat(literals("^.*$"), is(Collections.emptyList()));
+    assertThat(literals("\\d+"), is(Collections.emptyList()));
+    assertThat(literals("(abc)?"), is(Collections.emptyList()));
+    assertThat(literals("abc|\\d+"), is(Collections.emptyList()));
+    assertThat(MultiLiteralMatcher.requiredLiterals(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)), is(Collections.emptyList()));
+    assertThat(literals("(?i)abc"), is(Collections.emptyList()));
+    assertThat(literals("^.*(?i:warn|error).*$"), is(Collections.emptyList()));
+    assertThat(literals("abc(?-i)def"), is(Collections.emptyList()));
+    assertThat(literals("(?<n>ab)\\k<n>"), is(Collections.emptyList()));
+  }
+
+  @Test
+  public void testFind() {
+    MultiLiteralMatcher matcher = new MultiLiteralMatcher(Arrays.asList(
+        bytes("he", "she"),
+        bytes("his"),
+        bytes("hers")
+    ));
+
+    assertThat(find(matcher, "ushers"), is(0b101L));
+    assertThat(find(matcher, "this"), is(0b010L));
+    assertThat(find(matcher, "nothing"), is(0L));
+    assertThat(find(matcher, ""), is(0L));
+
+    byte[] line = "xxhisxx".getBytes(StandardCharsets.UTF_8);
+    assertThat(matcher.find(line, 3, 4), is(0L));
+    assertThat(matcher.find(line, 2, 3), is(0b010L));
+  }
+
+  private static List<String> literals(String regex) {
+    return MultiLiteralMatcher.requiredLiterals(Pattern.compile(regex));
+  }
+
+  private static List<byte[]> bytes(String... literals) {
+    byte[][] result = new byte[literals.length][];
+    for (int i = 0; i < literals.length; i++) {
+      result[i] = literals[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return Arrays.asList(result);
+  }
+
+  private static long find(MultiLiteralMatcher matcher, String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return matcher.find(bytes, 0, bytes.length);
+  }
+}
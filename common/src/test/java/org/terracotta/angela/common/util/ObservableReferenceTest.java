@@ -0,0 +1,60 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ObservableReferenceTest {
+
+  @Test
+  public void testListenersAreToldAboutEveryUpdate() {
+    ObservableReference<String> ref = new ObservableReference<>("a");
+    List<String> values = new ArrayList<>();
+    ref.addListener(values::add);
+
+    ref.set("b");
+    ref.set("b");
+    assertThat(ref.compareAndSet("a", "c"), is(false));
+    assertThat(ref.compareAndSet("b", "c"), is(true));
+
+    assertThat(ref.get(), is("c"));
+    assertThat(values, is(Arrays.asList("b", "b", "c")));
+  }
+
+  @Test
+  public void testRemovedListenerIsNotTold() {
+    ObservableReference<String> ref = new ObservableReference<>("a");
+    List<String> values = new ArrayList<>();
+    Consumer<String> listener = values::add;
+    ref.addListener(listener);
+    ref.set("b");
+    ref.removeListener(listener);
+    ref.set("c");
+
+    assertThat(values, is(Arrays.asList("b")));
+  }
+}
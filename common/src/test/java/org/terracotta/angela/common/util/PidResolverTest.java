@@ -0,0 +1,55 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+import org.zeroturnaround.process.PidUtil;
+import org.zeroturnaround.process.Processes;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeTrue;
+
+public class PidResolverTest {
+
+  @Test
+  public void testFindsProcessInTreeByArgument() throws Exception {
+    assumeTrue(PidResolver.isSupported() && !OS.INSTANCE.isWindows());
+
+    Process process = new ProcessBuilder("sh", "-c", "sleep 30.25; true").start();
+    int shellPid = PidUtil.getPid(process);
+    try {
+      Integer sleepPid = null;
+      for (int i = 0; i < 100 && sleepPid == null; i++) {
+        sleepPid = PidResolver.findInTree(shellPid, "30.25");
+        Thread.sleep(20);
+      }
+
+      assertThat(sleepPid != null, is(true));
+      assertThat(sleepPid == shellPid, is(false));
+      assertThat(PidResolver.descendants(shellPid).contains(sleepPid), is(true));
+      assertThat(PidResolver.findInTree(shellPid, "no-such-argument") == null, is(true));
+    } finally {
+      for (Integer pid : PidResolver.descendants(shellPid)) {
+        Processes.newPidProcess(pid).destroyForcefully();
+      }
+      process.destroyForcibly();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ProcessLogStoreTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testQueryByPatternAndTime() throws Exception {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (ProcessLogStore store = new ProcessLogStore(directory, 1024 * 1024, 4)) {
+      store.write("starting\nPID is 42\n".getBytes(StandardCharsets.UTF_8));
+      Thread.sleep(20);
+      long middle = System.currentTimeMillis();
+      Thread.sleep(20);
+      store.write("WARN something\nstarted\nWARN something else\n".getBytes(StandardCharsets.UTF_8));
+
+      assertThat(store.query(0L, Long.MAX_VALUE, null, 10), is(Arrays.asList("starting", "PID is 42", "WARN something", "started", "WARN something else")));
+      assertThat(store.query(0L, Long.MAX_VALUE, "^WARN", 1), is(Arrays.asList("WARN something")));
+      assertThat(store.query(0L, middle, "start", 10), is(Arrays.asList("starting")));
+      assertThat(store.query(middle, Long.MAX_VALUE, "start", 10), is(Arrays.asList("started")));
+    }
+  }
+
+  @Test
+  public void testSegmentsRotateAndSurviveReopening() throws Exception {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (ProcessLogStore store = new ProcessLogStore(directory, 1024, 3)) {
+      for (int i = 0; i < 1000; i++) {
+        store.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      assertThat(segmentCount(directory), is(3L));
+      assertThat(store.query(0L, Long.MAX_VALUE, "^line 999$", 10), is(Arrays.asList("line 999")));
+      assertThat(store.query(0L, Long.MAX_VALUE, "^line 0$", 10).isEmpty(), is(true));
+    }
+
+    try (ProcessLogStore store = new ProcessLogStore(directory, 1024, 3)) {
+      store.write("restarted\n".getBytes(StandardCharsets.UTF_8));
+      List<String> lines = store.query(0L, Long.MAX_VALUE, "^(line 999|restarted)$", 10);
+      assertThat(lines, is(Arrays.asList("line 999", "restarted")));
+    }
+  }
+
+  @Test
+  public void testWriteErrorDisablesTheStore() throws Exception {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (ProcessLogStore store = new ProcessLogStore(directory, 1, 3)) {
+      store.write("first\n".getBytes(StandardCharsets.UTF_8));
+      // the next segment cannot be created once the directory is replaced by a file
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+      Files.createFile(directory);
+
+      store.write("second\nthird\n".getBytes(StandardCharsets.UTF_8));
+      assertThat(segmentCount(temporaryFolder.getRoot().toPath()), is(0L));
+    }
+  }
+
+  private static long segmentCount(Path directory) throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+import org.zeroturnaround.process.PidUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeTrue;
+
+public class ProcessReaperTest {
+
+  @Test
+  public void testExitCallbacksRunOnceProcessExited() throws Exception {
+    assumeTrue(!OS.INSTANCE.isWindows());
+    ProcessReaper reaper = new ProcessReaper();
+
+    Process process = new ProcessBuilder("sleep", "0.5").start();
+    int pid = PidUtil.getPid(process);
+    CountDownLatch exited = new CountDownLatch(2);
+    reaper.watch(pid, exited::countDown);
+    reaper.watch(pid, exited::countDown);
+
+    assertThat(reaper.isAlive(pid), is(true));
+    assertThat(reaper.watchedCount(), is(1));
+    assertThat(exited.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(reaper.isAlive(pid), is(false));
+    assertThat(reaper.watchedCount(), is(0));
+  }
+
+  @Test
+  public void testSlowExitCallbacksDoNotDelayExitDetection() throws Exception {
+    assumeTrue(!OS.INSTANCE.isWindows());
+    ProcessReaper reaper = new ProcessReaper();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch secondExited = new CountDownLatch(1);
+
+    Process first = new ProcessBuilder("sleep", "0").start();
+    reaper.watch(PidUtil.getPid(first), () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    CountDownLatch firstExited = new CountDownLatch(1);
+    reaper.watch(PidUtil.getPid(first), firstExited::countDown);
+    first.waitFor();
+
+    Process second = new ProcessBuilder("sleep", "0.5").start();
+    int secondPid = PidUtil.getPid(second);
+    reaper.watch(secondPid, secondExited::countDown);
+
+    try {
+      assertThat(firstExited.await(10, TimeUnit.SECONDS), is(true));
+      assertThat(secondExited.await(10, TimeUnit.SECONDS), is(true));
+      assertThat(reaper.isAlive(secondPid), is(false));
+    } finally {
+      release.countDown();
+    }
+  }
+}
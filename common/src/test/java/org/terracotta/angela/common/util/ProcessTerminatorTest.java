@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+import org.zeroturnaround.process.PidUtil;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeTrue;
+
+public class ProcessTerminatorTest {
+
+  @Test
+  public void testTerminateStopsTheWholeTree() throws Exception {
+    assumeTrue(PidResolver.isSupported() && !OS.INSTANCE.isWindows());
+    int shellPid = startTree();
+    List<Integer> descendants = PidResolver.descendants(shellPid);
+
+    long start = System.currentTimeMillis();
+    ProcessTerminator.terminate(Collections.singleton(shellPid), 30_000);
+
+    assertThat(System.currentTimeMillis() - start < 30_000, is(true));
+    assertThat(PidResolver.isAlive(shellPid), is(false));
+    for (Integer pid : descendants) {
+      assertThat(PidResolver.isAlive(pid), is(false));
+    }
+  }
+
+  @Test
+  public void testTerminateEscalatesAfterGracePeriod() throws Exception {
+    assumeTrue(PidResolver.isSupported() && !OS.INSTANCE.isWindows());
+    // a shell ignoring SIGTERM
+    Process process = new ProcessBuilder("sh", "-c", "trap '' TERM; while true; do sleep 0.1; done").start();
+    int shellPid = PidUtil.getPid(process);
+
+    ProcessTerminator.terminate(Collections.singleton(shellPid), 500);
+
+    assertThat(PidResolver.isAlive(shellPid), is(false));
+  }
+
+  @Test
+  public void testKillStopsTheWholeTree() throws Exception {
+    assumeTrue(PidResolver.isSupported() && !OS.INSTANCE.isWindows());
+    int shellPid = startTree();
+    List<Integer> descendants = PidResolver.descendants(shellPid);
+
+    ProcessTerminator.kill(Collections.singleton(shellPid));
+
+    assertThat(PidResolver.isAlive(shellPid), is(false));
+    for (Integer pid : descendants) {
+      assertThat(PidResolver.isAlive(pid), is(false));
+    }
+  }
+
+  private static int startTree() throws Exception {
+    Process process = new ProcessBuilder("sh", "-c", "sleep 60 & sleep 61; wait").start();
+    int shellPid = PidUtil.getPid(process);
+    for (int i = 0; i < 100 && PidResolver.descendants(shellPid).size() < 2; i++) {
+      Thread.sleep(20);
+    }
+    assertThat(PidResolver.descendants(shellPid).size(), is(2));
+    return shellPid;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class SharedArchiveTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testParseSupport() {
+    assertThat(SharedArchive.parseSupport(Arrays.asList(
+        "     bool AutoCreateSharedArchive                  = false                                     {product} {default}",
+        "    ccstr ArchiveClassesAtExit                     =                                           {product} {default}")),
+        is(SharedArchive.Support.AUTO));
+    assertThat(SharedArchive.parseSupport(Collections.singletonList(
+        "    ccstr ArchiveClassesAtExit                     =                                           {product} {default}")),
+        is(SharedArchive.Support.DYNAMIC));
+    assertThat(SharedArchive.parseSupport(Collections.singletonList(
+        "     bool UseSharedSpaces                          = true                                      {product}")),
+        is(SharedArchive.Support.NONE));
+  }
+
+  @Test
+  public void testDynamicArchiveIsPublishedOnExit() throws Exception {
+    Path archiveDir = temporaryFolder.getRoot().toPath().resolve("cds");
+
+    SharedArchive dumping = SharedArchive.create(SharedArchive.Support.DYNAMIC, archiveDir, "java", "classpath");
+    assertThat(dumping.getJvmOptions().size(), is(1));
+    assertThat(dumping.getJvmOptions().get(0).startsWith("-XX:ArchiveClassesAtExit="), is(true));
+
+    // simulate the JVM dumping the archive on exit
+    Path dumpFile = archiveDir.resolve(dumping.getJvmOptions().get(0).substring("-XX:ArchiveClassesAtExit=".length()));
+    Files.write(dumpFile, new byte[]{1, 2, 3});
+    dumping.processExited();
+
+    SharedArchive using = SharedArchive.create(SharedArchive.Support.DYNAMIC, archiveDir, "java", "classpath");
+    assertThat(using.getJvmOptions().size(), is(1));
+    assertThat(using.getJvmOptions().get(0).startsWith("-XX:SharedArchiveFile="), is(true));
+    assertThat(Files.exists(dumpFile), is(false));
+
+    // another classpath gets another archive
+    SharedArchive other = SharedArchive.create(SharedArchive.Support.DYNAMIC, archiveDir, "java", "other classpath");
+    assertThat(other.getJvmOptions().get(0).startsWith("-XX:ArchiveClassesAtExit="), is(true));
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * The contents of this file are subject to the Terracotta Public License Version
+ * 2.0 (the "License"); You may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://terracotta.org/legal/terracotta-public-license.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Covered Software is Angela.
+ *
+ * The Initial Developer of the Covered Software is
+ * Terracotta, Inc., a Software AG company
+ */
+
+
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.regex.Pattern.compile;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class TriggeringOutputStreamTest {
+
+  @Test
+  public void testBulkWritesSplitLinesLikeSingleByteWrites() throws IOException {
+    String output = "first\r\nsecond\n\nthird\r\rfourth\nfifth";
+    List<String> expected = new ArrayList<>();
+    try (LogOutputStream out = collectingStream(expected)) {
+      for (byte b : output.getBytes(StandardCharsets.UTF_8)) {
+        out.write(b);
+      }
+    }
+
+    for (int chunkSize = 1; chunkSize <= output.length(); chunkSize++) {
+      List<String> lines = new ArrayList<>();
+      byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+      try (LogOutputStream out = collectingStream(lines)) {
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+          out.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+        }
+      }
+      assertThat("chunk size " + chunkSize, lines, is(expected));
+    }
+    assertThat(expected, is(Arrays.asList("first", "second", "third", "", "fourth", "fifth")));
+  }
+
+  @Test
+  public void testTriggersRunInChainOrder() throws IOException {
+    List<String> events = new ArrayList<>();
+    TriggeringOutputStream out = TriggeringOutputStream
+        .triggerOn(compile("^.*\\QServer started\\E.*$"), mr -> events.add("started"))
+        .andTriggerOn(compile("^.*PID is (\\d+).*$"), mr -> events.add("pid " + mr.group(1)))
+        .andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> events.add("log " + mr.group()))
+        .andTriggerOn(compile("^\\d+$"), mr -> events.add("number " + mr.group()));
+
+    out.write(("boot PID is 1234\n" +
+               "something unrelated\n" +
+               "WARN Server started\n" +
+               "42\n" +
+               "an ERROR, PID is not known\n").getBytes(StandardCharsets.UTF_8));
+
+    assertThat(events, is(Arrays.asList(
+        "pid 1234",
+        "started", "log WARN Server started",
+        "number 42",
+        "log an ERROR, PID is not known")));
+  }
+
+  @Test
+  public void testForwardSeesEveryLine() throws IOException {
+    List<String> forwarded = new ArrayList<>();
+    List<String> triggered = new ArrayList<>();
+    TriggeringOutputStream out = TriggeringOutputStream
+        .triggerOn(compile("^.*\\Qmarker\\E.*$"), mr -> triggered.add(mr.group()))
+        .andForward(forwarded::add);
+
+    out.write("a\nwith marker\nb\n".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(forwarded, is(Arrays.asList("a", "with marker", "b")));
+    assertThat(triggered, is(Arrays.asList("with marker")));
+  }
+
+  private static LogOutputStream collectingStream(List<String> lines) {
+    return new LogOutputStream() {
+      @Override
+      protected void processLine(String line) {
+        lines.add(line);
+      }
+    };
+  }
+}